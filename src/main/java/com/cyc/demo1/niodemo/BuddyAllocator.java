@@ -0,0 +1,237 @@
+package com.cyc.demo1.niodemo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hands out power of two blocks of one arena, from the minimum block size of a buddy {@link MessageBufferConfig} up
+ * to its maximum block size. A message starts in a block of the minimum size, and doubles its block each time it
+ * outgrows it - so it never occupies more than twice its length, where the size classes jump from 4KB to 128KB.
+ *
+ * The arena is cut into units of the minimum block size, and a block of order k is 2^k units which start at a multiple
+ * of 2^k units. Its buddy is the other half of the block of order k + 1 it was split from - the block whose start
+ * differs in bit k only. A free block which finds its buddy free is merged with it, and a message whose buddy is free
+ * grows into it in place, without copying a byte. Each order has a doubly linked list of its free blocks, linked
+ * through per unit arrays, so a buddy can be taken out of its list in constant time when it is merged.
+ *
+ * The arena is allocated when the first block is handed out.
+ *
+ * @author chenyuchuan
+ */
+public class BuddyAllocator implements IBlockAllocator {
+
+    private MessageBuffer messageBuffer = null;
+
+    private int minBlockSize = 0;
+    private int maxOrder = 0;
+    private int arenaSize = 0;
+    private int units = 0;
+
+    private ByteBuffer arena = null;
+    private byte[] arenaArray = null; // null if the arena is not on the heap.
+
+    private int[] freeHeads = null; // per order: the first unit of the first free block, -1 if there is none.
+    private int[] freeCounts = null; // per order.
+    private int[] nextFree = null; // per unit which starts a free block.
+    private int[] prevFree = null;
+    private byte[] freeOrder = null; // per unit: the order of the free block starting there, -1 if none starts there.
+
+    private long usedUnits = 0;
+
+    public BuddyAllocator(MessageBufferConfig config) {
+        if (!config.isBuddy()) {
+            throw new IllegalArgumentException("not a buddy MessageBufferConfig");
+        }
+        this.minBlockSize = config.getMinBlockSize();
+        this.maxOrder = Integer.numberOfTrailingZeros(config.getMaxBlockSize() / config.getMinBlockSize());
+        this.arenaSize = config.getArenaSize();
+        this.units = this.arenaSize / this.minBlockSize;
+
+        this.freeHeads = new int[this.maxOrder + 1];
+        this.freeCounts = new int[this.maxOrder + 1];
+        this.nextFree = new int[this.units];
+        this.prevFree = new int[this.units];
+        this.freeOrder = new byte[this.units];
+
+        Arrays.fill(this.freeHeads, -1);
+        Arrays.fill(this.freeOrder, (byte)-1);
+        // the arena starts as free blocks of the largest order, pushed last to first so the first is handed out first.
+        for (int unit = this.units - (1 << this.maxOrder); unit >= 0; unit -= 1 << this.maxOrder) {
+            pushFree(unit, this.maxOrder);
+        }
+    }
+
+    @Override
+    public void init(MessageBuffer messageBuffer) {
+        this.messageBuffer = messageBuffer;
+    }
+
+    @Override
+    public boolean allocate(Message message) {
+        int unit = takeBlock(0);
+        if (unit == -1) {
+            return false;
+        }
+        assignBlock(message, 0, unit);
+        return true;
+    }
+
+    @Override
+    public boolean expand(Message message) {
+        int order = message.sizeClassIndex;
+        if (order >= this.maxOrder) {
+            return false;
+        }
+
+        int unit = message.blockIndex;
+        int buddy = unit ^ (1 << order);
+        if (buddy > unit && this.freeOrder[buddy] == order) {
+            // the upper half is free - the message grows into it in place.
+            removeFree(buddy, order);
+            this.usedUnits += 1 << order;
+            assignBlock(message, order + 1, unit);
+            return true;
+        }
+
+        int newUnit = takeBlock(order + 1);
+        if (newUnit == -1) {
+            return false;
+        }
+        int srcOffset = message.offset;
+        assignBlock(message, order + 1, newUnit);
+        MessageBuffer.copy(this.arena, srcOffset, this.arena, message.offset, message.length);
+
+        freeBlock(unit, order); // free smaller block after copy
+        return true;
+    }
+
+    @Override
+    public void free(Message message) {
+        freeBlock(message.blockIndex, message.sizeClassIndex);
+    }
+
+    /**
+     * @return false - freeing merges buddies, which changes the free lists of several orders.
+     */
+    @Override
+    public boolean isFreeThreadSafe() {
+        return false;
+    }
+
+    @Override
+    public int maxBlocks() {
+        return this.units;
+    }
+
+    /**
+     * @return the number of blocks of the order sizeClassIndex the free blocks of that order and above split into.
+     */
+    @Override
+    public int availableBlocks(int sizeClassIndex) {
+        int availableBlocks = 0;
+        for (int order = sizeClassIndex; order <= this.maxOrder; order++) {
+            availableBlocks += this.freeCounts[order] << (order - sizeClassIndex);
+        }
+        return availableBlocks;
+    }
+
+    @Override
+    public long allocatedBytes() {
+        return this.arena == null ? 0 : this.arenaSize;
+    }
+
+    @Override
+    public long usedBytes() {
+        return this.usedUnits * this.minBlockSize;
+    }
+
+    @Override
+    public double fragmentation() {
+        long freeUnits = Math.min(this.units - this.usedUnits, 1 << this.maxOrder);
+        for (int order = this.maxOrder; order >= 0; order--) {
+            if (this.freeCounts[order] > 0) {
+                return 1 - (double)(1 << order) / freeUnits;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Takes a free block of the given order - splitting the smallest larger free block if there is none.
+     *
+     * @return the first unit of the block, -1 if no free block is large enough.
+     */
+    private int takeBlock(int order) {
+        int freeOrder = order;
+        while (freeOrder <= this.maxOrder && this.freeHeads[freeOrder] == -1) {
+            freeOrder++;
+        }
+        if (freeOrder > this.maxOrder) {
+            return -1;
+        }
+        if (this.arena == null) {
+            this.arena = this.messageBuffer.allocateSlab(this.arenaSize);
+            this.arenaArray = this.arena.hasArray() ? this.arena.array() : null;
+        }
+
+        int unit = this.freeHeads[freeOrder];
+        removeFree(unit, freeOrder);
+        // keep the lower half, free the upper half, until the block is of the given order.
+        while (freeOrder > order) {
+            freeOrder--;
+            pushFree(unit + (1 << freeOrder), freeOrder);
+        }
+        this.usedUnits += 1 << order;
+        return unit;
+    }
+
+    /**
+     * Returns a block to the free lists, merged with its buddy for as long as the buddy is free.
+     */
+    private void freeBlock(int unit, int order) {
+        this.usedUnits -= 1 << order;
+        while (order < this.maxOrder) {
+            int buddy = unit ^ (1 << order);
+            if (this.freeOrder[buddy] != order) {
+                break;
+            }
+            removeFree(buddy, order);
+            unit = Math.min(unit, buddy);
+            order++;
+        }
+        pushFree(unit, order);
+    }
+
+    private void pushFree(int unit, int order) {
+        int head = this.freeHeads[order];
+        this.nextFree[unit] = head;
+        this.prevFree[unit] = -1;
+        if (head != -1) {
+            this.prevFree[head] = unit;
+        }
+        this.freeHeads[order] = unit;
+        this.freeOrder[unit] = (byte)order;
+        this.freeCounts[order]++;
+    }
+
+    private void removeFree(int unit, int order) {
+        int next = this.nextFree[unit];
+        int prev = this.prevFree[unit];
+        if (prev == -1) {
+            this.freeHeads[order] = next;
+        } else {
+            this.nextFree[prev] = next;
+        }
+        if (next != -1) {
+            this.prevFree[next] = prev;
+        }
+        this.freeOrder[unit] = -1;
+        this.freeCounts[order]--;
+    }
+
+    private void assignBlock(Message message, int order, int unit) {
+        message.assignBlock(this.arena, this.arenaArray, unit * this.minBlockSize, this.minBlockSize << order, order,
+            unit);
+    }
+
+}
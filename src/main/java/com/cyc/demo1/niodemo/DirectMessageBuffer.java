@@ -0,0 +1,29 @@
+package com.cyc.demo1.niodemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A MessageBuffer with its slabs in off-heap memory. The slabs are not scanned or moved by the garbage collector, and
+ * the messages in them can be written to a channel without the JDK first copying them into a temporary direct buffer.
+ *
+ * Messages from a DirectMessageBuffer have no sharedArray - their bytes are only reachable through
+ * {@link Message#sharedBuffer}. Use it for buffers whose messages are not parsed as byte arrays, e.g. the write buffer.
+ *
+ * @author chenyuchuan
+ */
+public class DirectMessageBuffer extends MessageBuffer {
+
+    public DirectMessageBuffer() {
+        super();
+    }
+
+    public DirectMessageBuffer(MessageBufferConfig config) {
+        super(config);
+    }
+
+    @Override
+    protected ByteBuffer allocateSlab(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.cyc.demo1.niodemo;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of a file which is sent after the bytes of a message - see {@link Message#fileRegion}. The region is
+ * transferred with FileChannel.transferTo(), which lets the operating system send the file to the socket without
+ * copying it through the JVM heap (sendfile on Linux).
+ *
+ * The region owns the FileChannel, and closes it when the message it is attached to is released.
+ *
+ * @author chenyuchuan
+ */
+public class FileRegion {
+
+    private FileChannel fileChannel = null;
+    private long position = 0;
+    private long count = 0;
+
+    public FileRegion(FileChannel fileChannel, long position, long count) {
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Transfers as much of the rest of the region as the target accepts.
+     *
+     * @param transferred
+     *            the number of bytes of the region transferred so far.
+     * @return the number of bytes transferred by this call.
+     * @throws IOException
+     *             also if the file has become shorter than the region.
+     */
+    public long transferTo(WritableByteChannel target, long transferred) throws IOException {
+        if (transferred >= this.count) {
+            return 0;
+        }
+        long position = this.position + transferred;
+        long bytesTransferred = this.fileChannel.transferTo(position, this.count - transferred, target);
+        if (bytesTransferred == 0 && position >= this.fileChannel.size()) {
+            // without this check the region would never complete, and the socket would stay writable forever.
+            throw new IOException("file was truncated to " + this.fileChannel.size() + " bytes while being sent");
+        }
+        return bytesTransferred;
+    }
+
+    /**
+     * Closes the file. Called when the message the region is attached to is released.
+     */
+    public void release() {
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
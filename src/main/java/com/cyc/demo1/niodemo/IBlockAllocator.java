@@ -0,0 +1,75 @@
+package com.cyc.demo1.niodemo;
+
+/**
+ * Decides which block of which slab a message of a MessageBuffer occupies. The MessageBuffer synchronizes the calls -
+ * except free() if {@link #isFreeThreadSafe()} - and pools the Message objects. The allocator only hands out, grows
+ * and takes back blocks. A message records its block in sizeClassIndex and blockIndex, whose meaning is up to the
+ * allocator.
+ * <ul>
+ * <li>{@link SizeClassAllocator} - the fixed size classes of a MessageBufferConfig.</li>
+ * <li>{@link BuddyAllocator} - power of two blocks, split from and merged back into one arena.</li>
+ * </ul>
+ *
+ * @author chenyuchuan
+ */
+public interface IBlockAllocator {
+
+    /**
+     * Called once by the MessageBuffer the allocator belongs to - the allocator takes its memory from
+     * {@link MessageBuffer#allocateSlab(int)}.
+     */
+    public void init(MessageBuffer messageBuffer);
+
+    /**
+     * Assigns a block of the smallest size to the message.
+     *
+     * @return false if there is no free block.
+     */
+    public boolean allocate(Message message);
+
+    /**
+     * Gives the message a larger block, with its bytes at the same place relative to message.offset.
+     *
+     * @return false if there is no larger block size, or no free block of that size.
+     */
+    public boolean expand(Message message);
+
+    /**
+     * Takes back the block of the message.
+     */
+    public void free(Message message);
+
+    /**
+     * @return true if {@link #free(Message)} may be called from any thread without the MessageBuffer lock - so the
+     *         threads which release messages do not contend with those which allocate.
+     */
+    public boolean isFreeThreadSafe();
+
+    /**
+     * @return the most blocks that can be assigned at the same time - the MessageBuffer pools that many messages.
+     */
+    public int maxBlocks();
+
+    /**
+     * @return the number of blocks of the given size class which can still be handed out.
+     */
+    public int availableBlocks(int sizeClassIndex);
+
+    /**
+     * @return the number of bytes of slab memory allocated so far.
+     */
+    public long allocatedBytes();
+
+    /**
+     * @return the number of bytes in the blocks assigned to messages.
+     */
+    public long usedBytes();
+
+    /**
+     * @return the external fragmentation: 1 - the largest free block / the largest block the free bytes could make, at
+     *         most a block of the largest size. 0 if no free block is missing for that, or if the allocator never
+     *         splits blocks.
+     */
+    public double fragmentation();
+
+}
@@ -1,6 +1,10 @@
 package com.cyc.demo1.niodemo;
 
 /**
+ * Processes a complete inbound message. The message is released by the SocketProcessor when process() returns - a
+ * processor which keeps the message beyond that, e.g. to process it on another thread, must call
+ * {@link Message#retain()} and release it again when done.
+ *
  * @author chenyuchuan
  */
 public interface IMessageProcessor {
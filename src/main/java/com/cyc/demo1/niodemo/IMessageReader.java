@@ -1,7 +1,6 @@
 package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -11,8 +10,21 @@ public interface IMessageReader {
 
     public void init(MessageBuffer readMessageBuffer);
 
-    public void read(Socket socket, ByteBuffer byteBuffer) throws IOException;
+    /**
+     * Reads the available data from the socket - straight into messages of the read MessageBuffer.
+     */
+    public void read(Socket socket) throws IOException;
 
     public List<Message> getMessages();
 
+    /**
+     * @return true if a message has been partially read - the socket is then subject to the read timeout.
+     */
+    public boolean isReadingMessage();
+
+    /**
+     * Releases the messages the reader still holds - e.g. a partially read message. Called when the socket is closed.
+     */
+    public void dispose();
+
 }
@@ -0,0 +1,50 @@
+package com.cyc.demo1.niodemo;
+
+/**
+ * A bounded queue of non-negative ints - the free block indexes of a MessageBuffer size class. The implementations
+ * differ in which threads may put and take:
+ * <ul>
+ * <li>{@link QueueIntFlip} - one thread at a time, the caller synchronizes.</li>
+ * <li>{@link SpscQueueInt} - one producer thread and one consumer thread.</li>
+ * <li>{@link MpscQueueInt} - any number of producer threads and one consumer thread.</li>
+ * </ul>
+ *
+ * @author chenyuchuan
+ */
+public interface IQueueInt {
+
+    /**
+     * @return the number of elements the queue can hold.
+     */
+    int capacity();
+
+    /**
+     * @return the number of elements in the queue. Only a snapshot if other threads put or take concurrently.
+     */
+    int available();
+
+    /**
+     * @return false if the queue is full.
+     */
+    boolean put(int element);
+
+    /**
+     * Puts the first length elements of the array - as many as fit.
+     *
+     * @return the number of elements put.
+     */
+    int put(int[] elements, int length);
+
+    /**
+     * @return the next element, or -1 if the queue is empty.
+     */
+    int take();
+
+    /**
+     * Takes up to length elements into the array.
+     *
+     * @return the number of elements taken.
+     */
+    int take(int[] into, int length);
+
+}
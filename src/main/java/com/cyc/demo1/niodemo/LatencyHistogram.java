@@ -0,0 +1,129 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, laid out like an HdrHistogram: the values below 2^SUB_BUCKET_BITS have a
+ * bucket each, and every power of two above that is split into the same number of linear sub-buckets. So every value
+ * is recorded with a relative error below 1%, in a fixed array of counts - recording allocates nothing and costs an
+ * index computation and an increment.
+ *
+ * There must be only one recording thread - the SocketProcessor which owns the histogram. Any thread can read it; the
+ * counts are published with lazySet, so a reader sees them a little late at worst, never torn.
+ *
+ * @author chenyuchuan
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    // larger values are recorded as this value - one hour is plenty for a cycle of a SocketProcessor.
+    public static final long HIGHEST_TRACKABLE_VALUE = 3600L * 1000 * 1000 * 1000;
+
+    private AtomicLongArray counts = null;
+    private volatile long totalCount = 0;
+    private volatile long totalValue = 0;
+    private volatile long maxValue = 0;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(bucketIndex(HIGHEST_TRACKABLE_VALUE) + 1);
+    }
+
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > HIGHEST_TRACKABLE_VALUE) {
+            value = HIGHEST_TRACKABLE_VALUE;
+        }
+
+        int index = bucketIndex(value);
+        this.counts.lazySet(index, this.counts.get(index) + 1);
+        this.totalValue += value;
+        this.totalCount++;
+        if (value > this.maxValue) {
+            this.maxValue = value;
+        }
+    }
+
+    /**
+     * Adds the counts of the other histogram to this one - to merge the histograms of several threads. Called by the
+     * recording thread of this histogram, or once the recording has stopped.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                this.counts.lazySet(i, this.counts.get(i) + count);
+            }
+        }
+        this.totalValue += other.totalValue;
+        this.totalCount += other.totalCount;
+        if (other.maxValue > this.maxValue) {
+            this.maxValue = other.maxValue;
+        }
+    }
+
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    public long getMaxValue() {
+        return this.maxValue;
+    }
+
+    public double getMean() {
+        long totalCount = this.totalCount;
+        return totalCount == 0 ? 0 : (double)this.totalValue / totalCount;
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100.
+     * @return the largest value which is equivalent - recorded in the same bucket - to the value at the percentile,
+     *         0 if nothing is recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        // the counts are summed up first - the total may move on while they are read.
+        long totalCount = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            totalCount += this.counts.get(i);
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            count += this.counts.get(i);
+            if (count >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), this.maxValue);
+            }
+        }
+        return this.maxValue;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        // value >>> shift keeps the SUB_BUCKET_BITS highest bits - between SUB_BUCKET_HALF_COUNT and SUB_BUCKET_COUNT.
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF_COUNT + (int)(value >>> shift);
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        return (long)(index - shift * SUB_BUCKET_HALF_COUNT) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+
+}
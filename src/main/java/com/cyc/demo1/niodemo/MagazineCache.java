@@ -0,0 +1,251 @@
+package com.cyc.demo1.niodemo;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Per thread magazines of free blocks in front of the shared free blocks of a {@link SizeClassAllocator} - like the
+ * tcache of jemalloc, or the PoolThreadCache of Netty. A thread takes blocks from, and frees blocks to, a small stack
+ * per size class of its own, without a lock. Only an empty magazine is refilled from the shared free blocks, and only a
+ * full magazine flushes its older half back - half a magazine at a time, with one bulk take() under the MessageBuffer
+ * lock, or one lock-free bulk put(). The released Message objects are cached the same way, so as long as its magazines
+ * are neither empty nor full a thread does not touch shared state at all.
+ *
+ * A magazine holds at most 1/16 of the blocks of its size class - a size class too small for a magazine of 2 blocks is
+ * not cached. And all magazines of a size class together hold at most 1/4 of its blocks: a thread reserves the room
+ * of its magazine when it first uses the MessageBuffer, and a thread which finds the room used up by others takes and
+ * frees the blocks of that size class under the lock instead. So however many threads there are, 3/4 of every size
+ * class stays shared. The blocks in the magazines are still free blocks - {@link #cachedBlocks(int)} counts them for
+ * {@link MessageBuffer#availableBlocks(int)}.
+ *
+ * The blocks in the magazines of a thread stay there until the thread calls {@link MessageBuffer#flushThreadCache()},
+ * which a thread that is done with the MessageBuffer should do before it ends - that also frees its reserved room.
+ *
+ * @author chenyuchuan
+ */
+class MagazineCache {
+
+    private MessageBuffer messageBuffer = null;
+    private SizeClassAllocator allocator = null;
+    private int[] magazineSizes = null; // per size class, 0 if the size class is not cached.
+    private int[] cacheLimits = null; // per size class, the most blocks all magazines together may hold.
+    private AtomicIntegerArray reservedBlocks = null; // per size class, the room of the magazines of all threads.
+    private int messageMagazineSize = 0;
+
+    // the magazines of all threads which reserved room for blocks - to count the blocks in them.
+    private Queue<Magazines> allMagazines = new ConcurrentLinkedQueue<>();
+
+    private ThreadLocal<Magazines> magazines = ThreadLocal.withInitial(Magazines::new);
+
+    MagazineCache(MessageBuffer messageBuffer, SizeClassAllocator allocator, int magazineSize) {
+        this.messageBuffer = messageBuffer;
+        this.allocator = allocator;
+        this.magazineSizes = new int[allocator.sizeClassCount()];
+        this.cacheLimits = new int[allocator.sizeClassCount()];
+        this.reservedBlocks = new AtomicIntegerArray(allocator.sizeClassCount());
+        for (int i = 0; i < this.magazineSizes.length; i++) {
+            int size = Math.min(magazineSize, allocator.blockCount(i) / 16);
+            this.magazineSizes[i] = size >= 2 ? size : 0;
+            this.cacheLimits[i] = allocator.blockCount(i) / 4;
+        }
+        this.messageMagazineSize = Math.max(2, magazineSize);
+    }
+
+    Message getMessage() {
+        Magazines magazines = this.magazines.get();
+        int block = takeBlock(magazines, 0);
+        if (block == -1) {
+            return null;
+        }
+
+        Message message = takeMessage(magazines);
+        this.allocator.assignBlock(message, 0, block);
+        message.length = 0;
+        message.resetRefCnt();
+        return message;
+    }
+
+    boolean expandMessage(Message message) {
+        int nextSizeClass = message.sizeClassIndex + 1;
+        if (nextSizeClass >= this.magazineSizes.length) {
+            return false;
+        }
+
+        Magazines magazines = this.magazines.get();
+        int nextFreeBlock = takeBlock(magazines, nextSizeClass);
+        if (nextFreeBlock == -1) {
+            return false;
+        }
+
+        ByteBuffer srcSlab = message.slab;
+        int srcOffset = message.offset;
+        int srcSizeClass = message.sizeClassIndex;
+        int srcBlock = message.blockIndex;
+
+        this.allocator.assignBlock(message, nextSizeClass, nextFreeBlock);
+        MessageBuffer.copy(srcSlab, srcOffset, message.slab, message.offset, message.length);
+
+        freeBlock(magazines, srcSizeClass, srcBlock); // free smaller block after copy
+        return true;
+    }
+
+    void freeMessage(Message message) {
+        Magazines magazines = this.magazines.get();
+        if (message.sizeClassIndex >= 0) {
+            freeBlock(magazines, message.sizeClassIndex, message.blockIndex);
+        }
+
+        message.recycle();
+        putMessage(magazines, message);
+    }
+
+    /**
+     * Returns the blocks and messages in the magazines of the calling thread to the shared free blocks and pool.
+     */
+    void flush() {
+        Magazines magazines = this.magazines.get();
+        for (int i = 0; i < this.magazineSizes.length; i++) {
+            this.allocator.putBlocks(i, magazines.blocks[i], magazines.blockCounts.get(i));
+            magazines.blockCounts.lazySet(i, 0);
+            this.reservedBlocks.addAndGet(i, -magazines.blocks[i].length);
+        }
+        this.allMagazines.remove(magazines);
+        this.messageBuffer.poolMessages(magazines.messages, magazines.messageCount);
+        this.magazines.remove();
+    }
+
+    /**
+     * @return the number of free blocks of the size class in the magazines of all threads - a snapshot, as the threads
+     *         keep taking and freeing blocks.
+     */
+    int cachedBlocks(int sizeClassIndex) {
+        int cachedBlocks = 0;
+        for (Magazines magazines : this.allMagazines) {
+            cachedBlocks += magazines.blockCounts.get(sizeClassIndex);
+        }
+        return cachedBlocks;
+    }
+
+    /**
+     * Reserves the room of a magazine of the size class, if all magazines together stay within the cache limit.
+     *
+     * @return false if the room is used up by the magazines of other threads.
+     */
+    private boolean reserve(int sizeClassIndex) {
+        int size = this.magazineSizes[sizeClassIndex];
+        if (size == 0) {
+            return false;
+        }
+        int reserved;
+        do {
+            reserved = this.reservedBlocks.get(sizeClassIndex);
+            if (reserved + size > this.cacheLimits[sizeClassIndex]) {
+                return false;
+            }
+        } while (!this.reservedBlocks.compareAndSet(sizeClassIndex, reserved, reserved + size));
+        return true;
+    }
+
+    /**
+     * @return a free block of the size class, -1 if there is none.
+     */
+    private int takeBlock(Magazines magazines, int sizeClassIndex) {
+        int[] magazine = magazines.blocks[sizeClassIndex];
+        if (magazine.length == 0) {
+            synchronized (this.messageBuffer) {
+                return this.allocator.takeBlock(sizeClassIndex);
+            }
+        }
+
+        int count = magazines.blockCounts.get(sizeClassIndex);
+        if (count == 0) {
+            synchronized (this.messageBuffer) {
+                count = this.allocator.takeBlocks(sizeClassIndex, magazine, magazine.length / 2);
+            }
+            if (count == 0) {
+                return -1;
+            }
+        }
+        magazines.blockCounts.lazySet(sizeClassIndex, --count);
+        return magazine[count];
+    }
+
+    private void freeBlock(Magazines magazines, int sizeClassIndex, int block) {
+        int[] magazine = magazines.blocks[sizeClassIndex];
+        if (magazine.length == 0) {
+            this.allocator.putBlock(sizeClassIndex, block);
+            return;
+        }
+
+        int count = magazines.blockCounts.get(sizeClassIndex);
+        if (count == magazine.length) {
+            // flush the older half - the blocks on top were used last, so their memory is most likely still cached.
+            int half = magazine.length / 2;
+            this.allocator.putBlocks(sizeClassIndex, magazine, half);
+            System.arraycopy(magazine, half, magazine, 0, count - half);
+            count -= half;
+        }
+        magazine[count++] = block;
+        magazines.blockCounts.lazySet(sizeClassIndex, count);
+    }
+
+    private Message takeMessage(Magazines magazines) {
+        Message[] messages = magazines.messages;
+        if (magazines.messageCount == 0) {
+            int half = messages.length / 2;
+            magazines.messageCount = this.messageBuffer.takePooledMessages(messages, half);
+            // the messages may all be cached by the threads which free them - then new ones, half a magazine at once,
+            // so the next calls do not try the pool again.
+            while (magazines.messageCount < half) {
+                messages[magazines.messageCount++] = new Message(this.messageBuffer);
+            }
+        }
+        Message message = messages[--magazines.messageCount];
+        messages[magazines.messageCount] = null;
+        return message;
+    }
+
+    private void putMessage(Magazines magazines, Message message) {
+        Message[] messages = magazines.messages;
+        if (magazines.messageCount == messages.length) {
+            int half = messages.length / 2;
+            this.messageBuffer.poolMessages(messages, half);
+            System.arraycopy(messages, half, messages, 0, messages.length - half);
+            magazines.messageCount -= half;
+            for (int i = magazines.messageCount; i < messages.length; i++) {
+                messages[i] = null;
+            }
+        }
+        messages[magazines.messageCount++] = message;
+    }
+
+    /**
+     * The magazines of one thread. A size class without reserved room gets an empty magazine.
+     */
+    private class Magazines {
+        final int[][] blocks = new int[magazineSizes.length][];
+        // only written by the owning thread - atomic, so cachedBlocks() sees the counts of the other threads.
+        final AtomicIntegerArray blockCounts = new AtomicIntegerArray(magazineSizes.length);
+
+        final Message[] messages = new Message[messageMagazineSize];
+        int messageCount = 0;
+
+        Magazines() {
+            boolean cached = false;
+            for (int i = 0; i < this.blocks.length; i++) {
+                if (reserve(i)) {
+                    this.blocks[i] = new int[magazineSizes[i]];
+                    cached = true;
+                } else {
+                    this.blocks[i] = new int[0];
+                }
+            }
+            if (cached) {
+                allMagazines.add(this);
+            }
+        }
+    }
+
+}
@@ -1,27 +1,135 @@
 package com.cyc.demo1.niodemo;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
+ * A message occupies one block of a MessageBuffer. Messages are reference counted: a message starts with a reference
+ * count of 1, and when the count drops to 0 the block and the Message object are returned to the MessageBuffer. A
+ * message that is handed to someone who releases it - e.g. enqueued to a WriteProxy, or passed to another thread -
+ * must be retained first if the caller keeps using or releasing it as well.
+ *
  * @author chenyuchuan
  */
 public class Message {
 
+    private static final AtomicIntegerFieldUpdater<Message> REF_CNT_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Message.class, "refCnt");
+
     private MessageBuffer messageBuffer = null;
 
     public long socketId = 0; // the id of source socket or destination socket, depending on whether is going in or out.
 
-    public byte[] sharedArray = null;
+    public byte[] sharedArray = null; // null if the message lives in off-heap memory.
+    public ByteBuffer sharedBuffer = null; // this message's own view of the slab, for channel I/O. Position and limit
+                                           // are set by whoever uses it.
     public int offset = 0; // offset into sharedArray where this message data starts.
     public int capacity = 0; // the size of the section in the sharedArray allocated to this message.
     public int length = 0; // the number of bytes used of the allocated section.
 
+    ByteBuffer slab = null; // the slab of the MessageBuffer sharedBuffer is a view of.
+    int sizeClassIndex = -1; // the size class of the block in the MessageBuffer - the order for a BuddyAllocator.
+    int blockIndex = -1; // the number of the block within its size class - the first unit for a BuddyAllocator.
+
     public Object metaData = null;
 
+    // a file region sent after the bytes of this message, e.g. the body of a response whose headers are the bytes.
+    public FileRegion fileRegion = null;
+
+    private volatile int refCnt = 0; // 0 while the message is pooled, so a release() too many is caught.
+
     public Message(MessageBuffer messageBuffer) {
         this.messageBuffer = messageBuffer;
     }
 
+    public int refCnt() {
+        return this.refCnt;
+    }
+
+    /**
+     * Sets the reference count of a message taken from the pool to 1. Called by the MessageBuffer only.
+     */
+    void resetRefCnt() {
+        REF_CNT_UPDATER.set(this, 1);
+    }
+
+    /**
+     * Increases the reference count by one.
+     *
+     * @return this message.
+     */
+    public Message retain() {
+        int refCnt = REF_CNT_UPDATER.getAndIncrement(this);
+        if (refCnt <= 0) {
+            REF_CNT_UPDATER.getAndDecrement(this);
+            throw new IllegalStateException("message already released, refCnt: " + refCnt);
+        }
+        return this;
+    }
+
+    /**
+     * Decreases the reference count by one, and recycles the message if the count reaches 0. The message must not be
+     * used after its last reference has been released.
+     *
+     * @return true if the message was recycled.
+     */
+    public boolean release() {
+        int refCnt = REF_CNT_UPDATER.decrementAndGet(this);
+        if (refCnt == 0) {
+            this.messageBuffer.freeMessage(this);
+            return true;
+        }
+        if (refCnt < 0) {
+            REF_CNT_UPDATER.getAndIncrement(this);
+            throw new IllegalStateException("message already released");
+        }
+        return false;
+    }
+
+    /**
+     * Points this message at a block of a slab. The view of the slab is only recreated if the message moves to another
+     * slab, so a pooled message reuses its view.
+     */
+    void assignBlock(ByteBuffer slab, byte[] sharedArray, int offset, int capacity, int sizeClassIndex,
+        int blockIndex) {
+        if (this.slab != slab) {
+            this.slab = slab;
+            this.sharedBuffer = slab.duplicate();
+        }
+        this.sharedArray = sharedArray;
+        this.offset = offset;
+        this.capacity = capacity;
+        this.sizeClassIndex = sizeClassIndex;
+        this.blockIndex = blockIndex;
+    }
+
+    /**
+     * Moves the message to a block of the next larger size - or grows its block in place, if the allocator can.
+     *
+     * @return false if there is no larger block size, or no free block of that size.
+     */
+    public boolean expand() {
+        return this.messageBuffer.expandMessage(this);
+    }
+
+    /**
+     * Prepares a released message for the pool. Called by the MessageBuffer only. The reference count stays 0 until
+     * the message is handed out again.
+     */
+    void recycle() {
+        this.socketId = 0;
+        this.sizeClassIndex = -1;
+        this.blockIndex = -1;
+        this.offset = 0;
+        this.capacity = 0;
+        this.length = 0;
+        this.metaData = null;
+        if (this.fileRegion != null) {
+            this.fileRegion.release();
+            this.fileRegion = null;
+        }
+    }
+
     /**
      * Writes data from the ByteBuffer into this message - meaning into the buffer backing this message.
      *
@@ -39,7 +147,11 @@ public class Message {
         }
 
         int bytesToCopy = Math.min(remaining, this.capacity - this.length);
-        byteBuffer.get(this.sharedArray, this.offset + this.length, bytesToCopy);
+        if (this.sharedArray != null) {
+            byteBuffer.get(this.sharedArray, this.offset + this.length, bytesToCopy);
+        } else {
+            freeSpace().put(byteBuffer);
+        }
         this.length += bytesToCopy;
 
         return bytesToCopy;
@@ -73,11 +185,35 @@ public class Message {
         }
 
         int bytesToCopy = Math.min(remaining, this.capacity - this.length);
-        System.arraycopy(byteArray, offset, this.sharedArray, this.offset + this.length, bytesToCopy);
+        if (this.sharedArray != null) {
+            System.arraycopy(byteArray, offset, this.sharedArray, this.offset + this.length, bytesToCopy);
+        } else {
+            freeSpace().put(byteArray, offset, bytesToCopy);
+        }
         this.length += bytesToCopy;
         return bytesToCopy;
     }
 
+    /**
+     * @return sharedBuffer, positioned on the unused part of this message's section - for reading straight into the
+     *         message.
+     */
+    public ByteBuffer freeSpace() {
+        this.sharedBuffer.limit(this.offset + this.capacity);
+        this.sharedBuffer.position(this.offset + this.length);
+        return this.sharedBuffer;
+    }
+
+    /**
+     * @return sharedBuffer, positioned on the message data from the given index (relative to the message start) to
+     *         the end of the message - for writing the message straight to a channel.
+     */
+    public ByteBuffer content(int fromIndex) {
+        this.sharedBuffer.limit(this.offset + this.length);
+        this.sharedBuffer.position(this.offset + fromIndex);
+        return this.sharedBuffer;
+    }
+
     /**
      * In case the buffer backing the nextMessage contains more than one HTTP message, move all data after the first
      * message to a new Message object.
@@ -85,14 +221,35 @@ public class Message {
      * @param message
      *            The message containing the partial message (after the first message).
      * @param endIndex
-     *            The end index of the first message in the buffer of the message given as parameter.
+     *            The end index of the first message in the buffer of the message given as parameter - an index into
+     *            the slab, as returned by HttpUtil.parseHttpRequest().
+     * @return the number of bytes moved, or -1 if they do not fit into this message.
+     */
+    public int writePartialMessageToMessage(Message message, int endIndex) {
+        return writeToMessage(message, endIndex, message.offset + message.length);
+    }
+
+    /**
+     * Appends a section of another message to this message - e.g. one of several requests or frames read together.
+     *
+     * @param startIndex
+     *            the start of the section in the slab of the message given as parameter.
+     * @param endIndex
+     *            the end of the section in the slab of the message given as parameter.
+     * @return the number of bytes copied, or -1 if they do not fit into this message.
      */
-    public void writePartialMessageToMessage(Message message, int endIndex) {
-        int startIndexOfPartialMessage = message.offset + endIndex;
-        int lengthOfPartialMessage = (message.offset + message.length) - endIndex;
+    public int writeToMessage(Message message, int startIndex, int endIndex) {
+        int lengthOfSection = endIndex - startIndex;
+
+        while (this.length + lengthOfSection > this.capacity) {
+            if (!expand()) {
+                return -1;
+            }
+        }
 
-        System.arraycopy(message.sharedArray, startIndexOfPartialMessage, this.sharedArray, this.offset,
-            lengthOfPartialMessage);
+        MessageBuffer.copy(message.slab, startIndex, this.slab, this.offset + this.length, lengthOfSection);
+        this.length += lengthOfSection;
+        return lengthOfSection;
     }
 
     public int writeToByteBuffer(ByteBuffer byteBuffer) {
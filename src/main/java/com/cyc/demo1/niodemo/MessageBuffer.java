@@ -1,10 +1,19 @@
 package com.cyc.demo1.niodemo;
 
+import java.nio.ByteBuffer;
+
 /**
  * A shared buffer which can contain many messages inside. A message gets a section of the buffer to use. If the message
  * outgrows the section in size, the message requests a larger section and the message is copied to that larger section.
  * The smaller section is then freed again.
  *
+ * Which section a message gets is up to the {@link IBlockAllocator} of the {@link MessageBufferConfig} - the fixed size
+ * classes of a {@link SizeClassAllocator}, or the power of two blocks of a {@link BuddyAllocator}, which can grow a
+ * message in place. The allocators take their memory from {@link #allocateSlab(int)} on demand. The slabs are heap
+ * ByteBuffers here - see {@link DirectMessageBuffer} for slabs in off-heap memory.
+ *
+ * With {@link MessageBufferConfig#threadCache(int)} the threads take and free blocks through magazines of their own -
+ * see {@link MagazineCache} - and only lock the MessageBuffer to refill or flush a magazine in bulk.
  *
  * Created by jjenkov on 18-10-2015.
  */
@@ -13,77 +22,202 @@ public class MessageBuffer {
     public static int KB = 1024;
     public static int MB = 1024 * KB;
 
-    private static final int CAPACITY_SMALL = 4 * KB;
-    private static final int CAPACITY_MEDIUM = 128 * KB;
-    private static final int CAPACITY_LARGE = 1024 * KB;
+    private MessageBufferConfig config = null;
+    private IBlockAllocator allocator = null;
+    private MagazineCache threadCache = null; // null unless the config asks for thread magazines.
 
-    // package scope (default) - so they can be accessed from unit tests.
-    byte[] smallMessageBuffer = new byte[1024 * 4 * KB]; // 1024 x 4KB messages = 4MB.
-    byte[] mediumMessageBuffer = new byte[128 * 128 * KB]; // 128 x 128KB messages = 16MB.
-    byte[] largeMessageBuffer = new byte[16 * 1 * MB]; // 16 * 1MB messages = 16MB.
+    // released Message objects, ready for reuse - offered by any thread, polled under the lock. Every live message
+    // holds exactly one block, so the pool never needs to hold more messages than there are blocks.
+    private MpscArrayQueue<Message> messagePool = null;
 
-    QueueIntFlip smallMessageBufferFreeBlocks = new QueueIntFlip(1024); // 1024 free sections
-    QueueIntFlip mediumMessageBufferFreeBlocks = new QueueIntFlip(128); // 128 free sections
-    QueueIntFlip largeMessageBufferFreeBlocks = new QueueIntFlip(16); // 16 free sections
+    public MessageBuffer() {
+        this(MessageBufferConfig.defaultConfig());
+    }
 
-    // todo make all message buffer capacities and block sizes configurable
-    // todo calculate free block queue sizes based on capacity and block size of buffers.
+    public MessageBuffer(MessageBufferConfig config) {
+        this(config, config.createAllocator());
+    }
 
-    public MessageBuffer() {
-        // add all free sections to all free section queues.
-        for (int i = 0; i < smallMessageBuffer.length; i += CAPACITY_SMALL) {
-            this.smallMessageBufferFreeBlocks.put(i);
-        }
-        for (int i = 0; i < mediumMessageBuffer.length; i += CAPACITY_MEDIUM) {
-            this.mediumMessageBufferFreeBlocks.put(i);
-        }
-        for (int i = 0; i < largeMessageBuffer.length; i += CAPACITY_LARGE) {
-            this.largeMessageBufferFreeBlocks.put(i);
+    /**
+     * @param allocator
+     *            hands out the blocks, instead of the allocator the config declares. config is then only reported by
+     *            {@link #getConfig()}.
+     */
+    public MessageBuffer(MessageBufferConfig config, IBlockAllocator allocator) {
+        this.config = config;
+        this.allocator = allocator;
+        this.allocator.init(this);
+        this.messagePool = new MpscArrayQueue<>(allocator.maxBlocks());
+
+        if (config.getMagazineSize() > 0) {
+            if (!(allocator instanceof SizeClassAllocator)) {
+                throw new IllegalArgumentException("thread magazines need the size classes of a SizeClassAllocator");
+            }
+            this.threadCache = new MagazineCache(this, (SizeClassAllocator)allocator, config.getMagazineSize());
         }
     }
 
-    public Message getMessage() {
-        int nextFreeSmallBlock = this.smallMessageBufferFreeBlocks.take();
+    public MessageBufferConfig getConfig() {
+        return this.config;
+    }
 
-        if (nextFreeSmallBlock == -1)
-            return null;
+    /**
+     * Allocates the memory for one slab. Called by the allocator when it runs out of free blocks.
+     */
+    protected ByteBuffer allocateSlab(int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+
+    // getMessage() and expandMessage() lock the MessageBuffer - unless the thread magazines serve them - because the
+    // write MessageBuffer is shared by all threads which reply through a WriteProxy, not only by the SocketProcessor
+    // thread.
+    public Message getMessage() {
+        if (this.threadCache != null) {
+            return this.threadCache.getMessage();
+        }
+        return getSharedMessage();
+    }
 
-        Message message = new Message(this); // todo get from Message pool - caps memory usage.
+    private synchronized Message getSharedMessage() {
+        Message message = this.messagePool.poll();
+        if (message == null) {
+            message = new Message(this);
+        }
 
-        message.sharedArray = this.smallMessageBuffer;
-        message.capacity = CAPACITY_SMALL;
-        message.offset = nextFreeSmallBlock;
+        if (!this.allocator.allocate(message)) {
+            this.messagePool.offer(message);
+            return null;
+        }
         message.length = 0;
+        message.resetRefCnt();
 
         return message;
     }
 
     public boolean expandMessage(Message message) {
-        if (message.capacity == CAPACITY_SMALL) {
-            return moveMessage(message, this.smallMessageBufferFreeBlocks, this.mediumMessageBufferFreeBlocks,
-                this.mediumMessageBuffer, CAPACITY_MEDIUM);
-        } else if (message.capacity == CAPACITY_MEDIUM) {
-            return moveMessage(message, this.mediumMessageBufferFreeBlocks, this.largeMessageBufferFreeBlocks,
-                this.largeMessageBuffer, CAPACITY_LARGE);
-        } else {
-            return false;
+        if (this.threadCache != null) {
+            return this.threadCache.expandMessage(message);
+        }
+        synchronized (this) {
+            return this.allocator.expand(message);
+        }
+    }
+
+    /**
+     * Returns the block of the message to the allocator, and the Message object to the message pool. Called by
+     * {@link Message#release()} when the last reference to the message is released. Takes no lock if the allocator
+     * frees thread safely - a worker thread which releases a request then does not contend with the SocketProcessor.
+     */
+    void freeMessage(Message message) {
+        if (this.threadCache != null) {
+            this.threadCache.freeMessage(message);
+            return;
+        }
+        freeSharedMessage(message);
+    }
+
+    private void freeSharedMessage(Message message) {
+        if (message.sizeClassIndex >= 0) {
+            if (this.allocator.isFreeThreadSafe()) {
+                this.allocator.free(message);
+            } else {
+                synchronized (this) {
+                    this.allocator.free(message);
+                }
+            }
+        }
+
+        message.recycle();
+        this.messagePool.offer(message);
+    }
+
+    /**
+     * Returns the blocks and messages in the magazines of the calling thread to the shared free blocks. A thread which
+     * is done with a MessageBuffer with thread magazines should call it before it ends - or its blocks stay in its
+     * magazines for good.
+     */
+    public void flushThreadCache() {
+        if (this.threadCache != null) {
+            this.threadCache.flush();
+        }
+    }
+
+    /**
+     * Takes up to length messages from the message pool.
+     *
+     * @return the number of messages taken.
+     */
+    synchronized int takePooledMessages(Message[] into, int length) {
+        int count = 0;
+        while (count < length) {
+            Message message = this.messagePool.poll();
+            if (message == null) {
+                break;
+            }
+            into[count++] = message;
         }
+        return count;
     }
 
-    private boolean moveMessage(Message message, QueueIntFlip srcBlockQueue, QueueIntFlip destBlockQueue, byte[] dest,
-        int newCapacity) {
-        int nextFreeBlock = destBlockQueue.take();
-        if (nextFreeBlock == -1)
-            return false;
+    /**
+     * Adds the first length messages of the array to the message pool - as many as it takes. Takes no lock.
+     */
+    void poolMessages(Message[] messages, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!this.messagePool.offer(messages[i])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of blocks of the given size class which can still be handed out - free blocks, including those
+     *         in thread magazines, plus blocks which are not allocated yet.
+     */
+    public int availableBlocks(int sizeClassIndex) {
+        int cachedBlocks = this.threadCache != null ? this.threadCache.cachedBlocks(sizeClassIndex) : 0;
+        synchronized (this) {
+            return this.allocator.availableBlocks(sizeClassIndex) + cachedBlocks;
+        }
+    }
 
-        System.arraycopy(message.sharedArray, message.offset, dest, nextFreeBlock, message.length);
+    /**
+     * @return the number of bytes of slab memory allocated so far.
+     */
+    public synchronized long allocatedBytes() {
+        return this.allocator.allocatedBytes();
+    }
 
-        srcBlockQueue.put(message.offset); // free smaller block after copy
+    /**
+     * @return the number of bytes in the blocks of the live messages - and in the thread magazines.
+     */
+    public synchronized long usedBytes() {
+        return this.allocator.usedBytes();
+    }
+
+    /**
+     * @return the external fragmentation of the free memory - see {@link IBlockAllocator#fragmentation()}.
+     */
+    public synchronized double fragmentation() {
+        return this.allocator.fragmentation();
+    }
+
+    /**
+     * Copies bytes between two slabs, or two places in the same slab, without touching the positions of the slabs.
+     */
+    static void copy(ByteBuffer src, int srcIndex, ByteBuffer dest, int destIndex, int length) {
+        if (src.hasArray() && dest.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcIndex, dest.array(), dest.arrayOffset() + destIndex,
+                length);
+            return;
+        }
+        ByteBuffer srcView = src.duplicate();
+        srcView.limit(srcIndex + length);
+        srcView.position(srcIndex);
 
-        message.sharedArray = dest;
-        message.offset = nextFreeBlock;
-        message.capacity = newCapacity;
-        return true;
+        ByteBuffer destView = dest.duplicate();
+        destView.position(destIndex);
+        destView.put(srcView);
     }
 
 }
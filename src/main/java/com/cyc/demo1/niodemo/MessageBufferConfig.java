@@ -0,0 +1,195 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declares the size classes of a MessageBuffer. A message starts in a block of the smallest size class, and moves to
+ * a block of the next size class each time it outgrows its block.
+ *
+ * The memory of a size class is allocated lazily, one slab of blocksPerSlab blocks at a time, until blockCount blocks
+ * exist. blockCount is therefore the memory ceiling of the size class.
+ *
+ * A config made with {@link #buddy(int, int, int)} declares a {@link BuddyAllocator} instead: its size classes are the
+ * power of two block sizes from the minimum to the maximum block size, all cut from one arena.
+ *
+ * @author chenyuchuan
+ */
+public class MessageBufferConfig {
+
+    /**
+     * the slab size used when a size class does not specify how many blocks go into one slab.
+     */
+    public static final int DEFAULT_SLAB_SIZE = MessageBuffer.MB;
+
+    private List<SizeClass> sizeClasses = new ArrayList<>();
+
+    // the buddy allocator layout - 0 for size classes.
+    private int minBlockSize = 0;
+    private int maxBlockSize = 0;
+    private int arenaSize = 0;
+
+    private int magazineSize = 0; // 0 for no thread magazines.
+
+    public MessageBufferConfig() {}
+
+    /**
+     * @return the original layout: 1024 x 4KB, 128 x 128KB and 16 x 1MB blocks.
+     */
+    public static MessageBufferConfig defaultConfig() {
+        return new MessageBufferConfig().sizeClass(4 * MessageBuffer.KB, 1024)
+            .sizeClass(128 * MessageBuffer.KB, 128).sizeClass(MessageBuffer.MB, 16);
+    }
+
+    /**
+     * @return a buddy allocator layout: blocks of 512 bytes up to 1MB, in an arena of 32MB.
+     */
+    public static MessageBufferConfig buddyConfig() {
+        return new MessageBufferConfig().buddy(512, MessageBuffer.MB, 32 * MessageBuffer.MB);
+    }
+
+    /**
+     * Declares a buddy allocator instead of size classes. All sizes must be powers of two.
+     *
+     * @param minBlockSize
+     *            the capacity of a new message.
+     * @param maxBlockSize
+     *            the largest capacity a message can grow to.
+     * @param arenaSize
+     *            the memory of the MessageBuffer, allocated in one piece when the first message is taken.
+     */
+    public MessageBufferConfig buddy(int minBlockSize, int maxBlockSize, int arenaSize) {
+        if (!this.sizeClasses.isEmpty()) {
+            throw new IllegalArgumentException("a buddy MessageBufferConfig has no size classes of its own");
+        }
+        if (Integer.bitCount(minBlockSize) != 1 || Integer.bitCount(maxBlockSize) != 1
+            || Integer.bitCount(arenaSize) != 1 || minBlockSize > maxBlockSize || maxBlockSize > arenaSize) {
+            throw new IllegalArgumentException("invalid buddy layout: minBlockSize=" + minBlockSize
+                + ", maxBlockSize=" + maxBlockSize + ", arenaSize=" + arenaSize);
+        }
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.arenaSize = arenaSize;
+        // one size class per order, so availableBlocks() and the metrics work as for size classes.
+        for (int blockSize = minBlockSize; blockSize <= maxBlockSize && blockSize > 0; blockSize <<= 1) {
+            this.sizeClasses.add(new SizeClass(blockSize, arenaSize / blockSize, arenaSize / blockSize));
+        }
+        return this;
+    }
+
+    /**
+     * Gives every thread which takes or frees messages its own magazines of free blocks, up to magazineSize blocks per
+     * size class - see {@link MagazineCache}. For size classes only, not for a buddy allocator.
+     *
+     * @param magazineSize
+     *            the blocks per magazine. A magazine is refilled and flushed half a magazine at a time.
+     */
+    public MessageBufferConfig threadCache(int magazineSize) {
+        if (magazineSize < 2) {
+            throw new IllegalArgumentException("a magazine needs room for at least 2 blocks: " + magazineSize);
+        }
+        this.magazineSize = magazineSize;
+        return this;
+    }
+
+    public int getMagazineSize() {
+        return this.magazineSize;
+    }
+
+    public boolean isBuddy() {
+        return this.arenaSize > 0;
+    }
+
+    public int getMinBlockSize() {
+        return this.minBlockSize;
+    }
+
+    public int getMaxBlockSize() {
+        return this.maxBlockSize;
+    }
+
+    public int getArenaSize() {
+        return this.arenaSize;
+    }
+
+    /**
+     * @return the allocator a MessageBuffer with this config uses.
+     */
+    public IBlockAllocator createAllocator() {
+        return isBuddy() ? new BuddyAllocator(this) : new SizeClassAllocator(this);
+    }
+
+    /**
+     * Adds a size class with slabs of about {@link #DEFAULT_SLAB_SIZE} bytes.
+     */
+    public MessageBufferConfig sizeClass(int blockSize, int blockCount) {
+        int blocksPerSlab = Math.max(1, Math.min(blockCount, DEFAULT_SLAB_SIZE / blockSize));
+        return sizeClass(blockSize, blockCount, blocksPerSlab);
+    }
+
+    /**
+     * Adds a size class. Size classes must be added from the smallest block size to the largest.
+     *
+     * @param blockSize
+     *            the capacity of a message in a block of this size class.
+     * @param blockCount
+     *            the maximum number of blocks of this size class.
+     * @param blocksPerSlab
+     *            the number of blocks allocated together when the size class runs out of free blocks.
+     */
+    public MessageBufferConfig sizeClass(int blockSize, int blockCount, int blocksPerSlab) {
+        if (isBuddy()) {
+            throw new IllegalArgumentException("a buddy MessageBufferConfig has no size classes of its own");
+        }
+        if (blockSize <= 0 || blockCount <= 0 || blocksPerSlab <= 0 || blocksPerSlab > blockCount) {
+            throw new IllegalArgumentException("invalid size class: blockSize=" + blockSize + ", blockCount="
+                + blockCount + ", blocksPerSlab=" + blocksPerSlab);
+        }
+        if ((long)blockSize * blocksPerSlab > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slab of " + blocksPerSlab + " x " + blockSize + " bytes is too large");
+        }
+        if (!this.sizeClasses.isEmpty()
+            && this.sizeClasses.get(this.sizeClasses.size() - 1).blockSize >= blockSize) {
+            throw new IllegalArgumentException("size classes must be added in increasing block size: " + blockSize);
+        }
+        this.sizeClasses.add(new SizeClass(blockSize, blockCount, blocksPerSlab));
+        return this;
+    }
+
+    public List<SizeClass> getSizeClasses() {
+        return Collections.unmodifiableList(this.sizeClasses);
+    }
+
+    /**
+     * @return the number of bytes all size classes occupy when fully allocated.
+     */
+    public long maxBytes() {
+        if (isBuddy()) {
+            return this.arenaSize;
+        }
+        long maxBytes = 0;
+        for (SizeClass sizeClass : this.sizeClasses) {
+            maxBytes += (long)sizeClass.blockSize * sizeClass.blockCount;
+        }
+        return maxBytes;
+    }
+
+    public static class SizeClass {
+        public final int blockSize;
+        public final int blockCount;
+        public final int blocksPerSlab;
+
+        public SizeClass(int blockSize, int blockCount, int blocksPerSlab) {
+            this.blockSize = blockSize;
+            this.blockCount = blockCount;
+            this.blocksPerSlab = blocksPerSlab;
+        }
+
+        @Override
+        public String toString() {
+            return blockCount + " x " + blockSize + " bytes (" + blocksPerSlab + " per slab)";
+        }
+    }
+
+}
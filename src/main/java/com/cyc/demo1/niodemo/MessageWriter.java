@@ -2,48 +2,151 @@ package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
+ * Writes the outbound messages of one socket. All queued messages are written with a single gathering write straight
+ * from their slabs, so a client with several responses pending - e.g. a pipelining client - gets them with one system
+ * call and no intermediate copy.
+ *
+ * A message may carry a {@link FileRegion}, which is transferred from the file to the socket after the bytes of the
+ * message, and resumed from where it stopped when the socket send buffer fills up.
+ *
  * @author chenyuchuan
  */
 public class MessageWriter {
 
-    private List<Message> writeQueue = new ArrayList<>();
-    private Message messageInProgress = null;
-    private int bytesWritten = 0;
+    // the maximum number of messages gathered into one write.
+    private static final int MAX_GATHER = 64;
+
+    private ArrayDeque<Message> writeQueue = new ArrayDeque<>(); // the head is the message in progress.
+    private int bytesWritten = 0; // bytes written of the message at the head of the queue.
+    private long regionBytesWritten = 0; // bytes written of the file region of the message at the head of the queue.
+
+    private ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+    private Message[] gatherMessages = new Message[MAX_GATHER];
 
     public MessageWriter() {}
 
     public void enqueue(Message message) {
-        if (this.messageInProgress == null) {
-            this.messageInProgress = message;
-        } else {
-            this.writeQueue.add(message);
-        }
+        this.writeQueue.addLast(message);
     }
 
-    public void write(Socket socket, ByteBuffer byteBuffer) throws IOException {
-        byteBuffer.put(this.messageInProgress.sharedArray, this.messageInProgress.offset + this.bytesWritten,
-            this.messageInProgress.length - this.bytesWritten);
-        byteBuffer.flip();
+    /**
+     * Writes as much of the queued messages as the socket accepts.
+     *
+     * @return the number of bytes written.
+     */
+    public long write(Socket socket) throws IOException {
+        long totalBytesWritten = 0;
 
-        this.bytesWritten += socket.write(byteBuffer);
-        byteBuffer.clear();
+        while (!this.writeQueue.isEmpty()) {
+            Message head = this.writeQueue.peekFirst();
+            if (head.fileRegion != null && this.bytesWritten == head.length) {
+                // the bytes of the message are written - continue with its file region.
+                long bytesTransferred = head.fileRegion.transferTo(socket.socketChannel, this.regionBytesWritten);
+                totalBytesWritten += bytesTransferred;
+                this.regionBytesWritten += bytesTransferred;
+                if (this.regionBytesWritten < head.fileRegion.getCount()) {
+                    break; // the socket send buffer is full - continue when the socket is writable again.
+                }
+                completeHead();
+                continue;
+            }
 
-        if (bytesWritten >= this.messageInProgress.length) {
-            if (this.writeQueue.size() > 0) {
-                this.messageInProgress = this.writeQueue.remove(0);
-            } else {
-                this.messageInProgress = null;
-                // todo unregister from selector
+            int count = gather();
+
+            long bytesToWrite = 0;
+            for (int i = 0; i < count; i++) {
+                bytesToWrite += this.gatherBuffers[i].remaining();
             }
+
+            long bytesWritten = socket.write(this.gatherBuffers, count);
+            totalBytesWritten += bytesWritten;
+
+            Arrays.fill(this.gatherBuffers, 0, count, null);
+            Arrays.fill(this.gatherMessages, 0, count, null);
+
+            advance(bytesWritten);
+
+            if (bytesWritten < bytesToWrite) {
+                break; // the socket send buffer is full - continue when the socket is writable again.
+            }
+        }
+        return totalBytesWritten;
+    }
+
+    /**
+     * Collects the unwritten parts of the queued messages into gatherBuffers. A message with a file region ends the
+     * gathering, as its region has to be sent before the next message.
+     *
+     * @return the number of buffers collected.
+     */
+    private int gather() {
+        int count = 0;
+        Iterator<Message> iterator = this.writeQueue.iterator();
+        while (iterator.hasNext() && count < MAX_GATHER) {
+            Message message = iterator.next();
+            for (int i = 0; i < count; i++) {
+                if (this.gatherMessages[i] == message) {
+                    // the same message is enqueued twice - its view can only describe one region at a time.
+                    return count;
+                }
+            }
+            this.gatherMessages[count] = message;
+            this.gatherBuffers[count] = message.content(count == 0 ? this.bytesWritten : 0);
+            count++;
+            if (message.fileRegion != null) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Releases the messages which are now fully written, and records how far the next message got.
+     */
+    private void advance(long bytesWritten) {
+        while (!this.writeQueue.isEmpty()) {
+            Message message = this.writeQueue.peekFirst();
+            int remaining = message.length - this.bytesWritten;
+            if (bytesWritten < remaining) {
+                this.bytesWritten += (int)bytesWritten;
+                return;
+            }
+            bytesWritten -= remaining;
+            if (message.fileRegion != null) {
+                this.bytesWritten = message.length; // write() continues with the file region.
+                return;
+            }
+            completeHead();
+        }
+    }
+
+    private void completeHead() {
+        Message message = this.writeQueue.pollFirst();
+        this.bytesWritten = 0;
+        this.regionBytesWritten = 0;
+        message.release(); // the message is fully written - its block can be reused.
+    }
+
+    /**
+     * Releases all messages which have not been written yet. Called when the socket is closed.
+     */
+    public void dispose() {
+        Message message = this.writeQueue.pollFirst();
+        while (message != null) {
+            message.release();
+            message = this.writeQueue.pollFirst();
         }
+        this.bytesWritten = 0;
+        this.regionBytesWritten = 0;
     }
 
     public boolean isEmpty() {
-        return this.writeQueue.isEmpty() && this.messageInProgress == null;
+        return this.writeQueue.isEmpty();
     }
 
 }
@@ -0,0 +1,124 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi producer / single consumer queue. Any thread may offer elements, but only one thread at a
+ * time - e.g. the owning SocketProcessor, or whoever holds a lock - may poll them.
+ *
+ * A producer claims a slot by a CAS on the producer index, and then publishes the element into the slot with an
+ * ordered write. The consumer takes the slots in order. If it finds a slot which has been claimed but not yet
+ * published, it spins until the producer has published it - that is a matter of a few instructions on the producer
+ * side.
+ *
+ * It is not a java.util.Queue on purpose: iterating, searching or removing from the middle would race with the
+ * producers, so the queue only offers what a producer and the consumer need - offer, poll, peek and size.
+ *
+ * @author chenyuchuan
+ */
+public class MpscArrayQueue<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLong producerIndex = new AtomicLong(0);
+    private volatile long consumerIndex = 0; // only written by the consumer thread.
+
+    public MpscArrayQueue(int capacity) {
+        // round up to a power of two, so the slot of an index is a mask rather than a modulo.
+        int actualCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.elements = new AtomicReferenceArray<>(actualCapacity);
+        this.capacity = actualCapacity;
+        this.mask = actualCapacity - 1;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    public boolean offer(E element) {
+        return offerAndGetSize(element) != -1;
+    }
+
+    /**
+     * Same as {@link #offer(Object)}, but tells the producer how many elements the queue held right after the offer.
+     * A return value of 1 means the queue went from empty to non-empty, which is when a consumer blocked waiting for
+     * elements needs to be woken up.
+     *
+     * @param element
+     *            The element to add.
+     * @return the number of elements in the queue including the offered element, or -1 if the queue is full.
+     */
+    public int offerAndGetSize(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+
+        long index;
+        do {
+            index = this.producerIndex.get();
+            if (index - this.consumerIndex >= this.capacity) {
+                return -1;
+            }
+        } while (!this.producerIndex.compareAndSet(index, index + 1));
+
+        // the consumer index must be read after the claim. Either the consumer sees the claim and waits for the
+        // element, or it had already stopped at this index - and then the size below is 1 and the producer wakes it.
+        int size = (int)(index - this.consumerIndex + 1);
+
+        this.elements.lazySet((int)index & this.mask, element);
+
+        return size;
+    }
+
+    /**
+     * Takes the next element. Only called by the consumer thread.
+     *
+     * @return the next element, or null if the queue is empty.
+     */
+    public E poll() {
+        long index = this.consumerIndex;
+        int slot = (int)index & this.mask;
+
+        E element = this.elements.get(slot);
+        if (element == null) {
+            if (index == this.producerIndex.get()) {
+                return null;
+            }
+            // slot is claimed by a producer, but the element is not visible yet.
+            do {
+                element = this.elements.get(slot);
+            } while (element == null);
+        }
+
+        this.elements.lazySet(slot, null);
+        this.consumerIndex = index + 1;
+        return element;
+    }
+
+    /**
+     * @return the next element without taking it, or null if there is none - or if it is not published yet. Only
+     *         called by the consumer thread.
+     */
+    public E peek() {
+        return this.elements.get((int)this.consumerIndex & this.mask);
+    }
+
+    /**
+     * @return the number of elements in the queue - only a snapshot while producers offer concurrently.
+     */
+    public int size() {
+        long size = this.producerIndex.get() - this.consumerIndex;
+        return (int)Math.max(0, Math.min(size, this.capacity));
+    }
+
+    public boolean isEmpty() {
+        return this.producerIndex.get() == this.consumerIndex;
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free multi producer / single consumer queue of non-negative ints, with the API of
+ * {@link QueueIntFlip}. Any thread may put - e.g. every worker thread which releases a message may return its block -
+ * but only one thread may take.
+ *
+ * Works like {@link MpscArrayQueue}: a producer claims slots by a CAS on the producer index - a bulk put claims all its
+ * slots with one CAS - and then publishes each element with an ordered write. A free slot holds -1, so the consumer
+ * can tell a claimed slot whose element is not visible yet, and spins until the producer has published it.
+ *
+ * @author chenyuchuan
+ */
+public class MpscQueueInt implements IQueueInt {
+
+    private static final int EMPTY = -1;
+
+    // the indexes live in one AtomicLongArray, 128 bytes apart from each other and from the array header, so the
+    // producers' CAS does not invalidate the cache line of the consumer index. The producer limit - the producer index
+    // at which the queue is full, as far as the producers know - saves the producers reading the consumer index.
+    private static final int PRODUCER_INDEX = 16;
+    private static final int PRODUCER_LIMIT = PRODUCER_INDEX + 1;
+    private static final int CONSUMER_INDEX = 32;
+    private static final int INDEX_SLOTS = 48;
+
+    private final AtomicIntegerArray elements;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLongArray indexes = new AtomicLongArray(INDEX_SLOTS);
+
+    public MpscQueueInt(int capacity) {
+        // round up to a power of two, so the slot of an index is a mask rather than a modulo.
+        int actualCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.elements = new AtomicIntegerArray(actualCapacity);
+        for (int i = 0; i < actualCapacity; i++) {
+            this.elements.lazySet(i, EMPTY);
+        }
+        this.capacity = actualCapacity;
+        this.mask = actualCapacity - 1;
+        this.indexes.set(PRODUCER_LIMIT, actualCapacity);
+    }
+
+    @Override
+    public int capacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public int available() {
+        long consumerIndex = this.indexes.get(CONSUMER_INDEX); // first - the producer index can only be ahead of it.
+        return (int)Math.min(this.indexes.get(PRODUCER_INDEX) - consumerIndex, this.capacity);
+    }
+
+    @Override
+    public boolean put(int element) {
+        checkElement(element);
+
+        long index;
+        do {
+            index = this.indexes.get(PRODUCER_INDEX);
+            if (producerLimit(index, 1) == index) {
+                return false;
+            }
+        } while (!this.indexes.compareAndSet(PRODUCER_INDEX, index, index + 1));
+
+        this.elements.lazySet((int)index & this.mask, element);
+        return true;
+    }
+
+    @Override
+    public int put(int[] elements, int length) {
+        for (int i = 0; i < length; i++) {
+            checkElement(elements[i]);
+        }
+
+        long index;
+        int count;
+        do {
+            index = this.indexes.get(PRODUCER_INDEX);
+            count = (int)Math.min(length, producerLimit(index, length) - index);
+            if (count == 0) {
+                return 0;
+            }
+        } while (!this.indexes.compareAndSet(PRODUCER_INDEX, index, index + count));
+
+        for (int i = 0; i < count; i++) {
+            this.elements.lazySet((int)(index + i) & this.mask, elements[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @param wanted
+     *            the number of slots the producer wants - the consumer index is read again if the known limit leaves
+     *            fewer, as the consumer may have freed more since.
+     * @return the producer index at which the queue is full - index itself if it is full already.
+     */
+    private long producerLimit(long index, int wanted) {
+        long limit = this.indexes.get(PRODUCER_LIMIT);
+        if (limit - index < wanted) {
+            limit = this.indexes.get(CONSUMER_INDEX) + this.capacity;
+            if (index >= limit) {
+                return index;
+            }
+            // racing producers may write an older limit - that only makes the next producer read the consumer index
+            // again.
+            this.indexes.lazySet(PRODUCER_LIMIT, limit);
+        }
+        return limit;
+    }
+
+    @Override
+    public int take() {
+        long index = this.indexes.get(CONSUMER_INDEX);
+        int slot = (int)index & this.mask;
+
+        int element = this.elements.get(slot);
+        if (element == EMPTY) {
+            if (index == this.indexes.get(PRODUCER_INDEX)) {
+                return -1;
+            }
+            // the slot is claimed by a producer, but the element is not visible yet.
+            do {
+                element = this.elements.get(slot);
+            } while (element == EMPTY);
+        }
+
+        this.elements.lazySet(slot, EMPTY);
+        this.indexes.lazySet(CONSUMER_INDEX, index + 1);
+        return element;
+    }
+
+    @Override
+    public int take(int[] into, int length) {
+        long index = this.indexes.get(CONSUMER_INDEX);
+        int count = (int)Math.min(length, this.indexes.get(PRODUCER_INDEX) - index);
+        for (int i = 0; i < count; i++) {
+            int slot = (int)(index + i) & this.mask;
+            int element = this.elements.get(slot);
+            while (element == EMPTY) {
+                element = this.elements.get(slot); // claimed, but not published yet.
+            }
+            into[i] = element;
+            this.elements.lazySet(slot, EMPTY);
+        }
+        if (count > 0) {
+            this.indexes.lazySet(CONSUMER_INDEX, index + count);
+        }
+        return count;
+    }
+
+    private static void checkElement(int element) {
+        if (element < 0) {
+            throw new IllegalArgumentException("only non-negative elements, got " + element);
+        }
+    }
+
+}
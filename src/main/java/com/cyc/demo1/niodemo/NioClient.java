@@ -34,7 +34,8 @@ public class NioClient implements Runnable {
             SocketChannel socketChannel = SocketChannel.open();
             socketChannel.configureBlocking(false);
 
-            InetSocketAddress serverAddress = new InetSocketAddress(serverPort);
+            InetSocketAddress serverAddress = serverHost == null ? new InetSocketAddress(serverPort)
+                : new InetSocketAddress(serverHost, serverPort);
             socketChannel.connect(serverAddress);
 
             this.clientAddress = (InetSocketAddress)socketChannel.getLocalAddress();
@@ -45,6 +46,8 @@ public class NioClient implements Runnable {
             }
 
             this.socketChannel = socketChannel;
+            // 只打开一个selector，重试时复用
+            this.selector = Selector.open();
         } catch (IOException e) {
             log.error("{}", e);
         }
@@ -57,10 +60,11 @@ public class NioClient implements Runnable {
             try {
                 Thread.sleep(2000);
 
-                Selector selector = Selector.open();
-                this.selector = selector;
-
-                socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                if (!socketChannel.finishConnect()) {
+                    continue;
+                }
+                // 只关注读事件，socket几乎总是可写，关注写事件会让select()空转
+                socketChannel.register(selector, SelectionKey.OP_READ);
                 while (true) {
                     selector.select();
 
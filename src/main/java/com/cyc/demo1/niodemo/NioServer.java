@@ -23,6 +23,12 @@ import lombok.extern.slf4j.Slf4j;
 @ToString
 public class NioServer implements Runnable {
 
+    // 响应只编码一次，每次请求复用
+    private static final ByteBuffer HTTP_RESPONSE = ByteBuffer
+        .wrap(("HTTP/1.1 200 OK\r\n" + "Content-Length: 38\r\n" + "Content-Type: text/html\r\n" + "\r\n"
+            + "<html><body>Hello World!</body></html>").getBytes(StandardCharsets.UTF_8))
+        .asReadOnlyBuffer();
+
     ServerSocketChannel serverSocketChannel;
 
     Selector selector;
@@ -113,12 +119,10 @@ public class NioServer implements Runnable {
 
             allocate.clear();
 
-            String writeString = "HTTP/1.1 200 OK\r\n" + "Content-Length: 38\r\n" + "Content-Type: text/html\r\n"
-                + "\r\n" + "<html><body>Hello World!</body></html>";
             // 写回channel
-            while (allocate.hasRemaining()) {
-                channel.write(ByteBuffer.wrap(writeString.getBytes(StandardCharsets.UTF_8)));
-
+            ByteBuffer response = HTTP_RESPONSE.duplicate();
+            while (response.hasRemaining()) {
+                channel.write(response);
             }
 
             read = channel.read(allocate);
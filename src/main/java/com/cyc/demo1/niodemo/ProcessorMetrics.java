@@ -0,0 +1,116 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of one SocketProcessor. The counters are LongAdders - striped, so the processor thread and the threads
+ * which reply through its WriteProxy do not contend on one cache line - and the time per executeCycle() goes into a
+ * {@link LatencyHistogram}. The free blocks and the queue depths are read from the buffers and queues on demand, so
+ * they cost nothing until they are read.
+ *
+ * @author chenyuchuan
+ */
+public class ProcessorMetrics {
+
+    public final LongAdder bytesRead = new LongAdder();
+    public final LongAdder bytesWritten = new LongAdder();
+    public final LongAdder messagesRead = new LongAdder(); // complete messages parsed by the IMessageReaders.
+    // counted by the WriteProxy - on the threads which reply.
+    public final LongAdder messagesWritten = new LongAdder(); // messages enqueued for writing.
+    public final LongAdder outboundQueueFull = new LongAdder(); // messages rejected by the full outbound queue.
+    public final LongAdder writeBufferExhausted = new LongAdder(); // getMessage() calls without a free block.
+    public final LongAdder socketsOpened = new LongAdder();
+    public final LongAdder socketsClosed = new LongAdder();
+    public final LongAdder socketsTimedOut = new LongAdder(); // also counted as closed.
+    public final LongAdder readPauses = new LongAdder(); // times reading was paused by the backpressure watermarks.
+    public final LongAdder readResumes = new LongAdder();
+
+    public final LatencyHistogram cycleTime = new LatencyHistogram(); // nanoseconds per executeCycle().
+
+    private Queue<Socket> inboundSocketQueue = null;
+    private MpscArrayQueue<Message> outboundMessageQueue = null;
+    private MessageBuffer readMessageBuffer = null;
+    private MessageBuffer writeMessageBuffer = null;
+
+    ProcessorMetrics(Queue<Socket> inboundSocketQueue, MpscArrayQueue<Message> outboundMessageQueue,
+        MessageBuffer readMessageBuffer, MessageBuffer writeMessageBuffer) {
+        this.inboundSocketQueue = inboundSocketQueue;
+        this.outboundMessageQueue = outboundMessageQueue;
+        this.readMessageBuffer = readMessageBuffer;
+        this.writeMessageBuffer = writeMessageBuffer;
+    }
+
+    public long getOpenSockets() {
+        // closed is read first - a socket closed in between must not make the count negative.
+        long socketsClosed = this.socketsClosed.sum();
+        return this.socketsOpened.sum() - socketsClosed;
+    }
+
+    /**
+     * @return the sockets handed over by the accepter which the processor has not taken yet.
+     */
+    public int getInboundSocketQueueDepth() {
+        return this.inboundSocketQueue.size();
+    }
+
+    /**
+     * @return the messages written through the WriteProxy which the processor has not taken yet.
+     */
+    public int getOutboundQueueDepth() {
+        return this.outboundMessageQueue.size();
+    }
+
+    /**
+     * @return the available blocks of the read MessageBuffer, per size class.
+     */
+    public int[] getReadBufferAvailableBlocks() {
+        return availableBlocks(this.readMessageBuffer);
+    }
+
+    /**
+     * @return the available blocks of the write MessageBuffer, per size class.
+     */
+    public int[] getWriteBufferAvailableBlocks() {
+        return availableBlocks(this.writeMessageBuffer);
+    }
+
+    /**
+     * @return the bytes in the blocks of the live messages of the read MessageBuffer.
+     */
+    public long getReadBufferUsedBytes() {
+        return this.readMessageBuffer.usedBytes();
+    }
+
+    public long getWriteBufferUsedBytes() {
+        return this.writeMessageBuffer.usedBytes();
+    }
+
+    /**
+     * @return the external fragmentation of the free memory of the read MessageBuffer, 0 to 1.
+     */
+    public double getReadBufferFragmentation() {
+        return this.readMessageBuffer.fragmentation();
+    }
+
+    public double getWriteBufferFragmentation() {
+        return this.writeMessageBuffer.fragmentation();
+    }
+
+    public MessageBufferConfig getReadBufferConfig() {
+        return this.readMessageBuffer.getConfig();
+    }
+
+    public MessageBufferConfig getWriteBufferConfig() {
+        return this.writeMessageBuffer.getConfig();
+    }
+
+    private static int[] availableBlocks(MessageBuffer messageBuffer) {
+        int[] availableBlocks = new int[messageBuffer.getConfig().getSizeClasses().size()];
+        for (int i = 0; i < availableBlocks.length; i++) {
+            availableBlocks[i] = messageBuffer.availableBlocks(i);
+        }
+        return availableBlocks;
+    }
+
+}
@@ -9,7 +9,7 @@ package com.cyc.demo1.niodemo;
  *
  * Created by jjenkov on 18-09-2015.
  */
-public class QueueIntFlip {
+public class QueueIntFlip implements IQueueInt {
 
     public int[] elements = null;
 
@@ -23,6 +23,10 @@ public class QueueIntFlip {
         this.elements = new int[capacity]; // todo get from TypeAllocator ?
     }
 
+    public int capacity() {
+        return this.capacity;
+    }
+
     public void reset() {
         this.writePos = 0;
         this.readPos = 0;
@@ -1,7 +1,11 @@
 package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
-import java.util.Queue;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 /**
@@ -9,36 +13,84 @@ import java.util.concurrent.ArrayBlockingQueue;
  */
 public class Server {
 
-    private SocketAccepter socketAccepter = null;
-    private SocketProcessor socketProcessor = null;
+    private List<SocketAccepter> socketAccepters = new ArrayList<>();
+    private List<SocketProcessor> socketProcessors = new ArrayList<>();
+    private WorkerPool workerPool = null;
 
     private int tcpPort = 0;
+    private ServerConfig config = null;
     private IMessageReaderFactory messageReaderFactory = null;
     private IMessageProcessor messageProcessor = null;
 
     public Server(int tcpPort, IMessageReaderFactory messageReaderFactory, IMessageProcessor messageProcessor) {
+        this(tcpPort, new ServerConfig(), messageReaderFactory, messageProcessor);
+    }
+
+    public Server(int tcpPort, ServerConfig config, IMessageReaderFactory messageReaderFactory,
+        IMessageProcessor messageProcessor) {
         this.tcpPort = tcpPort;
+        this.config = config;
         this.messageReaderFactory = messageReaderFactory;
         this.messageProcessor = messageProcessor;
     }
 
     public void start() throws IOException {
+        if (this.config.workerThreads > 0) {
+            // one pool for all processors - a slow request ties up a worker, not a processor.
+            this.workerPool =
+                new WorkerPool(this.config.workerThreads, this.config.workerQueueCapacity, this.messageProcessor);
+        }
 
-        Queue socketQueue = new ArrayBlockingQueue(1024); // move 1024 to ServerConfig
+        // every processor is an independent reactor - own socket queue, selectors and message buffers - so nothing
+        // but the accepter hand-off is shared between processor threads.
+        for (int i = 0; i < this.config.processorCount; i++) {
+            MessageBuffer readBuffer = new MessageBuffer(this.config.readBufferConfig);
+            // the HTTP parser works on byte arrays, so only the write side can live off-heap.
+            MessageBuffer writeBuffer = this.config.directWriteBuffer
+                ? new DirectMessageBuffer(this.config.writeBufferConfig)
+                : new MessageBuffer(this.config.writeBufferConfig);
 
-        this.socketAccepter = new SocketAccepter(tcpPort, socketQueue);
+            this.socketProcessors.add(
+                new SocketProcessor(new ArrayBlockingQueue<>(this.config.socketQueueCapacity), readBuffer, writeBuffer,
+                    this.messageReaderFactory, this.messageProcessor, this.config, this.workerPool));
+        }
 
-        MessageBuffer readBuffer = new MessageBuffer();
-        MessageBuffer writeBuffer = new MessageBuffer();
+        // the server sockets are bound here, so a port in use fails start() instead of an accepter thread.
+        boolean reusePort =
+            this.config.acceptorCount > 1 && this.config.reusePort && SocketAccepter.isReusePortSupported();
+        ServerSocketChannel serverSocket = SocketAccepter.openServerSocket(this.tcpPort, this.config, reusePort);
+        // with port 0 the first server socket gets an ephemeral port - the others must bind to the same one.
+        int boundPort = ((InetSocketAddress)serverSocket.getLocalAddress()).getPort();
+        for (int i = 0; i < this.config.acceptorCount; i++) {
+            if (i > 0 && reusePort) {
+                serverSocket = SocketAccepter.openServerSocket(boundPort, this.config, true);
+            }
+            this.socketAccepters.add(new SocketAccepter(serverSocket, this.config, this.socketProcessors, i));
+        }
 
-        this.socketProcessor =
-            new SocketProcessor(socketQueue, readBuffer, writeBuffer, this.messageReaderFactory, this.messageProcessor);
+        for (int i = 0; i < this.socketAccepters.size(); i++) {
+            Thread accepterThread = new Thread(this.socketAccepters.get(i), "socket-accepter-" + i);
+            accepterThread.start();
+        }
 
-        Thread accepterThread = new Thread(this.socketAccepter);
-        Thread processorThread = new Thread(this.socketProcessor);
+        for (int i = 0; i < this.socketProcessors.size(); i++) {
+            Thread processorThread = new Thread(this.socketProcessors.get(i), "socket-processor-" + i);
+            processorThread.start();
+        }
+    }
+
+    /**
+     * @return the SocketProcessors, once the server is started - for their {@link ProcessorMetrics}.
+     */
+    public List<SocketProcessor> getSocketProcessors() {
+        return Collections.unmodifiableList(this.socketProcessors);
+    }
 
-        accepterThread.start();
-        processorThread.start();
+    /**
+     * @return the pool the requests are processed by, or null if they are processed by the SocketProcessors.
+     */
+    public WorkerPool getWorkerPool() {
+        return this.workerPool;
     }
 
 }
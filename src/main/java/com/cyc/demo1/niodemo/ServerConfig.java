@@ -0,0 +1,201 @@
+package com.cyc.demo1.niodemo;
+
+/**
+ * Tuning knobs for {@link Server}. The defaults keep the original single accepter, single processor setup without
+ * worker threads, but are not the original behaviour otherwise: idle, read and write timeouts close stalled sockets,
+ * SO_REUSEPORT is used where supported, and responses are written from a direct write MessageBuffer.
+ *
+ * @author chenyuchuan
+ */
+public class ServerConfig {
+
+    /**
+     * number of SocketProcessor threads. Every processor owns its own selector and MessageBuffers, and the accepter
+     * hands new sockets to the processors round-robin.
+     */
+    public int processorCount = 1;
+
+    /**
+     * number of SocketAccepter threads. With more than one, each accepter binds a server socket of its own to the port
+     * if reusePort is set and SO_REUSEPORT is supported (Linux, Java 9+) - otherwise they share one server socket.
+     */
+    public int acceptorCount = 1;
+    public boolean reusePort = true;
+
+    /**
+     * the listen backlog of the server socket - the connections the kernel queues while the accepters are busy.
+     */
+    public int backlog = 1024;
+
+    /**
+     * options of the accepted sockets. A buffer size of 0 keeps the operating system default.
+     */
+    public boolean tcpNoDelay = true;
+    public int receiveBufferSize = 0;
+    public int sendBufferSize = 0;
+
+    /**
+     * capacity of the inbound socket queue of each SocketProcessor.
+     */
+    public int socketQueueCapacity = 1024;
+
+    /**
+     * capacity of the outbound message queue of each SocketProcessor. WriteProxy.enqueue() returns false when it is
+     * full.
+     */
+    public int outboundQueueCapacity = 4096;
+
+    /**
+     * number of worker threads the requests are processed by. With 0 the IMessageProcessor runs on the SocketProcessor
+     * threads - it must not block then. With a WorkerPool the responses still go out in the order of the requests of
+     * each socket.
+     */
+    public int workerThreads = 0;
+
+    /**
+     * capacity of the work queue of the WorkerPool. When it is full, a SocketProcessor thread processes the request
+     * itself.
+     */
+    public int workerQueueCapacity = 1024;
+
+    /**
+     * whether the write MessageBuffer of each SocketProcessor is a DirectMessageBuffer, so responses are written from
+     * off-heap memory without an extra copy.
+     */
+    public boolean directWriteBuffer = true;
+
+    /**
+     * size classes of the read and the write MessageBuffer of each SocketProcessor.
+     */
+    public MessageBufferConfig readBufferConfig = MessageBufferConfig.defaultConfig();
+    public MessageBufferConfig writeBufferConfig = MessageBufferConfig.defaultConfig();
+
+    /**
+     * backpressure watermarks, as a fraction of the blocks of the smallest size class of a MessageBuffer. A
+     * SocketProcessor stops reading from its sockets when the free blocks of its read or its write MessageBuffer fall
+     * below the low watermark, and reads again when both are back above the high watermark. New sockets are only taken
+     * from the inbound socket queue while the read MessageBuffer is above the high watermark, as every socket holds a
+     * block of it for the request it reads.
+     */
+    public double lowWatermark = 0.1;
+    public double highWatermark = 0.25;
+
+    /**
+     * socket timeouts in milliseconds - 0 disables a timeout. A socket is closed when it has neither read nor written
+     * anything for idleTimeoutMillis, when a request has been partially read and no more bytes arrived for
+     * readTimeoutMillis, or when responses are pending and the client has not taken any bytes for writeTimeoutMillis.
+     * The timeouts are checked at least every smallest timeout, so a timeout may fire up to that much late.
+     */
+    public long idleTimeoutMillis = 60 * 1000;
+    public long readTimeoutMillis = 30 * 1000;
+    public long writeTimeoutMillis = 30 * 1000;
+
+    /**
+     * the resolution and the number of buckets of the timing wheel each SocketProcessor tracks the timeouts with.
+     */
+    public long timerTickMillis = 100;
+    public int timerTicksPerWheel = 512;
+
+    public ServerConfig() {}
+
+    public ServerConfig processorCount(int processorCount) {
+        this.processorCount = processorCount;
+        return this;
+    }
+
+    public ServerConfig acceptorCount(int acceptorCount) {
+        this.acceptorCount = acceptorCount;
+        return this;
+    }
+
+    public ServerConfig reusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public ServerConfig backlog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public ServerConfig tcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public ServerConfig receiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    public ServerConfig sendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    public ServerConfig socketQueueCapacity(int socketQueueCapacity) {
+        this.socketQueueCapacity = socketQueueCapacity;
+        return this;
+    }
+
+    public ServerConfig outboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public ServerConfig workerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public ServerConfig workerQueueCapacity(int workerQueueCapacity) {
+        this.workerQueueCapacity = workerQueueCapacity;
+        return this;
+    }
+
+    public ServerConfig directWriteBuffer(boolean directWriteBuffer) {
+        this.directWriteBuffer = directWriteBuffer;
+        return this;
+    }
+
+    public ServerConfig readBufferConfig(MessageBufferConfig readBufferConfig) {
+        this.readBufferConfig = readBufferConfig;
+        return this;
+    }
+
+    public ServerConfig writeBufferConfig(MessageBufferConfig writeBufferConfig) {
+        this.writeBufferConfig = writeBufferConfig;
+        return this;
+    }
+
+    public ServerConfig watermarks(double lowWatermark, double highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark >= 1) {
+            throw new IllegalArgumentException(
+                "invalid watermarks: lowWatermark=" + lowWatermark + ", highWatermark=" + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        return this;
+    }
+
+    public ServerConfig idleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig readTimeoutMillis(long readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig writeTimeoutMillis(long writeTimeoutMillis) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        return this;
+    }
+
+    public ServerConfig timerTickMillis(long timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+        return this;
+    }
+
+}
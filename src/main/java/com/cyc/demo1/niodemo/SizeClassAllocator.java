@@ -0,0 +1,257 @@
+package com.cyc.demo1.niodemo;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Hands out the blocks of the size classes of a {@link MessageBufferConfig}. A message starts in a block of the
+ * smallest size class, and moves to a block of the next size class - copying its bytes - each time it outgrows its
+ * block. The blocks of a size class live in slabs which are allocated on demand, so memory is only taken for the sizes
+ * the traffic actually needs.
+ *
+ * The free blocks of a size class are an {@link MpscQueueInt}: any thread frees a block with a lock-free put, while
+ * blocks are only taken under the MessageBuffer lock, which makes the takers one consumer at a time.
+ *
+ * @author chenyuchuan
+ */
+public class SizeClassAllocator implements IBlockAllocator {
+
+    private MessageBuffer messageBuffer = null;
+    private SizeClassBlocks[] sizeClasses = null;
+    private int totalBlocks = 0;
+
+    public SizeClassAllocator(MessageBufferConfig config) {
+        List<MessageBufferConfig.SizeClass> sizeClassConfigs = config.getSizeClasses();
+        if (sizeClassConfigs.isEmpty()) {
+            throw new IllegalArgumentException("a MessageBuffer needs at least one size class");
+        }
+
+        this.sizeClasses = new SizeClassBlocks[sizeClassConfigs.size()];
+        for (int i = 0; i < this.sizeClasses.length; i++) {
+            this.sizeClasses[i] = new SizeClassBlocks(sizeClassConfigs.get(i));
+            this.totalBlocks += this.sizeClasses[i].blockCount;
+        }
+    }
+
+    @Override
+    public void init(MessageBuffer messageBuffer) {
+        this.messageBuffer = messageBuffer;
+    }
+
+    @Override
+    public boolean allocate(Message message) {
+        int block = takeBlock(this.sizeClasses[0]);
+        if (block == -1) {
+            return false;
+        }
+        assignBlock(message, 0, block);
+        return true;
+    }
+
+    @Override
+    public boolean expand(Message message) {
+        int nextSizeClass = message.sizeClassIndex + 1;
+        if (nextSizeClass >= this.sizeClasses.length) {
+            return false;
+        }
+
+        int nextFreeBlock = takeBlock(this.sizeClasses[nextSizeClass]);
+        if (nextFreeBlock == -1)
+            return false;
+
+        ByteBuffer srcSlab = message.slab;
+        int srcOffset = message.offset;
+        int srcSizeClass = message.sizeClassIndex;
+        int srcBlock = message.blockIndex;
+
+        assignBlock(message, nextSizeClass, nextFreeBlock);
+        MessageBuffer.copy(srcSlab, srcOffset, message.slab, message.offset, message.length);
+
+        putBlock(this.sizeClasses[srcSizeClass], srcBlock); // free smaller block after copy
+        return true;
+    }
+
+    @Override
+    public void free(Message message) {
+        putBlock(this.sizeClasses[message.sizeClassIndex], message.blockIndex);
+    }
+
+    @Override
+    public boolean isFreeThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int maxBlocks() {
+        return this.totalBlocks;
+    }
+
+    /**
+     * @return the free blocks plus the blocks which are not allocated yet.
+     */
+    @Override
+    public int availableBlocks(int sizeClassIndex) {
+        SizeClassBlocks sizeClass = this.sizeClasses[sizeClassIndex];
+        return sizeClass.freeBlocks.available() + sizeClass.blockCount - sizeClass.allocatedBlocks;
+    }
+
+    @Override
+    public long allocatedBytes() {
+        long allocatedBytes = 0;
+        for (SizeClassBlocks sizeClass : this.sizeClasses) {
+            allocatedBytes += (long)sizeClass.allocatedBlocks * sizeClass.blockSize;
+        }
+        return allocatedBytes;
+    }
+
+    @Override
+    public long usedBytes() {
+        long usedBytes = 0;
+        for (SizeClassBlocks sizeClass : this.sizeClasses) {
+            usedBytes += (long)(sizeClass.allocatedBlocks - sizeClass.freeBlocks.available()) * sizeClass.blockSize;
+        }
+        return usedBytes;
+    }
+
+    /**
+     * @return 0 - the blocks of a size class are never split, so every free block can be handed out as it is. The waste
+     *         of the size classes is inside the blocks instead: a message only a little larger than a size class
+     *         occupies a whole block of the next one.
+     */
+    @Override
+    public double fragmentation() {
+        return 0;
+    }
+
+    int sizeClassCount() {
+        return this.sizeClasses.length;
+    }
+
+    int blockCount(int sizeClassIndex) {
+        return this.sizeClasses[sizeClassIndex].blockCount;
+    }
+
+    /**
+     * @return a free block of the size class, -1 if there is none.
+     */
+    int takeBlock(int sizeClassIndex) {
+        return takeBlock(this.sizeClasses[sizeClassIndex]);
+    }
+
+    /**
+     * Frees a block - from any thread, without the MessageBuffer lock.
+     */
+    void putBlock(int sizeClassIndex, int block) {
+        putBlock(this.sizeClasses[sizeClassIndex], block);
+    }
+
+    /**
+     * Takes up to length free blocks of the size class in one go - allocating a slab if there are none.
+     *
+     * @return the number of blocks taken.
+     */
+    int takeBlocks(int sizeClassIndex, int[] into, int length) {
+        SizeClassBlocks sizeClass = this.sizeClasses[sizeClassIndex];
+        int count = sizeClass.freeBlocks.take(into, length);
+        if (count == 0 && sizeClass.allocatedBlocks < sizeClass.blockCount && length > 0) {
+            into[0] = allocateSlab(sizeClass);
+            count = 1;
+            while (count < length) {
+                int block = sizeClass.freeBlocks.take();
+                if (block == -1) {
+                    break;
+                }
+                into[count++] = block;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Frees the first length blocks of the array in one go - from any thread, without the MessageBuffer lock. Every
+     * block is queued.
+     */
+    void putBlocks(int sizeClassIndex, int[] blocks, int length) {
+        SizeClassBlocks sizeClass = this.sizeClasses[sizeClassIndex];
+        for (int i = sizeClass.freeBlocks.put(blocks, length); i < length; i++) {
+            putBlock(sizeClass, blocks[i]);
+        }
+    }
+
+    private int takeBlock(SizeClassBlocks sizeClass) {
+        int block = sizeClass.freeBlocks.take();
+        if (block == -1 && sizeClass.allocatedBlocks < sizeClass.blockCount) {
+            block = allocateSlab(sizeClass);
+        }
+        return block;
+    }
+
+    /**
+     * Allocates the next slab of the size class and adds its blocks to the free blocks - except the first one, which
+     * is returned.
+     */
+    private int allocateSlab(SizeClassBlocks sizeClass) {
+        int slabIndex = sizeClass.allocatedBlocks / sizeClass.blocksPerSlab;
+        int blocksInSlab = Math.min(sizeClass.blocksPerSlab, sizeClass.blockCount - sizeClass.allocatedBlocks);
+
+        ByteBuffer slab = this.messageBuffer.allocateSlab(blocksInSlab * sizeClass.blockSize);
+        sizeClass.slabs[slabIndex] = slab;
+        sizeClass.slabArrays[slabIndex] = slab.hasArray() ? slab.array() : null;
+
+        int firstBlock = sizeClass.allocatedBlocks;
+        sizeClass.allocatedBlocks += blocksInSlab;
+        for (int block = firstBlock + 1; block < sizeClass.allocatedBlocks; block++) {
+            putBlock(sizeClass, block);
+        }
+        return firstBlock;
+    }
+
+    /**
+     * Queues a free block. The queue has room for every block of the size class, so it only looks full to a thread
+     * which does not see the latest take yet - the put is retried until the block is queued, never dropped.
+     */
+    private static void putBlock(SizeClassBlocks sizeClass, int block) {
+        while (!sizeClass.freeBlocks.put(block)) {
+            Thread.yield();
+        }
+    }
+
+    void assignBlock(Message message, int sizeClassIndex, int block) {
+        SizeClassBlocks sizeClass = this.sizeClasses[sizeClassIndex];
+        int slabIndex = block / sizeClass.blocksPerSlab;
+        int offset = (block % sizeClass.blocksPerSlab) * sizeClass.blockSize;
+
+        message.assignBlock(sizeClass.slabs[slabIndex], sizeClass.slabArrays[slabIndex], offset, sizeClass.blockSize,
+            sizeClassIndex, block);
+    }
+
+    /**
+     * The blocks of one size class. Blocks are numbered across the slabs of the size class: block n lives in slab
+     * n / blocksPerSlab.
+     */
+    private static class SizeClassBlocks {
+        final int blockSize;
+        final int blockCount;
+        final int blocksPerSlab;
+
+        final ByteBuffer[] slabs;
+        final byte[][] slabArrays; // the arrays backing the slabs - null entries if the slabs are not on the heap.
+        int allocatedBlocks = 0;
+
+        // put by any thread, taken under the MessageBuffer lock. It holds blockCount blocks, so a put never fails.
+        final IQueueInt freeBlocks;
+
+        SizeClassBlocks(MessageBufferConfig.SizeClass config) {
+            this.blockSize = config.blockSize;
+            this.blockCount = config.blockCount;
+            this.blocksPerSlab = config.blocksPerSlab;
+
+            int slabCount = (config.blockCount + config.blocksPerSlab - 1) / config.blocksPerSlab;
+            this.slabs = new ByteBuffer[slabCount];
+            this.slabArrays = new byte[slabCount][];
+
+            this.freeBlocks = new MpscQueueInt(config.blockCount);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 /**
@@ -14,8 +15,19 @@ public class Socket {
     public SocketChannel socketChannel = null;
     public IMessageReader messageReader = null;
     public MessageWriter messageWriter = null;
+    public SelectionKey selectionKey = null; // the key of this socket in the selector of its SocketProcessor.
 
     public boolean endOfStreamReached = false;
+    public boolean closeAfterWrite = false; // no more reading - close the socket once the pending responses are written.
+
+    // for the timeouts - in milliseconds, on the clock of the SocketProcessor.
+    public long lastReadTime = 0;
+    public long lastWriteTime = 0; // also set when a response is queued to an empty MessageWriter.
+    public TimingWheel.Timeout<Socket> timeout = new TimingWheel.Timeout<>(this);
+
+    public WorkerPool.InFlightRequests inFlightRequests = null; // the requests handed to a WorkerPool, if any.
+
+    public long bytesRead = 0; // over the lifetime of the socket - read by the SocketProcessor for its metrics.
 
     public Socket() {}
 
@@ -34,10 +46,78 @@ public class Socket {
         if (bytesRead == -1) {
             this.endOfStreamReached = true;
         }
+        this.bytesRead += bytesRead == -1 ? totalBytesRead + 1 : totalBytesRead; // the -1 is not a byte.
 
         return totalBytesRead;
     }
 
+    /**
+     * Reads from the channel straight into the free space of the message, expanding the message when it fills up.
+     *
+     * @return the number of bytes read.
+     * @throws IOException
+     *             also if the message has reached the largest block size and cannot take more data.
+     */
+    public int read(Message message) throws IOException {
+        return read(message, true);
+    }
+
+    /**
+     * Reads from the channel straight into the free space of the message.
+     *
+     * @param expand
+     *            whether to expand the message when it fills up. If false, the read stops when the message is full -
+     *            so a reader which streams the data on can make room before the channel is read again.
+     * @return the number of bytes read.
+     * @throws IOException
+     *             also if the message has reached the largest block size and cannot take more data.
+     */
+    public int read(Message message, boolean expand) throws IOException {
+        int totalBytesRead = 0;
+
+        while (true) {
+            if (message.length == message.capacity) {
+                if (!expand) {
+                    return totalBytesRead;
+                }
+                if (!message.expand()) {
+                    throw new IOException("message from socket " + this.socketId + " exceeds " + message.capacity
+                        + " bytes, or no larger block is free");
+                }
+            }
+
+            int bytesRead = this.socketChannel.read(message.freeSpace());
+            if (bytesRead == -1) {
+                this.endOfStreamReached = true;
+                return totalBytesRead;
+            }
+            if (bytesRead == 0) {
+                return totalBytesRead;
+            }
+            message.length += bytesRead;
+            totalBytesRead += bytesRead;
+            this.bytesRead += bytesRead;
+        }
+    }
+
+    /**
+     * Writes the message, from the given index to its end, straight from the message's slab to the channel.
+     *
+     * @return the number of bytes written.
+     */
+    public int write(Message message, int fromIndex) throws IOException {
+        return write(message.content(fromIndex));
+    }
+
+    /**
+     * Writes the buffers with one gathering write.
+     *
+     * @return the number of bytes written.
+     */
+    public long write(ByteBuffer[] byteBuffers, int length) throws IOException {
+        return this.socketChannel.write(byteBuffers, 0, length);
+    }
+
     public int write(ByteBuffer byteBuffer) throws IOException {
         int bytesWritten = this.socketChannel.write(byteBuffer);
         int totalBytesWritten = bytesWritten;
@@ -2,48 +2,239 @@ package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Queue;
+import java.util.List;
 
 /**
+ * Accepts connections and hands them to the SocketProcessors. The server socket is non-blocking and registered with a
+ * selector of its own, and every wakeup accepts all pending connections, so a burst of connections costs one select()
+ * instead of one blocking accept() per connection.
+ *
+ * Several accepters may run at once, each in its own thread: either sharing one server socket, or - with SO_REUSEPORT
+ * on Linux - each with its own server socket bound to the same port, so the kernel spreads the connections across
+ * them.
+ *
  * @author chenyuchuan
  */
 public class SocketAccepter implements Runnable {
 
+    // how long the accepter waits before it offers a socket again, when the queues of all processors are full.
+    private static final long FULL_QUEUE_BACKOFF_MILLIS = 10;
+
+    // StandardSocketOptions.SO_REUSEPORT exists from Java 9 on - null on Java 8.
+    private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+
     private int tcpPort = 0;
+    private ServerConfig config = null;
     private ServerSocketChannel serverSocket = null;
+    private boolean ownServerSocket = false; // opened by run() - closed when the accepter stops.
+
+    private volatile Selector selector = null; // volatile - stop() wakes it up from another thread.
+    private SelectionKey acceptKey = null;
+
+    private List<SocketProcessor> socketProcessors = null;
+    private int nextProcessor = 0;
+    private Socket pendingSocket = null; // accepted, but not taken by any processor yet.
 
-    private Queue socketQueue = null;
+    private volatile boolean stopped = false; // set by stop() - run() closes its selector and returns.
 
-    public SocketAccepter(int tcpPort, Queue socketQueue) {
+    /**
+     * Creates an accepter which binds its own server socket to the port when it is run.
+     */
+    public SocketAccepter(int tcpPort, List<SocketProcessor> socketProcessors) {
         this.tcpPort = tcpPort;
-        this.socketQueue = socketQueue;
+        this.config = new ServerConfig();
+        this.socketProcessors = socketProcessors;
+    }
+
+    /**
+     * Creates an accepter for a server socket opened with {@link #openServerSocket(int, ServerConfig, boolean)}.
+     *
+     * @param firstProcessor
+     *            the index of the processor which gets the first socket - so several accepters do not all start with
+     *            the same processor.
+     */
+    public SocketAccepter(ServerSocketChannel serverSocket, ServerConfig config, List<SocketProcessor> socketProcessors,
+        int firstProcessor) {
+        this.serverSocket = serverSocket;
+        this.config = config;
+        this.socketProcessors = socketProcessors;
+        this.nextProcessor = firstProcessor % socketProcessors.size();
+    }
+
+    /**
+     * Opens a non-blocking server socket bound to the port, with the backlog and the receive buffer size of the
+     * config. The receive buffer size is set before binding, so accepted sockets inherit it - a window larger than
+     * 64KB has to be negotiated during the handshake.
+     *
+     * @param reusePort
+     *            whether to set SO_REUSEPORT - see {@link #isReusePortSupported()}.
+     */
+    public static ServerSocketChannel openServerSocket(int tcpPort, ServerConfig config, boolean reusePort)
+        throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        try {
+            if (config.receiveBufferSize > 0) {
+                serverSocket.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+            }
+            if (reusePort) {
+                if (SO_REUSEPORT == null) {
+                    throw new IOException("SO_REUSEPORT is not supported");
+                }
+                serverSocket.setOption(SO_REUSEPORT, true);
+            }
+            serverSocket.bind(new InetSocketAddress(tcpPort), config.backlog);
+            serverSocket.configureBlocking(false);
+            return serverSocket;
+        } catch (IOException | RuntimeException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if server sockets support SO_REUSEPORT - it needs Java 9 or later, and an operating system which
+     *         has it, such as Linux.
+     */
+    public static boolean isReusePortSupported() {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            return serverSocket.supportedOptions().contains(SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
 
     public void run() {
         try {
-            this.serverSocket = ServerSocketChannel.open();
-            this.serverSocket.bind(new InetSocketAddress(tcpPort));
+            if (this.serverSocket == null) {
+                this.serverSocket = openServerSocket(this.tcpPort, this.config, false);
+                this.ownServerSocket = true;
+            }
+            this.selector = Selector.open();
+            this.acceptKey = this.serverSocket.register(this.selector, SelectionKey.OP_ACCEPT);
         } catch (IOException e) {
             e.printStackTrace();
             return;
         }
 
-        while (true) {
+        while (!this.stopped) {
             try {
-                SocketChannel socketChannel = this.serverSocket.accept();
+                if (this.pendingSocket != null) {
+                    this.selector.select(FULL_QUEUE_BACKOFF_MILLIS);
+                } else {
+                    this.selector.select();
+                }
+                this.selector.selectedKeys().clear();
 
-                System.out.println("Socket accepted: " + socketChannel);
+                acceptSockets();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        close();
+    }
+
+    /**
+     * Stops the accepter: run() stops accepting and returns. A server socket passed to the constructor stays open - it
+     * belongs to the caller. Safe to call from any thread.
+     */
+    public void stop() {
+        this.stopped = true;
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup(); // if run() has not opened the selector yet, it sees stopped before it selects.
+        }
+    }
+
+    private void close() {
+        try {
+            this.selector.close();
+            if (this.pendingSocket != null) {
+                this.pendingSocket.socketChannel.close();
+                this.pendingSocket = null;
+            }
+            if (this.ownServerSocket) {
+                this.serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                // todo check if the queue can even accept more sockets.
-                this.socketQueue.add(new Socket(socketChannel));
+    /**
+     * Accepts connections until none is pending, or until no processor can take more sockets.
+     */
+    private void acceptSockets() throws IOException {
+        if (this.pendingSocket != null) {
+            if (!addSocket(this.pendingSocket)) {
+                return;
+            }
+            this.pendingSocket = null;
+            this.acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
 
+        // null when no connection is pending - or when another accepter sharing the server socket took it.
+        SocketChannel socketChannel = this.serverSocket.accept();
+        while (socketChannel != null) {
+            Socket socket = new Socket(socketChannel);
+            try {
+                configureSocket(socketChannel);
             } catch (IOException e) {
-                e.printStackTrace();
+                e.printStackTrace(); // the connection has been reset already.
+                socketChannel.close();
+                socketChannel = this.serverSocket.accept();
+                continue;
+            }
+
+            if (!addSocket(socket)) {
+                // every processor is saturated. Nothing more is accepted until one takes this socket - further
+                // connections wait in the listen backlog of the server socket meanwhile.
+                this.pendingSocket = socket;
+                this.acceptKey.interestOps(0);
+                return;
             }
+            socketChannel = this.serverSocket.accept();
+        }
+    }
 
+    private void configureSocket(SocketChannel socketChannel) throws IOException {
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, this.config.tcpNoDelay);
+        if (this.config.sendBufferSize > 0) {
+            socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, this.config.sendBufferSize);
         }
+    }
 
+    /**
+     * Hands the socket to the processors round-robin, so connections spread evenly across the processor threads. A
+     * processor whose inbound socket queue is full is skipped.
+     *
+     * @return false if the queues of all processors are full.
+     */
+    private boolean addSocket(Socket socket) {
+        for (int i = 0; i < this.socketProcessors.size(); i++) {
+            SocketProcessor socketProcessor = this.socketProcessors.get(this.nextProcessor);
+            this.nextProcessor = (this.nextProcessor + 1) % this.socketProcessors.size();
+            if (socketProcessor.addSocket(socket)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -1,8 +1,6 @@
 package com.cyc.demo1.niodemo;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
@@ -12,75 +10,221 @@ import java.util.*;
  */
 public class SocketProcessor implements Runnable {
 
+    // how long select() waits while reading is paused, or new sockets are held back - the blocks which end the pause
+    // may be released by other threads, which do not wake the selector up.
+    private static final long BACKPRESSURE_SELECT_TIMEOUT_MILLIS = 10;
+
     private Queue<Socket> inboundSocketQueue = null;
 
-    private MessageBuffer readMessageBuffer = null; // todo Not used now - but perhaps will be later - to check for
-                                                    // space in the buffer before reading from sockets
-    private MessageBuffer writeMessageBuffer = null; // todo Not used now - but perhaps will be later - to check for
-                                                     // space in the buffer before reading from sockets (space for more
-                                                     // to write?)
+    // the free blocks of the smallest size class of both buffers are checked against the watermarks before reading
+    // from the sockets - see ServerConfig.lowWatermark.
+    private MessageBuffer readMessageBuffer = null;
+    private MessageBuffer writeMessageBuffer = null;
+
+    private int readLowWatermark = 0;
+    private int readHighWatermark = 0;
+    private int writeLowWatermark = 0;
+    private int writeHighWatermark = 0;
+    private boolean readPaused = false; // no socket has read interest while the buffers are below the watermarks.
 
     private IMessageReaderFactory messageReaderFactory = null;
 
-    private Queue<Message> outboundMessageQueue = new LinkedList<>(); // todo use a better / faster queue.
+    private MpscArrayQueue<Message> outboundMessageQueue = null; // filled from any thread through the WriteProxy.
 
     private Map<Long, Socket> socketMap = new HashMap<>();
 
-    private ByteBuffer readByteBuffer = ByteBuffer.allocate(1024 * 1024);
-    private ByteBuffer writeByteBuffer = ByteBuffer.allocate(1024 * 1024);
-    private Selector readSelector = null;
-    private Selector writeSelector = null;
+    // one selector for both read and write readiness. The processor thread blocks in select() until a socket is ready,
+    // or until the accepter / a WriteProxy wakes it up because there is a new socket or a new outbound message.
+    private Selector selector = null;
 
     private IMessageProcessor messageProcessor = null;
+    private WorkerPool workerPool = null; // null if the messageProcessor runs on this thread.
     private WriteProxy writeProxy = null;
 
     private long nextSocketId = 16 * 1024; // start incoming socket ids from 16K - reserve bottom ids for pre-defined
                                            // sockets (servers).
 
     private Set<Socket> emptyToNonEmptySockets = new HashSet<>();
-    private Set<Socket> nonEmptyToEmptySockets = new HashSet<>();
+    private Set<Socket> closingSockets = new HashSet<>(); // sockets to close once their responses are written.
+
+    // every socket has one timeout in the wheel. It is not moved on every read or write - when it fires, the socket's
+    // real deadline is computed from its last read and write, and the timeout is scheduled again if that lies ahead.
+    private TimingWheel<Socket> timingWheel = null; // null if all timeouts are disabled.
+    private long idleTimeoutMillis = 0;
+    private long readTimeoutMillis = 0;
+    private long writeTimeoutMillis = 0;
+    private long checkIntervalMillis = 0; // the smallest enabled timeout - no socket goes unchecked for longer.
+    private long timerTickMillis = 0;
+    private List<Socket> expiredSockets = new ArrayList<>();
+
+    private long currentTime = 0; // milliseconds, taken once per cycle.
+
+    private ProcessorMetrics metrics = null;
+
+    private volatile boolean stopped = false; // set by stop() - run() closes everything and returns.
 
     public SocketProcessor(Queue<Socket> inboundSocketQueue, MessageBuffer readMessageBuffer,
         MessageBuffer writeMessageBuffer, IMessageReaderFactory messageReaderFactory,
         IMessageProcessor messageProcessor) throws IOException {
+        this(inboundSocketQueue, readMessageBuffer, writeMessageBuffer, messageReaderFactory, messageProcessor,
+            new ServerConfig());
+    }
+
+    public SocketProcessor(Queue<Socket> inboundSocketQueue, MessageBuffer readMessageBuffer,
+        MessageBuffer writeMessageBuffer, IMessageReaderFactory messageReaderFactory,
+        IMessageProcessor messageProcessor, ServerConfig config) throws IOException {
+        this(inboundSocketQueue, readMessageBuffer, writeMessageBuffer, messageReaderFactory, messageProcessor, config,
+            null);
+    }
+
+    /**
+     * @param workerPool
+     *            the pool the complete messages are processed by - it calls the IMessageProcessor. null to call the
+     *            messageProcessor on this processor's thread.
+     */
+    public SocketProcessor(Queue<Socket> inboundSocketQueue, MessageBuffer readMessageBuffer,
+        MessageBuffer writeMessageBuffer, IMessageReaderFactory messageReaderFactory,
+        IMessageProcessor messageProcessor, ServerConfig config, WorkerPool workerPool) throws IOException {
         this.inboundSocketQueue = inboundSocketQueue;
 
         this.readMessageBuffer = readMessageBuffer;
         this.writeMessageBuffer = writeMessageBuffer;
-        this.writeProxy = new WriteProxy(writeMessageBuffer, this.outboundMessageQueue);
+
+        int readBlocks = readMessageBuffer.getConfig().getSizeClasses().get(0).blockCount;
+        this.readLowWatermark = (int)(readBlocks * config.lowWatermark);
+        this.readHighWatermark = (int)(readBlocks * config.highWatermark);
+        int writeBlocks = writeMessageBuffer.getConfig().getSizeClasses().get(0).blockCount;
+        this.writeLowWatermark = (int)(writeBlocks * config.lowWatermark);
+        this.writeHighWatermark = (int)(writeBlocks * config.highWatermark);
 
         this.messageReaderFactory = messageReaderFactory;
 
         this.messageProcessor = messageProcessor;
+        this.workerPool = workerPool;
+
+        this.selector = Selector.open();
+
+        this.outboundMessageQueue = new MpscArrayQueue<>(config.outboundQueueCapacity);
+        this.writeProxy = new WriteProxy(writeMessageBuffer, this.outboundMessageQueue, this.selector);
+
+        this.metrics = new ProcessorMetrics(inboundSocketQueue, this.outboundMessageQueue, readMessageBuffer,
+            writeMessageBuffer);
+        this.writeProxy.metrics = this.metrics;
 
-        this.readSelector = Selector.open();
-        this.writeSelector = Selector.open();
+        this.idleTimeoutMillis = config.idleTimeoutMillis;
+        this.readTimeoutMillis = config.readTimeoutMillis;
+        this.writeTimeoutMillis = config.writeTimeoutMillis;
+        this.checkIntervalMillis = Long.MAX_VALUE;
+        long[] timeouts = new long[] {this.idleTimeoutMillis, this.readTimeoutMillis, this.writeTimeoutMillis};
+        for (long timeoutMillis : timeouts) {
+            if (timeoutMillis > 0) {
+                this.checkIntervalMillis = Math.min(this.checkIntervalMillis, timeoutMillis);
+            }
+        }
+        this.currentTime = currentTimeMillis();
+        if (this.checkIntervalMillis != Long.MAX_VALUE) {
+            this.timerTickMillis = config.timerTickMillis;
+            this.timingWheel = new TimingWheel<>(config.timerTickMillis, config.timerTicksPerWheel, this.currentTime);
+        }
     }
 
     public void run() {
-        while (true) {
+        while (!this.stopped) {
             try {
+                long selectTimeout = 0;
+                if (this.readPaused || !this.inboundSocketQueue.isEmpty()) {
+                    selectTimeout = BACKPRESSURE_SELECT_TIMEOUT_MILLIS;
+                }
+                if (this.timingWheel != null && this.timingWheel.size() > 0) {
+                    // wake up every tick to advance the timing wheel.
+                    selectTimeout = selectTimeout == 0 ? this.timerTickMillis
+                        : Math.min(selectTimeout, this.timerTickMillis);
+                }
+                if (selectTimeout > 0) {
+                    this.selector.select(selectTimeout);
+                } else {
+                    this.selector.select();
+                }
+
                 executeCycle();
             } catch (IOException e) {
                 e.printStackTrace();
             }
+        }
+        close();
+    }
+
+    /**
+     * Stops the processor: run() closes all sockets - those still in the inbound socket queue too - and returns. Safe
+     * to call from any thread.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.selector.wakeup();
+    }
 
+    private void close() {
+        for (Socket socket : new ArrayList<>(this.socketMap.values())) {
+            closeSocket(socket);
+        }
+        Socket newSocket = this.inboundSocketQueue.poll();
+        while (newSocket != null) {
             try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
+                newSocket.socketChannel.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
+            newSocket = this.inboundSocketQueue.poll();
+        }
+        takeNewOutboundMessages(); // no socket is left - the messages are released.
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    /**
+     * Hands a newly accepted socket to this processor. Called from the accepter thread - the socket is picked up by
+     * the processor thread in {@link #takeNewSockets()}.
+     *
+     * @return false if the inbound socket queue is full - the socket still belongs to the caller.
+     */
+    public boolean addSocket(Socket socket) {
+        if (!this.inboundSocketQueue.offer(socket)) {
+            return false;
+        }
+        this.selector.wakeup();
+        return true;
+    }
+
     public void executeCycle() throws IOException {
+        long cycleStartTime = System.nanoTime();
+        this.currentTime = cycleStartTime / 1000000;
+
+        updateBackpressure();
         takeNewSockets();
-        readFromSockets();
+        processSelectedKeys();
         writeToSockets();
+        closeDrainedSockets();
+        expireTimeouts();
+
+        this.metrics.cycleTime.recordValue(System.nanoTime() - cycleStartTime);
     }
 
+    /**
+     * @return the metrics of this processor - safe to read from any thread.
+     */
+    public ProcessorMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Takes new sockets from the inbound socket queue while the read MessageBuffer is above the high watermark. The
+     * sockets held back stay in the queue - and once it is full, the accepter stops accepting.
+     */
     public void takeNewSockets() throws IOException {
-        Socket newSocket = this.inboundSocketQueue.poll();
+        Socket newSocket = canTakeNewSocket() ? this.inboundSocketQueue.poll() : null;
 
         while (newSocket != null) {
             newSocket.socketId = this.nextSocketId++;
@@ -93,106 +237,263 @@ public class SocketProcessor implements Runnable {
 
             this.socketMap.put(newSocket.socketId, newSocket);
 
-            SelectionKey key = newSocket.socketChannel.register(this.readSelector, SelectionKey.OP_READ);
-            key.attach(newSocket);
+            newSocket.selectionKey = newSocket.socketChannel.register(this.selector, SelectionKey.OP_READ, newSocket);
 
-            newSocket = this.inboundSocketQueue.poll();
+            newSocket.lastReadTime = this.currentTime;
+            newSocket.lastWriteTime = this.currentTime;
+            scheduleTimeout(newSocket);
+            this.metrics.socketsOpened.increment();
+
+            newSocket = canTakeNewSocket() ? this.inboundSocketQueue.poll() : null;
         }
     }
 
-    public void readFromSockets() throws IOException {
-        int readReady = this.readSelector.selectNow();
+    private boolean canTakeNewSocket() {
+        return !this.readPaused && this.readMessageBuffer.availableBlocks(0) > this.readHighWatermark;
+    }
 
-        if (readReady > 0) {
-            Set<SelectionKey> selectedKeys = this.readSelector.selectedKeys();
-            Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+    /**
+     * Pauses reading from all sockets when the read or the write MessageBuffer falls below the low watermark, and
+     * resumes it when both are above the high watermark again. While reading is paused the requests in progress are
+     * processed and their responses written, which releases the blocks.
+     */
+    private void updateBackpressure() {
+        int readBlocks = this.readMessageBuffer.availableBlocks(0);
+        int writeBlocks = this.writeMessageBuffer.availableBlocks(0);
+
+        boolean readPaused = this.readPaused;
+        if (!readPaused && (readBlocks < this.readLowWatermark || writeBlocks < this.writeLowWatermark)) {
+            readPaused = true;
+        } else if (readPaused && readBlocks >= this.readHighWatermark && writeBlocks >= this.writeHighWatermark) {
+            readPaused = false;
+        }
+        if (readPaused == this.readPaused) {
+            return;
+        }
+
+        if (readPaused) {
+            this.metrics.readPauses.increment();
+        } else {
+            this.metrics.readResumes.increment();
+        }
+        this.readPaused = readPaused;
+        for (Socket socket : this.socketMap.values()) {
+            updateInterestOps(socket);
+        }
+    }
 
-            while (keyIterator.hasNext()) {
-                SelectionKey key = keyIterator.next();
+    private void processSelectedKeys() {
+        Set<SelectionKey> selectedKeys = this.selector.selectedKeys();
+        if (selectedKeys.isEmpty()) {
+            return;
+        }
 
-                readFromSocket(key);
+        Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
 
-                keyIterator.remove();
+            Socket socket = (Socket)key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    readFromSocket(socket);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeToSocket(socket);
+                }
+            } catch (IOException e) {
+                // a failing socket must not stall the other sockets of this processor.
+                e.printStackTrace();
+                closeSocket(socket);
             }
-            selectedKeys.clear();
         }
     }
 
-    private void readFromSocket(SelectionKey key) throws IOException {
-        Socket socket = (Socket)key.attachment();
-        socket.messageReader.read(socket, this.readByteBuffer);
+    private void readFromSocket(Socket socket) throws IOException {
+        if (this.readPaused) {
+            return; // selected before reading was paused.
+        }
+        socket.lastReadTime = this.currentTime;
+        long bytesRead = socket.bytesRead;
+        try {
+            socket.messageReader.read(socket);
+        } finally {
+            this.metrics.bytesRead.add(socket.bytesRead - bytesRead);
+        }
 
         List<Message> fullMessages = socket.messageReader.getMessages();
         if (fullMessages.size() > 0) {
+            this.metrics.messagesRead.add(fullMessages.size());
             for (Message message : fullMessages) {
                 message.socketId = socket.socketId;
-                this.messageProcessor.process(message, this.writeProxy); // the message processor will eventually push
-                                                                         // outgoing messages into an IMessageWriter for
-                                                                         // this socket.
+                if (this.workerPool != null) {
+                    this.workerPool.submit(socket, message, this.writeProxy);
+                } else {
+                    this.messageProcessor.process(message, this.writeProxy); // the message processor will eventually
+                                                                             // push outgoing messages into an
+                                                                             // IMessageWriter for this socket.
+                }
+                message.release();
             }
             fullMessages.clear();
         }
 
-        if (socket.endOfStreamReached) {
-            System.out.println("Socket closed: " + socket.socketId);
-            this.socketMap.remove(socket.socketId);
-            key.attach(null);
-            key.cancel();
-            key.channel().close();
+        if (socket.endOfStreamReached || socket.closeAfterWrite) {
+            // the client is done sending - or asked for "Connection: close". Stop reading, but keep the socket open
+            // until the responses to the requests read so far have been written.
+            socket.closeAfterWrite = true;
+            this.closingSockets.add(socket);
+            updateInterestOps(socket);
         }
+
+        // a read may have taken the buffers below the low watermark - stop before the next socket is read.
+        updateBackpressure();
     }
 
-    public void writeToSockets() throws IOException {
+    /**
+     * Closes the sockets which are waiting to be closed and have no more data to write.
+     */
+    private void closeDrainedSockets() {
+        if (this.closingSockets.isEmpty()) {
+            return;
+        }
+        Iterator<Socket> iterator = this.closingSockets.iterator();
+        while (iterator.hasNext()) {
+            Socket socket = iterator.next();
+            if (!socket.selectionKey.isValid()) {
+                iterator.remove(); // already closed because of an error.
+            } else if (socket.messageWriter.isEmpty() && !hasInFlightRequests(socket)) {
+                iterator.remove();
+                closeSocket(socket);
+            }
+        }
+    }
 
-        // Take all new messages from outboundMessageQueue
-        takeNewOutboundMessages();
+    /**
+     * Sets the interest set of the socket from its state: read interest unless the socket is being closed or reading
+     * is paused, write interest if it has data to write.
+     */
+    private void updateInterestOps(Socket socket) {
+        if (!socket.selectionKey.isValid()) {
+            return;
+        }
+        int interestOps = socket.closeAfterWrite || this.readPaused ? 0 : SelectionKey.OP_READ;
+        if (!socket.messageWriter.isEmpty()) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+        if (socket.selectionKey.interestOps() != interestOps) {
+            socket.selectionKey.interestOps(interestOps);
+        }
+    }
 
-        // Cancel all sockets which have no more data to write.
-        cancelEmptySockets();
+    /**
+     * Closes the sockets whose timeout has expired, and schedules the timeouts of the other sockets in the expired
+     * buckets again - they have been active since their timeout was scheduled.
+     */
+    private void expireTimeouts() {
+        if (this.timingWheel == null) {
+            return;
+        }
+        this.timingWheel.advance(this.currentTime, this.expiredSockets);
+        for (int i = 0; i < this.expiredSockets.size(); i++) {
+            Socket socket = this.expiredSockets.get(i);
+            if (deadline(socket) <= this.currentTime) {
+                this.metrics.socketsTimedOut.increment();
+                closeSocket(socket);
+            } else {
+                scheduleTimeout(socket);
+            }
+        }
+        this.expiredSockets.clear();
+    }
 
-        // Register all sockets that *have* data and which are not yet registered.
-        registerNonEmptySockets();
+    private void scheduleTimeout(Socket socket) {
+        if (this.timingWheel != null) {
+            long deadline = Math.min(deadline(socket), this.currentTime + this.checkIntervalMillis);
+            this.timingWheel.schedule(socket.timeout, deadline);
+        }
+    }
 
-        // Select from the Selector.
-        int writeReady = this.writeSelector.selectNow();
+    /**
+     * @return the time the socket times out at, from what it is doing now: the read timeout applies while a request
+     *         is partially read, the write timeout while responses are pending, and the idle timeout while neither is
+     *         the case and no request is being processed by the WorkerPool.
+     */
+    private long deadline(Socket socket) {
+        boolean reading = socket.messageReader.isReadingMessage();
+        boolean writing = !socket.messageWriter.isEmpty();
+        // a socket whose requests are being processed by the workers is waiting for its responses - not idle.
+        boolean processing = hasInFlightRequests(socket);
+
+        long deadline = Long.MAX_VALUE;
+        if (reading && this.readTimeoutMillis > 0) {
+            deadline = Math.min(deadline, socket.lastReadTime + this.readTimeoutMillis);
+        }
+        if (writing && this.writeTimeoutMillis > 0) {
+            deadline = Math.min(deadline, socket.lastWriteTime + this.writeTimeoutMillis);
+        }
+        if (!reading && !writing && !processing && this.idleTimeoutMillis > 0) {
+            deadline = Math.max(socket.lastReadTime, socket.lastWriteTime) + this.idleTimeoutMillis;
+        }
+        return deadline;
+    }
 
-        if (writeReady > 0) {
-            Set<SelectionKey> selectionKeys = this.writeSelector.selectedKeys();
-            Iterator<SelectionKey> keyIterator = selectionKeys.iterator();
+    private static boolean hasInFlightRequests(Socket socket) {
+        return socket.inFlightRequests != null && !socket.inFlightRequests.isEmpty();
+    }
 
-            while (keyIterator.hasNext()) {
-                SelectionKey key = keyIterator.next();
+    private static long currentTimeMillis() {
+        return System.nanoTime() / 1000000; // monotonic - unlike System.currentTimeMillis().
+    }
 
-                Socket socket = (Socket)key.attachment();
+    private void closeSocket(Socket socket) {
+        System.out.println("Socket closed: " + socket.socketId);
+        this.socketMap.remove(socket.socketId);
+        this.metrics.socketsClosed.increment();
+        if (this.timingWheel != null) {
+            this.timingWheel.cancel(socket.timeout);
+        }
+        socket.messageReader.dispose();
+        socket.messageWriter.dispose();
+        socket.selectionKey.attach(null);
+        socket.selectionKey.cancel();
+        try {
+            socket.socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                socket.messageWriter.write(socket, this.writeByteBuffer);
+    public void writeToSockets() throws IOException {
 
-                if (socket.messageWriter.isEmpty()) {
-                    this.nonEmptyToEmptySockets.add(socket);
-                }
+        // Take all new messages from outboundMessageQueue
+        takeNewOutboundMessages();
+        takeCloseRequests();
 
-                keyIterator.remove();
+        // Write straight away to all sockets that just got data - most responses fit in the socket send buffer, so
+        // write interest is only registered for the sockets which could not be drained.
+        for (Socket socket : this.emptyToNonEmptySockets) {
+            if (!socket.selectionKey.isValid()) {
+                continue; // closed earlier in this cycle.
+            }
+            try {
+                writeToSocket(socket);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeSocket(socket);
             }
-
-            selectionKeys.clear();
-
         }
+        this.emptyToNonEmptySockets.clear();
     }
 
-    private void registerNonEmptySockets() throws ClosedChannelException {
-        for (Socket socket : emptyToNonEmptySockets) {
-            socket.socketChannel.register(this.writeSelector, SelectionKey.OP_WRITE, socket);
+    private void writeToSocket(Socket socket) throws IOException {
+        long bytesWritten = socket.messageWriter.write(socket);
+        if (bytesWritten > 0) {
+            socket.lastWriteTime = this.currentTime;
+            this.metrics.bytesWritten.add(bytesWritten);
         }
-        emptyToNonEmptySockets.clear();
-    }
 
-    private void cancelEmptySockets() {
-        for (Socket socket : nonEmptyToEmptySockets) {
-            SelectionKey key = socket.socketChannel.keyFor(this.writeSelector);
-
-            key.cancel();
-        }
-        nonEmptyToEmptySockets.clear();
+        updateInterestOps(socket);
     }
 
     private void takeNewOutboundMessages() {
@@ -204,16 +505,33 @@ public class SocketProcessor implements Runnable {
                 MessageWriter messageWriter = socket.messageWriter;
                 if (messageWriter.isEmpty()) {
                     messageWriter.enqueue(outMessage);
-                    nonEmptyToEmptySockets.remove(socket);
-                    emptyToNonEmptySockets.add(socket); // not necessary if removed from nonEmptyToEmptySockets in prev.
-                                                        // statement.
+                    emptyToNonEmptySockets.add(socket);
+                    socket.lastWriteTime = this.currentTime; // the write timeout counts from here.
                 } else {
                     messageWriter.enqueue(outMessage);
                 }
+            } else {
+                outMessage.release(); // the socket has been closed in the meantime.
             }
 
             outMessage = this.outboundMessageQueue.poll();
         }
     }
 
+    /**
+     * Marks the sockets the WriteProxy was asked to close - after the messages taken from the outbound queue so far.
+     */
+    private void takeCloseRequests() {
+        Long socketId = this.writeProxy.pollCloseRequest();
+        while (socketId != null) {
+            Socket socket = this.socketMap.get(socketId);
+            if (socket != null && !socket.closeAfterWrite) {
+                socket.closeAfterWrite = true;
+                this.closingSockets.add(socket);
+                updateInterestOps(socket);
+            }
+            socketId = this.writeProxy.pollCloseRequest();
+        }
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free single producer / single consumer queue of ints, with the API of {@link QueueIntFlip}. One
+ * thread may put while another takes - e.g. a worker thread returning blocks which the SocketProcessor thread takes.
+ *
+ * The producer writes the elements with plain writes and then publishes them with an ordered write of its index; the
+ * consumer reads the index before the elements. Each side also keeps the last value it read of the other side's index,
+ * and reads the other index again only when that value says the queue is full - or empty. So in the steady state
+ * each side only touches its own cache line, and a bulk put or take publishes all its elements with one write.
+ *
+ * @author chenyuchuan
+ */
+public class SpscQueueInt implements IQueueInt {
+
+    // the indexes live in one AtomicLongArray, 128 bytes apart from each other and from the array header, so the
+    // producer and the consumer never write to the same cache line - not even with adjacent line prefetching. Each
+    // side's copy of the other side's index sits next to its own index.
+    private static final int PRODUCER_INDEX = 16;
+    private static final int CONSUMER_INDEX_CACHE = PRODUCER_INDEX + 1; // written by the producer only.
+    private static final int CONSUMER_INDEX = 32;
+    private static final int PRODUCER_INDEX_CACHE = CONSUMER_INDEX + 1; // written by the consumer only.
+    private static final int INDEX_SLOTS = 48;
+
+    private final int[] elements;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLongArray indexes = new AtomicLongArray(INDEX_SLOTS);
+
+    public SpscQueueInt(int capacity) {
+        // round up to a power of two, so the slot of an index is a mask rather than a modulo.
+        int actualCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.elements = new int[actualCapacity];
+        this.capacity = actualCapacity;
+        this.mask = actualCapacity - 1;
+    }
+
+    @Override
+    public int capacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public int available() {
+        long consumerIndex = this.indexes.get(CONSUMER_INDEX); // first - the producer index can only be ahead of it.
+        return (int)(this.indexes.get(PRODUCER_INDEX) - consumerIndex);
+    }
+
+    @Override
+    public boolean put(int element) {
+        long index = this.indexes.get(PRODUCER_INDEX);
+        if (freeSlots(index, 1) == 0) {
+            return false;
+        }
+        this.elements[(int)index & this.mask] = element;
+        this.indexes.lazySet(PRODUCER_INDEX, index + 1);
+        return true;
+    }
+
+    @Override
+    public int put(int[] elements, int length) {
+        long index = this.indexes.get(PRODUCER_INDEX);
+        int count = freeSlots(index, length);
+        for (int i = 0; i < count; i++) {
+            this.elements[(int)(index + i) & this.mask] = elements[i];
+        }
+        if (count > 0) {
+            this.indexes.lazySet(PRODUCER_INDEX, index + count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of slots from index on the producer can write, at most wanted.
+     */
+    private int freeSlots(long index, int wanted) {
+        long free = this.indexes.get(CONSUMER_INDEX_CACHE) + this.capacity - index;
+        if (free < wanted) {
+            long consumerIndex = this.indexes.get(CONSUMER_INDEX);
+            this.indexes.lazySet(CONSUMER_INDEX_CACHE, consumerIndex);
+            free = consumerIndex + this.capacity - index;
+        }
+        return (int)Math.min(free, wanted);
+    }
+
+    @Override
+    public int take() {
+        long index = this.indexes.get(CONSUMER_INDEX);
+        if (availableSlots(index, 1) == 0) {
+            return -1;
+        }
+        int element = this.elements[(int)index & this.mask];
+        this.indexes.lazySet(CONSUMER_INDEX, index + 1);
+        return element;
+    }
+
+    @Override
+    public int take(int[] into, int length) {
+        long index = this.indexes.get(CONSUMER_INDEX);
+        int count = availableSlots(index, length);
+        for (int i = 0; i < count; i++) {
+            into[i] = this.elements[(int)(index + i) & this.mask];
+        }
+        if (count > 0) {
+            this.indexes.lazySet(CONSUMER_INDEX, index + count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of elements from index on the consumer can read, at most wanted.
+     */
+    private int availableSlots(long index, int wanted) {
+        long available = this.indexes.get(PRODUCER_INDEX_CACHE) - index;
+        if (available < wanted) {
+            long producerIndex = this.indexes.get(PRODUCER_INDEX);
+            this.indexes.lazySet(PRODUCER_INDEX_CACHE, producerIndex);
+            available = producerIndex - index;
+        }
+        return (int)Math.min(available, wanted);
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel: a ring of buckets, one per tick, each holding a linked list of the timeouts which expire in
+ * that tick - or in the same tick of a later turn of the wheel. Scheduling and cancelling a timeout are O(1), and
+ * advancing the wheel only looks at the buckets of the ticks passed. A timeout fires in the first advance() after its
+ * deadline, rounded up to the next tick.
+ *
+ * The wheel is not thread safe - it is meant to be driven by the thread which owns the timeouts, e.g. a
+ * SocketProcessor.
+ *
+ * @author chenyuchuan
+ */
+public class TimingWheel<T> {
+
+    private long tickMillis = 0;
+    private int mask = 0;
+    private Timeout<T>[] buckets = null; // the head of the list of each bucket.
+
+    private long currentTick = 0; // the last tick advance() has processed.
+    private int size = 0;
+
+    /**
+     * @param ticksPerWheel
+     *            the number of buckets - rounded up to a power of two. Timeouts further out than one turn of the wheel
+     *            stay in their bucket for several turns.
+     * @param now
+     *            the current time in milliseconds, on the same clock the deadlines are given in.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int ticksPerWheel, long now) {
+        if (tickMillis <= 0 || ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException(
+                "invalid timing wheel: tickMillis=" + tickMillis + ", ticksPerWheel=" + ticksPerWheel);
+        }
+        int bucketCount = Integer.highestOneBit(ticksPerWheel);
+        if (bucketCount < ticksPerWheel) {
+            bucketCount <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = bucketCount - 1;
+        this.buckets = new Timeout[bucketCount];
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules the timeout to fire at the deadline. A timeout which is scheduled already is moved.
+     */
+    public void schedule(Timeout<T> timeout, long deadline) {
+        if (timeout.isScheduled()) {
+            cancel(timeout);
+        }
+        // round up, so a timeout never fires early - and never schedule into a tick which has been processed.
+        long deadlineTick = Math.max((deadline + this.tickMillis - 1) / this.tickMillis, this.currentTick + 1);
+        int bucket = (int)(deadlineTick & this.mask);
+
+        timeout.deadlineTick = deadlineTick;
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = this.buckets[bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        this.buckets[bucket] = timeout;
+        this.size++;
+    }
+
+    /**
+     * Removes the timeout from the wheel. Does nothing if it is not scheduled.
+     */
+    public void cancel(Timeout<T> timeout) {
+        if (!timeout.isScheduled()) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            this.buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        this.size--;
+    }
+
+    /**
+     * Processes the ticks up to now, and collects the owners of the timeouts which have expired. The expired timeouts
+     * are no longer scheduled.
+     */
+    public void advance(long now, List<T> expired) {
+        long nowTick = now / this.tickMillis;
+        if (nowTick <= this.currentTick) {
+            return;
+        }
+        // after a long pause every bucket is visited once - not once per tick passed.
+        long ticks = Math.min(nowTick - this.currentTick, this.buckets.length);
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            Timeout<T> timeout = this.buckets[(int)(tick & this.mask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= nowTick) {
+                    cancel(timeout);
+                    expired.add(timeout.owner);
+                }
+                timeout = next;
+            }
+        }
+        this.currentTick = nowTick;
+    }
+
+    /**
+     * @return the number of scheduled timeouts.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * A slot in the wheel. The owner keeps its Timeout and reschedules it, so the wheel allocates nothing per
+     * schedule.
+     */
+    public static class Timeout<T> {
+        private final T owner;
+
+        private long deadlineTick = 0;
+        private int bucket = -1; // -1 if not scheduled.
+        private Timeout<T> prev = null;
+        private Timeout<T> next = null;
+
+        public Timeout(T owner) {
+            this.owner = owner;
+        }
+
+        public boolean isScheduled() {
+            return this.bucket != -1;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the IMessageProcessor on worker threads instead of the SocketProcessor thread, so a slow request - e.g. one
+ * which calls a database - does not stall the other sockets of the processor.
+ *
+ * The responses of a socket are sent in the order of its requests, even when the workers finish them out of order: the
+ * responses of a request are passed on to the WriteProxy once the requests before it on the same socket are done, and
+ * held back until then. An HTTP client which pipelines its requests relies on that. If a held back response cannot be
+ * queued for writing later, the responses after it would be matched to the wrong requests - so they are dropped too,
+ * and the socket is closed once the responses before it have been written.
+ *
+ * The work queue is bounded. When it is full, the request is processed by the submitting SocketProcessor thread
+ * itself, which stops it from reading more requests in the meantime.
+ *
+ * @author chenyuchuan
+ */
+public class WorkerPool {
+
+    private IMessageProcessor messageProcessor = null;
+    private ThreadPoolExecutor executor = null;
+
+    private AtomicLong callerRunsCount = new AtomicLong();
+
+    public WorkerPool(int threadCount, int queueCapacity, IMessageProcessor messageProcessor) {
+        if (threadCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException(
+                "invalid worker pool: threadCount=" + threadCount + ", queueCapacity=" + queueCapacity);
+        }
+        this.messageProcessor = messageProcessor;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> new Thread(runnable, "worker-" + threadNumber.getAndIncrement()), (runnable, executor) -> {
+                this.callerRunsCount.incrementAndGet();
+                runnable.run();
+            });
+    }
+
+    /**
+     * Hands a complete request to the workers. Called by the SocketProcessor thread the socket belongs to. The request
+     * is retained until it has been processed, so the caller may release it right away.
+     */
+    public void submit(Socket socket, Message request, WriteProxy writeProxy) {
+        if (socket.inFlightRequests == null) {
+            socket.inFlightRequests = new InFlightRequests();
+        }
+        Task task = new Task(socket.inFlightRequests, request.retain(), writeProxy);
+        socket.inFlightRequests.add(task);
+        this.executor.execute(task);
+    }
+
+    /**
+     * @return the number of requests waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of workers processing a request right now.
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return this.executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the number of requests processed by a SocketProcessor thread, because the work queue was full.
+     */
+    public long getCallerRunsCount() {
+        return this.callerRunsCount.get();
+    }
+
+    /**
+     * Stops the workers once the queued requests are processed.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * The requests of one socket which have been submitted but not processed yet, oldest first. The responses of the
+     * oldest go straight to the WriteProxy - those of the others are held back until they become the oldest.
+     */
+    public static class InFlightRequests {
+
+        private ArrayDeque<Task> tasks = new ArrayDeque<>();
+
+        // a held back response could not be queued - no later response of the socket is sent, and the socket is
+        // closed once the responses before it are written.
+        private boolean broken = false;
+
+        public synchronized boolean isEmpty() {
+            return this.tasks.isEmpty();
+        }
+
+        synchronized void add(Task task) {
+            this.tasks.addLast(task);
+        }
+
+        synchronized boolean enqueue(Task task, Message response) {
+            if (this.broken) {
+                return false;
+            }
+            if (this.tasks.peekFirst() == task) {
+                return task.writeProxy.enqueue(response);
+            }
+            if (task.heldResponses == null) {
+                task.heldResponses = new ArrayList<>();
+            }
+            task.heldResponses.add(response);
+            return true;
+        }
+
+        synchronized void complete(Task task) {
+            task.done = true;
+            while (!this.tasks.isEmpty() && this.tasks.peekFirst().done) {
+                this.tasks.pollFirst();
+                Task next = this.tasks.peekFirst();
+                if (next != null) {
+                    next.sendHeldResponses();
+                }
+            }
+        }
+    }
+
+    /**
+     * The processing of one request. The task is also the WriteProxy the IMessageProcessor replies through, so it can
+     * hold the responses back.
+     */
+    private class Task extends WriteProxy implements Runnable {
+
+        private InFlightRequests inFlightRequests = null;
+        private Message request = null;
+        private WriteProxy writeProxy = null; // the WriteProxy of the SocketProcessor.
+
+        private List<Message> heldResponses = null;
+        private boolean done = false;
+
+        Task(InFlightRequests inFlightRequests, Message request, WriteProxy writeProxy) {
+            this.inFlightRequests = inFlightRequests;
+            this.request = request;
+            this.writeProxy = writeProxy;
+        }
+
+        @Override
+        public void run() {
+            try {
+                WorkerPool.this.messageProcessor.process(this.request, this);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                this.request.release();
+                this.request = null;
+                this.inFlightRequests.complete(this);
+            }
+        }
+
+        @Override
+        public Message getMessage() {
+            return this.writeProxy.getMessage();
+        }
+
+        /**
+         * Sends the response - or holds it back if an earlier request of the socket is still being processed. Returns
+         * false, and the response still belongs to the caller, if the write queue is full or an earlier held back
+         * response of the socket has been dropped.
+         */
+        @Override
+        public boolean enqueue(Message message) {
+            return this.inFlightRequests.enqueue(this, message);
+        }
+
+        @Override
+        public void closeAfterWrite(long socketId) {
+            this.writeProxy.closeAfterWrite(socketId);
+        }
+
+        /**
+         * Called with the InFlightRequests lock held, once this task has become the oldest of its socket.
+         */
+        private void sendHeldResponses() {
+            if (this.heldResponses == null) {
+                return;
+            }
+            long socketId = -1;
+            for (Message response : this.heldResponses) {
+                if (!this.inFlightRequests.broken && !this.writeProxy.enqueue(response)) {
+                    // the handler was told this response was sent. Skipping it would shift every later response onto
+                    // the wrong request - close the connection after the responses sent so far instead.
+                    this.inFlightRequests.broken = true;
+                    socketId = response.socketId;
+                }
+                if (this.inFlightRequests.broken) {
+                    response.release();
+                }
+            }
+            this.heldResponses = null;
+            if (socketId != -1) {
+                this.writeProxy.closeAfterWrite(socketId);
+            }
+        }
+    }
+
+}
@@ -1,26 +1,76 @@
 package com.cyc.demo1.niodemo;
 
+import java.nio.channels.Selector;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * The handle an IMessageProcessor uses to send outbound messages. Both methods are safe to call from any thread, so a
+ * message processor can hand slow requests to other threads and reply from there.
+ *
  * @author chenyuchuan
  */
 public class WriteProxy {
 
     private MessageBuffer messageBuffer = null;
-    private Queue writeQueue = null;
+    private MpscArrayQueue<Message> writeQueue = null;
+    private Selector selector = null;
 
-    public WriteProxy(MessageBuffer messageBuffer, Queue writeQueue) {
+    // the ids of the sockets to close once their queued messages are written - rare, so not worth a bounded queue.
+    private Queue<Long> closeRequests = new ConcurrentLinkedQueue<>();
+
+    ProcessorMetrics metrics = null; // set by the SocketProcessor which owns the write queue.
+
+    public WriteProxy(MessageBuffer messageBuffer, MpscArrayQueue<Message> writeQueue, Selector selector) {
         this.messageBuffer = messageBuffer;
         this.writeQueue = writeQueue;
+        this.selector = selector;
     }
 
+    /**
+     * For a WriteProxy which passes the messages on to another one.
+     */
+    protected WriteProxy() {}
+
     public Message getMessage() {
-        return this.messageBuffer.getMessage();
+        Message message = this.messageBuffer.getMessage();
+        if (message == null && this.metrics != null) {
+            this.metrics.writeBufferExhausted.increment();
+        }
+        return message;
     }
 
+    /**
+     * Enqueues the message for writing to the socket with id message.socketId. The writer releases the message once
+     * it has been written. If the queue is full, false is returned and the message still belongs to the caller.
+     */
     public boolean enqueue(Message message) {
-        return this.writeQueue.offer(message);
+        int size = this.writeQueue.offerAndGetSize(message);
+        if (this.metrics != null) {
+            (size != -1 ? this.metrics.messagesWritten : this.metrics.outboundQueueFull).increment();
+        }
+        if (size == 1) {
+            // the queue was empty, so the SocketProcessor may be blocked in select() - wake it up. If the queue was
+            // non-empty, the processor has not drained it yet and will pick this message up as well.
+            this.selector.wakeup();
+        }
+        return size != -1;
+    }
+
+    /**
+     * Asks the SocketProcessor to stop reading from the socket with the given id, and to close it once the messages
+     * enqueued for it so far have been written.
+     */
+    public void closeAfterWrite(long socketId) {
+        this.closeRequests.offer(socketId);
+        this.selector.wakeup();
+    }
+
+    /**
+     * @return the id of the next socket to close after writing, or null. Called by the SocketProcessor only.
+     */
+    Long pollCloseRequest() {
+        return this.closeRequests.poll();
     }
 
 }
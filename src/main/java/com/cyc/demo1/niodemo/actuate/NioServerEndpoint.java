@@ -0,0 +1,116 @@
+package com.cyc.demo1.niodemo.actuate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import com.cyc.demo1.niodemo.LatencyHistogram;
+import com.cyc.demo1.niodemo.MessageBufferConfig;
+import com.cyc.demo1.niodemo.ProcessorMetrics;
+import com.cyc.demo1.niodemo.Server;
+import com.cyc.demo1.niodemo.SocketProcessor;
+import com.cyc.demo1.niodemo.WorkerPool;
+
+/**
+ * Exposes the {@link ProcessorMetrics} of the SocketProcessors - and the WorkerPool - of the NIO servers at
+ * /nioserver. Every call takes a fresh snapshot; nothing is aggregated in between.
+ *
+ * @author chenyuchuan
+ */
+public class NioServerEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private static final double[] PERCENTILES = new double[] {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = new String[] {"p50", "p90", "p99", "p999"};
+
+    private List<Server> servers = null;
+
+    public NioServerEndpoint(List<Server> servers) {
+        super("nioserver");
+        this.servers = servers;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        List<Object> servers = new ArrayList<>();
+        for (Server server : this.servers) {
+            servers.add(serverMetrics(server));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("servers", servers);
+        return result;
+    }
+
+    private static Map<String, Object> serverMetrics(Server server) {
+        List<Object> processors = new ArrayList<>();
+        for (SocketProcessor socketProcessor : server.getSocketProcessors()) {
+            processors.add(processorMetrics(socketProcessor.getMetrics()));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("processors", processors);
+
+        WorkerPool workerPool = server.getWorkerPool();
+        if (workerPool != null) {
+            Map<String, Object> workers = new LinkedHashMap<>();
+            workers.put("queueDepth", workerPool.getQueueDepth());
+            workers.put("active", workerPool.getActiveCount());
+            workers.put("completed", workerPool.getCompletedCount());
+            workers.put("callerRuns", workerPool.getCallerRunsCount());
+            result.put("workers", workers);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> processorMetrics(ProcessorMetrics metrics) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("bytesRead", metrics.bytesRead.sum());
+        result.put("bytesWritten", metrics.bytesWritten.sum());
+        result.put("messagesRead", metrics.messagesRead.sum());
+        result.put("messagesWritten", metrics.messagesWritten.sum());
+        result.put("outboundQueueFull", metrics.outboundQueueFull.sum());
+        result.put("writeBufferExhausted", metrics.writeBufferExhausted.sum());
+        result.put("openSockets", metrics.getOpenSockets());
+        result.put("socketsOpened", metrics.socketsOpened.sum());
+        result.put("socketsTimedOut", metrics.socketsTimedOut.sum());
+        result.put("inboundSocketQueueDepth", metrics.getInboundSocketQueueDepth());
+        result.put("outboundQueueDepth", metrics.getOutboundQueueDepth());
+        result.put("readBuffer", bufferMetrics(metrics.getReadBufferConfig(), metrics.getReadBufferAvailableBlocks()));
+        result.put("writeBuffer",
+            bufferMetrics(metrics.getWriteBufferConfig(), metrics.getWriteBufferAvailableBlocks()));
+        result.put("readBufferUsedBytes", metrics.getReadBufferUsedBytes());
+        result.put("readBufferFragmentation", metrics.getReadBufferFragmentation());
+        result.put("writeBufferUsedBytes", metrics.getWriteBufferUsedBytes());
+        result.put("writeBufferFragmentation", metrics.getWriteBufferFragmentation());
+        result.put("cycleTimeNanos", histogramMetrics(metrics.cycleTime));
+        return result;
+    }
+
+    private static List<Object> bufferMetrics(MessageBufferConfig config, int[] availableBlocks) {
+        List<Object> sizeClasses = new ArrayList<>();
+        for (int i = 0; i < availableBlocks.length; i++) {
+            MessageBufferConfig.SizeClass sizeClass = config.getSizeClasses().get(i);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("blockSize", sizeClass.blockSize);
+            result.put("blockCount", sizeClass.blockCount);
+            result.put("availableBlocks", availableBlocks[i]);
+            sizeClasses.add(result);
+        }
+        return sizeClasses;
+    }
+
+    private static Map<String, Object> histogramMetrics(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getTotalCount());
+        result.put("mean", (long)histogram.getMean());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            result.put(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]));
+        }
+        result.put("max", histogram.getMaxValue());
+        return result;
+    }
+
+}
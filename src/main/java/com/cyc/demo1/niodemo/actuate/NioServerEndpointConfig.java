@@ -0,0 +1,28 @@
+package com.cyc.demo1.niodemo.actuate;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.cyc.demo1.niodemo.Server;
+
+/**
+ * Registers the {@link NioServerEndpoint} for the Server beans of the context. A Server which is not a bean - like the
+ * one of the example Main - is not picked up.
+ *
+ * @author chenyuchuan
+ */
+@Configuration
+public class NioServerEndpointConfig {
+
+    @Autowired(required = false)
+    private List<Server> servers = Collections.emptyList();
+
+    @Bean
+    public NioServerEndpoint nioServerEndpoint() {
+        return new NioServerEndpoint(this.servers);
+    }
+}
@@ -1,11 +1,14 @@
 package com.cyc.demo1.niodemo.example;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
-import com.cyc.demo1.niodemo.IMessageProcessor;
-import com.cyc.demo1.niodemo.Message;
 import com.cyc.demo1.niodemo.Server;
+import com.cyc.demo1.niodemo.http.HttpHeaders;
 import com.cyc.demo1.niodemo.http.HttpMessageReaderFactory;
+import com.cyc.demo1.niodemo.http.HttpResponse;
+import com.cyc.demo1.niodemo.http.HttpRouter;
+import com.cyc.demo1.niodemo.http.HttpStatus;
 
 /**
  * @author chenyuchuan
@@ -14,22 +17,27 @@ public class Main {
 
     public static void main(String[] args) throws IOException {
 
-        String httpResponse = "HTTP/1.1 200 OK\r\n" + "Content-Length: 38\r\n" + "Content-Type: text/html\r\n" + "\r\n"
-            + "<html><body>Hello World!</body></html>";
+        byte[] helloWorld = "<html><body>Hello World!</body></html>".getBytes(StandardCharsets.UTF_8);
 
-        byte[] httpResponseBytes = httpResponse.getBytes("UTF-8");
+        HttpRouter router = new HttpRouter();
 
-        IMessageProcessor messageProcessor = (request, writeProxy) -> {
+        router.route(HttpHeaders.HTTP_METHOD_GET, "/", (request, httpHeaders, pathParameters, writeProxy) -> {
             System.out.println("Message Received from socket: " + request.socketId);
 
-            Message response = writeProxy.getMessage();
-            response.socketId = request.socketId;
-            response.writeToMessage(httpResponseBytes);
+            HttpResponse.start(writeProxy, request, HttpStatus.OK).header(HttpResponse.CONTENT_TYPE_TEXT_HTML)
+                .send(helloWorld);
+        });
 
-            writeProxy.enqueue(response);
-        };
+        // echoes the name parameter, e.g. GET /hello/world
+        router.route(HttpHeaders.HTTP_METHOD_GET, "/hello/{name}", (request, httpHeaders, pathParameters, writeProxy) -> {
+            int nameStartIndex = pathParameters.getStartIndex(0);
+            int nameLength = pathParameters.getEndIndex(0) - nameStartIndex;
 
-        Server server = new Server(9999, new HttpMessageReaderFactory(), messageProcessor);
+            HttpResponse.start(writeProxy, request, HttpStatus.OK).header(HttpResponse.CONTENT_TYPE_TEXT_PLAIN)
+                .send(request.sharedArray, nameStartIndex, nameLength);
+        });
+
+        Server server = new Server(9999, new HttpMessageReaderFactory(), router);
 
         server.start();
 
@@ -0,0 +1,24 @@
+package com.cyc.demo1.niodemo.frame;
+
+/**
+ * The metaData of a message read by a {@link LengthPrefixedMessageReader}. The indices point into the sharedArray of
+ * the message - the header is from headerStartIndex to payloadStartIndex, the payload from payloadStartIndex to
+ * payloadEndIndex.
+ *
+ * @author chenyuchuan
+ */
+public class Frame {
+
+    public int headerStartIndex = 0;
+    public int payloadStartIndex = 0;
+    public int payloadEndIndex = 0;
+
+    public int getHeaderLength() {
+        return this.payloadStartIndex - this.headerStartIndex;
+    }
+
+    public int getPayloadLength() {
+        return this.payloadEndIndex - this.payloadStartIndex;
+    }
+
+}
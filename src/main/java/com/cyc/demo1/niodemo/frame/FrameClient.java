@@ -0,0 +1,105 @@
+package com.cyc.demo1.niodemo.frame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A small blocking client for a server which reads frames with a {@link LengthPrefixedMessageReader}. It sends
+ * frames, and receives the frames the server replies with. Not thread safe - one client per calling thread.
+ *
+ * <pre>
+ * try (FrameClient client = new FrameClient(new InetSocketAddress("localhost", 9998), FrameFormat.varint())) {
+ *     byte[] response = client.call(null, payload);
+ * }
+ * </pre>
+ *
+ * @author chenyuchuan
+ */
+public class FrameClient implements AutoCloseable {
+
+    private FrameFormat frameFormat = null;
+    private SocketChannel socketChannel = null;
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024); // in read mode between calls of receive().
+    private Frame frame = new Frame();
+
+    public FrameClient(InetSocketAddress serverAddress, FrameFormat frameFormat) throws IOException {
+        this.frameFormat = frameFormat;
+        this.socketChannel = SocketChannel.open(serverAddress);
+        this.socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.readBuffer.flip();
+    }
+
+    /**
+     * Sends a frame.
+     *
+     * @param header
+     *            exactly frameFormat.headerLength bytes - may be null if the format has no header.
+     */
+    public void send(byte[] header, byte[] payload) throws IOException {
+        int frameLength = (header != null ? header.length : 0) + payload.length;
+        int maxLength = this.frameFormat.prefixLength(frameLength) + frameLength;
+        if (maxLength > this.writeBuffer.capacity()) {
+            this.writeBuffer = ByteBuffer.allocate(maxLength);
+        }
+
+        this.writeBuffer.clear();
+        FrameWriter.write(this.writeBuffer, this.frameFormat, header, payload, 0, payload.length);
+        this.writeBuffer.flip();
+        while (this.writeBuffer.hasRemaining()) {
+            this.socketChannel.write(this.writeBuffer);
+        }
+    }
+
+    /**
+     * Receives the next frame.
+     *
+     * @return the header and the payload of the frame - without the prefix.
+     */
+    public byte[] receive() throws IOException {
+        while (true) {
+            int endIndex = this.frameFormat.parseFrame(this.readBuffer.array(), this.readBuffer.position(),
+                this.readBuffer.limit(), this.frame);
+            if (endIndex != -1) {
+                byte[] frameBytes = new byte[endIndex - this.frame.headerStartIndex];
+                System.arraycopy(this.readBuffer.array(), this.frame.headerStartIndex, frameBytes, 0,
+                    frameBytes.length);
+                this.readBuffer.position(endIndex);
+                return frameBytes;
+            }
+
+            this.readBuffer.compact();
+            if (!this.readBuffer.hasRemaining()) {
+                // the frame is larger than the buffer.
+                ByteBuffer readBuffer = ByteBuffer.allocate(this.readBuffer.capacity() * 2);
+                this.readBuffer.flip();
+                readBuffer.put(this.readBuffer);
+                this.readBuffer = readBuffer;
+            }
+            int bytesRead = this.socketChannel.read(this.readBuffer);
+            this.readBuffer.flip();
+            if (bytesRead == -1) {
+                throw new EOFException("connection closed by the server");
+            }
+        }
+    }
+
+    /**
+     * Sends a frame and receives the reply.
+     */
+    public byte[] call(byte[] header, byte[] payload) throws IOException {
+        send(header, payload);
+        return receive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socketChannel.close();
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.cyc.demo1.niodemo.frame;
+
+import java.io.IOException;
+
+import com.cyc.demo1.niodemo.MessageBuffer;
+
+/**
+ * The layout of a length-prefixed frame:
+ *
+ * <pre>
+ * +----------------+------------------------+---------------+
+ * | length prefix  | header (headerLength)  | payload       |
+ * +----------------+------------------------+---------------+
+ *                  |&lt;-------------- length --------------&gt;|
+ * </pre>
+ *
+ * The prefix is either a 4 byte big-endian int, or an unsigned varint of 1 to 5 bytes - 7 bits per byte, least
+ * significant group first, the high bit set on all but the last byte. The header is optional - with headerLength 0 a
+ * frame is just the prefix and the payload. Reader and writer of a connection must use the same format.
+ *
+ * @author chenyuchuan
+ */
+public class FrameFormat {
+
+    public enum LengthEncoding {
+        FIXED_INT, VARINT
+    }
+
+    private static final int FIXED_INT_LENGTH = 4;
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    public LengthEncoding lengthEncoding = LengthEncoding.FIXED_INT;
+
+    /**
+     * the number of bytes at the start of every frame which are a header - e.g. a message type and a call id.
+     */
+    public int headerLength = 0;
+
+    /**
+     * the largest frame length accepted - header plus payload. The default leaves room for the prefix in the largest
+     * block of the default MessageBufferConfig.
+     */
+    public int maxFrameLength = MessageBuffer.MB - MAX_VARINT_LENGTH;
+
+    public FrameFormat() {}
+
+    public static FrameFormat fixedInt() {
+        return new FrameFormat().lengthEncoding(LengthEncoding.FIXED_INT);
+    }
+
+    public static FrameFormat varint() {
+        return new FrameFormat().lengthEncoding(LengthEncoding.VARINT);
+    }
+
+    public FrameFormat lengthEncoding(LengthEncoding lengthEncoding) {
+        this.lengthEncoding = lengthEncoding;
+        return this;
+    }
+
+    public FrameFormat headerLength(int headerLength) {
+        if (headerLength < 0) {
+            throw new IllegalArgumentException("headerLength must not be negative: " + headerLength);
+        }
+        this.headerLength = headerLength;
+        return this;
+    }
+
+    public FrameFormat maxFrameLength(int maxFrameLength) {
+        if (maxFrameLength < 0) {
+            throw new IllegalArgumentException("maxFrameLength must not be negative: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    /**
+     * @return the number of bytes of the prefix of a frame of the given length.
+     */
+    public int prefixLength(int frameLength) {
+        if (this.lengthEncoding == LengthEncoding.FIXED_INT) {
+            return FIXED_INT_LENGTH;
+        }
+        int prefixLength = 1;
+        while ((frameLength >>>= 7) != 0) {
+            prefixLength++;
+        }
+        return prefixLength;
+    }
+
+    /**
+     * Encodes the prefix of a frame of the given length into dest.
+     *
+     * @return the number of bytes written.
+     */
+    public int writePrefix(int frameLength, byte[] dest, int offset) {
+        if (this.lengthEncoding == LengthEncoding.FIXED_INT) {
+            dest[offset] = (byte)(frameLength >>> 24);
+            dest[offset + 1] = (byte)(frameLength >>> 16);
+            dest[offset + 2] = (byte)(frameLength >>> 8);
+            dest[offset + 3] = (byte)frameLength;
+            return FIXED_INT_LENGTH;
+        }
+        int index = offset;
+        while ((frameLength & ~0x7F) != 0) {
+            dest[index++] = (byte)((frameLength & 0x7F) | 0x80);
+            frameLength >>>= 7;
+        }
+        dest[index++] = (byte)frameLength;
+        return index - offset;
+    }
+
+    /**
+     * Parses the frame which starts at startIndex.
+     *
+     * @return the index after the frame, or -1 if the frame is not complete yet. The frame's indices are only set
+     *         once it is complete.
+     * @throws IOException
+     *             if the prefix is malformed, or the length is shorter than the header or longer than maxFrameLength.
+     */
+    public int parseFrame(byte[] src, int startIndex, int endIndex, Frame frame) throws IOException {
+        int index = startIndex;
+        long frameLength = 0;
+        if (this.lengthEncoding == LengthEncoding.FIXED_INT) {
+            if (endIndex - startIndex < FIXED_INT_LENGTH) {
+                return -1;
+            }
+            frameLength = ((src[index] & 0xFFL) << 24) | ((src[index + 1] & 0xFF) << 16)
+                | ((src[index + 2] & 0xFF) << 8) | (src[index + 3] & 0xFF);
+            index += FIXED_INT_LENGTH;
+        } else {
+            int shift = 0;
+            while (true) {
+                if (index == endIndex) {
+                    return -1;
+                }
+                byte b = src[index++];
+                frameLength |= (long)(b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+                shift += 7;
+                if (index - startIndex == MAX_VARINT_LENGTH) {
+                    throw new IOException("varint frame length longer than " + MAX_VARINT_LENGTH + " bytes");
+                }
+            }
+        }
+
+        if (frameLength > this.maxFrameLength) {
+            throw new IOException("frame length " + frameLength + " exceeds " + this.maxFrameLength);
+        }
+        if (frameLength < this.headerLength) {
+            throw new IOException("frame length " + frameLength + " is shorter than the header");
+        }
+        if (endIndex - index < frameLength) {
+            return -1;
+        }
+
+        frame.headerStartIndex = index;
+        frame.payloadStartIndex = index + this.headerLength;
+        frame.payloadEndIndex = index + (int)frameLength;
+        return frame.payloadEndIndex;
+    }
+
+}
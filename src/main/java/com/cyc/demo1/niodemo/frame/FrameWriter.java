@@ -0,0 +1,96 @@
+package com.cyc.demo1.niodemo.frame;
+
+import java.nio.ByteBuffer;
+
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.WriteProxy;
+
+/**
+ * Writes length-prefixed frames - the counterpart of {@link LengthPrefixedMessageReader}. On the server side a frame
+ * is written straight into an outbound message of the WriteProxy; on the client side into a ByteBuffer.
+ *
+ * @author chenyuchuan
+ */
+public class FrameWriter {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private FrameWriter() {}
+
+    /**
+     * Sends a frame to the socket with the given id.
+     *
+     * @param header
+     *            exactly frameFormat.headerLength bytes - may be null if the format has no header.
+     * @return false if the frame could not be sent, because the write MessageBuffer or the write queue is full.
+     */
+    public static boolean send(WriteProxy writeProxy, long socketId, FrameFormat frameFormat, byte[] header,
+        byte[] payload, int offset, int length) {
+        header = checkHeader(frameFormat, header);
+        int frameLength = frameLength(frameFormat, header, length);
+
+        Message message = writeProxy.getMessage();
+        if (message == null) {
+            return false;
+        }
+        message.socketId = socketId;
+
+        byte[] prefix = new byte[frameFormat.prefixLength(frameLength)];
+        frameFormat.writePrefix(frameLength, prefix, 0);
+        if (message.writeToMessage(prefix) == -1 || (header.length > 0 && message.writeToMessage(header) == -1)
+            || (length > 0 && message.writeToMessage(payload, offset, length) == -1)
+            || !writeProxy.enqueue(message)) {
+            message.release();
+            return false;
+        }
+        return true;
+    }
+
+    public static boolean send(WriteProxy writeProxy, long socketId, FrameFormat frameFormat, byte[] header,
+        byte[] payload) {
+        return send(writeProxy, socketId, frameFormat, header, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes a frame into the buffer.
+     *
+     * @return false if the buffer has not enough space left - nothing is written then.
+     */
+    public static boolean write(ByteBuffer dest, FrameFormat frameFormat, byte[] header, byte[] payload, int offset,
+        int length) {
+        header = checkHeader(frameFormat, header);
+        int frameLength = frameLength(frameFormat, header, length);
+        int prefixLength = frameFormat.prefixLength(frameLength);
+        if (dest.remaining() < prefixLength + frameLength) {
+            return false;
+        }
+
+        byte[] prefix = new byte[prefixLength];
+        frameFormat.writePrefix(frameLength, prefix, 0);
+        dest.put(prefix);
+        dest.put(header);
+        dest.put(payload, offset, length);
+        return true;
+    }
+
+    private static int frameLength(FrameFormat frameFormat, byte[] header, int length) {
+        long frameLength = (long)header.length + length;
+        if (frameLength > frameFormat.maxFrameLength) {
+            throw new IllegalArgumentException(
+                "frame length " + frameLength + " exceeds " + frameFormat.maxFrameLength);
+        }
+        return (int)frameLength;
+    }
+
+    private static byte[] checkHeader(FrameFormat frameFormat, byte[] header) {
+        if (header == null) {
+            header = EMPTY;
+        }
+        if (header.length != frameFormat.headerLength) {
+            throw new IllegalArgumentException(
+                "header of " + header.length + " bytes, the format has " + frameFormat.headerLength);
+        }
+        return header;
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.cyc.demo1.niodemo.frame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cyc.demo1.niodemo.IMessageReader;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+import com.cyc.demo1.niodemo.Socket;
+
+/**
+ * Reads length-prefixed frames - see {@link FrameFormat}. The socket is read straight into the slab of the message,
+ * and every complete frame becomes a message of its own, with a {@link Frame} as its metaData. A frame is only
+ * located by its prefix - the header and the payload are never looked at, let alone copied or decoded.
+ *
+ * One read may contain several frames, and a frame - even its prefix - may be split across reads. The bytes after
+ * the last complete frame are carried over into the next message, once per read.
+ *
+ * @author chenyuchuan
+ */
+public class LengthPrefixedMessageReader implements IMessageReader {
+
+    private FrameFormat frameFormat = null;
+
+    private MessageBuffer messageBuffer = null;
+
+    private List<Message> completeMessages = new ArrayList<Message>();
+    private Message nextMessage = null;
+
+    public LengthPrefixedMessageReader(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    @Override
+    public void init(MessageBuffer readMessageBuffer) {
+        this.messageBuffer = readMessageBuffer;
+        this.nextMessage = messageBuffer.getMessage();
+        this.nextMessage.metaData = new Frame();
+    }
+
+    @Override
+    public void read(Socket socket) throws IOException {
+        int bytesRead = socket.read(this.nextMessage);
+
+        if (bytesRead == 0) {
+            return;
+        }
+
+        // locate all complete frames first. The first stays in nextMessage, every later one is copied into a message
+        // of its own, and the bytes after the last one are copied into the next message once - so no byte is copied
+        // more than once, however many frames a read contains.
+        byte[] src = this.nextMessage.sharedArray;
+        int startIndex = this.nextMessage.offset;
+        int endIndex = this.nextMessage.offset + this.nextMessage.length;
+        int firstEndIndex = -1;
+        int firstMessageIndex = this.completeMessages.size();
+
+        Frame frame = (Frame)this.nextMessage.metaData;
+        while (true) {
+            int frameEndIndex = this.frameFormat.parseFrame(src, startIndex, endIndex, frame);
+            if (frameEndIndex == -1) {
+                break;
+            }
+
+            if (firstEndIndex == -1) {
+                firstEndIndex = frameEndIndex;
+            } else {
+                Message message = copyToNewMessage(socket, startIndex, frameEndIndex);
+                shiftFrame(frame, message.offset - startIndex);
+                message.metaData = frame;
+                this.completeMessages.add(message);
+            }
+            startIndex = frameEndIndex;
+            frame = new Frame();
+        }
+
+        if (firstEndIndex == -1) {
+            return;
+        }
+
+        Message message = copyToNewMessage(socket, startIndex, endIndex);
+        message.metaData = frame;
+        this.nextMessage.length = firstEndIndex - this.nextMessage.offset;
+
+        this.completeMessages.add(firstMessageIndex, this.nextMessage);
+        this.nextMessage = message;
+    }
+
+    /**
+     * Copies a section of nextMessage into a new message.
+     */
+    private Message copyToNewMessage(Socket socket, int startIndex, int endIndex) throws IOException {
+        Message message = this.messageBuffer.getMessage();
+        if (message == null) {
+            throw new IOException("read MessageBuffer exhausted - cannot split frames");
+        }
+
+        if (message.writeToMessage(this.nextMessage, startIndex, endIndex) == -1) {
+            message.release();
+            throw new IOException("frames from socket " + socket.socketId + " exceed the buffer");
+        }
+        return message;
+    }
+
+    /**
+     * Moves the indices of a frame which was copied to another place in the slab.
+     */
+    private static void shiftFrame(Frame frame, int delta) {
+        frame.headerStartIndex += delta;
+        frame.payloadStartIndex += delta;
+        frame.payloadEndIndex += delta;
+    }
+
+    @Override
+    public List<Message> getMessages() {
+        return this.completeMessages;
+    }
+
+    @Override
+    public boolean isReadingMessage() {
+        return this.nextMessage != null && this.nextMessage.length > 0;
+    }
+
+    @Override
+    public void dispose() {
+        for (Message message : this.completeMessages) {
+            message.release();
+        }
+        this.completeMessages.clear();
+
+        if (this.nextMessage != null) {
+            this.nextMessage.release();
+            this.nextMessage = null;
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.cyc.demo1.niodemo.frame;
+
+import com.cyc.demo1.niodemo.IMessageReader;
+import com.cyc.demo1.niodemo.IMessageReaderFactory;
+
+/**
+ * @author chenyuchuan
+ */
+public class LengthPrefixedMessageReaderFactory implements IMessageReaderFactory {
+
+    private FrameFormat frameFormat = null;
+
+    public LengthPrefixedMessageReaderFactory(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    @Override
+    public IMessageReader createMessageReader() {
+        return new LengthPrefixedMessageReader(this.frameFormat);
+    }
+}
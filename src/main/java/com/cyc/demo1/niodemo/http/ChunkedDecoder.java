@@ -0,0 +1,167 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.io.IOException;
+
+/**
+ * Decodes a body with "Transfer-Encoding: chunked". The decoder keeps its state between calls, so the encoded body
+ * can be fed in whatever pieces it arrives in from the socket. Chunk extensions and trailers are skipped.
+ *
+ * @author chenyuchuan
+ */
+public class ChunkedDecoder {
+
+    private static final int STATE_SIZE = 0;
+    private static final int STATE_SIZE_EXTENSION = 1;
+    private static final int STATE_SIZE_LF = 2;
+    private static final int STATE_DATA = 3;
+    private static final int STATE_DATA_CR = 4;
+    private static final int STATE_DATA_LF = 5;
+    private static final int STATE_TRAILER_START = 6;
+    private static final int STATE_TRAILER = 7;
+    private static final int STATE_TRAILER_LF = 8;
+    private static final int STATE_FINAL_LF = 9;
+    private static final int STATE_DONE = 10;
+
+    private int state = STATE_SIZE;
+    private int chunkSize = 0;
+    private int sizeDigits = 0;
+    private int chunkRemaining = 0;
+    private long bodyLength = 0;
+
+    public ChunkedDecoder() {}
+
+    public void reset() {
+        this.state = STATE_SIZE;
+        this.chunkSize = 0;
+        this.sizeDigits = 0;
+        this.chunkRemaining = 0;
+        this.bodyLength = 0;
+    }
+
+    public boolean isComplete() {
+        return this.state == STATE_DONE;
+    }
+
+    /**
+     * @return the number of decoded body bytes so far.
+     */
+    public long getBodyLength() {
+        return this.bodyLength;
+    }
+
+    /**
+     * Decodes the encoded bytes from startIndex to endIndex, passing the chunk data to the sink.
+     *
+     * @param sink
+     *            receives the decoded body bytes - may be null if only the end of the body is of interest.
+     * @return the index after the last byte of the chunked body if the body is complete, or endIndex if more bytes
+     *         are needed.
+     * @throws IOException
+     *             if the bytes are not a valid chunked body, or the sink fails.
+     */
+    public int decode(byte[] src, int startIndex, int endIndex, HttpBodySink sink) throws IOException {
+        int index = startIndex;
+
+        while (index < endIndex && this.state != STATE_DONE) {
+            if (this.state == STATE_DATA) {
+                int length = Math.min(this.chunkRemaining, endIndex - index);
+                if (sink != null) {
+                    sink.write(src, index, length);
+                }
+                index += length;
+                this.chunkRemaining -= length;
+                this.bodyLength += length;
+                if (this.chunkRemaining == 0) {
+                    this.state = STATE_DATA_CR;
+                }
+                continue;
+            }
+
+            byte b = src[index++];
+            switch (this.state) {
+                case STATE_SIZE:
+                    int digit = hexDigit(b);
+                    if (digit != -1) {
+                        if (this.chunkSize > (Integer.MAX_VALUE >> 4)) {
+                            throw new IOException("chunk size too large");
+                        }
+                        this.chunkSize = (this.chunkSize << 4) | digit;
+                        this.sizeDigits++;
+                    } else if (this.sizeDigits == 0) {
+                        throw new IOException("invalid chunk size");
+                    } else if (b == '\r') {
+                        this.state = STATE_SIZE_LF;
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        this.state = STATE_SIZE_EXTENSION;
+                    } else {
+                        throw new IOException("invalid chunk size");
+                    }
+                    break;
+                case STATE_SIZE_EXTENSION:
+                    if (b == '\r') {
+                        this.state = STATE_SIZE_LF;
+                    }
+                    break;
+                case STATE_SIZE_LF:
+                    expect(b, '\n');
+                    if (this.chunkSize == 0) {
+                        this.state = STATE_TRAILER_START;
+                    } else {
+                        this.chunkRemaining = this.chunkSize;
+                        this.state = STATE_DATA;
+                    }
+                    break;
+                case STATE_DATA_CR:
+                    expect(b, '\r');
+                    this.state = STATE_DATA_LF;
+                    break;
+                case STATE_DATA_LF:
+                    expect(b, '\n');
+                    this.chunkSize = 0;
+                    this.sizeDigits = 0;
+                    this.state = STATE_SIZE;
+                    break;
+                case STATE_TRAILER_START:
+                    this.state = b == '\r' ? STATE_FINAL_LF : STATE_TRAILER;
+                    break;
+                case STATE_TRAILER:
+                    if (b == '\r') {
+                        this.state = STATE_TRAILER_LF;
+                    }
+                    break;
+                case STATE_TRAILER_LF:
+                    expect(b, '\n');
+                    this.state = STATE_TRAILER_START;
+                    break;
+                case STATE_FINAL_LF:
+                    expect(b, '\n');
+                    this.state = STATE_DONE;
+                    break;
+                default:
+                    throw new IllegalStateException("unknown state " + this.state);
+            }
+        }
+
+        return index;
+    }
+
+    private static void expect(byte actual, char expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("malformed chunked body");
+        }
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.io.IOException;
+
+/**
+ * Receives the body of a request piece by piece, as it is read from the socket, instead of the body being buffered in
+ * the request message. Used by the HttpMessageReader for bodies which are chunked or larger than its streaming
+ * threshold - see {@link HttpBodySinkFactory}.
+ *
+ * The request message is passed to the IMessageProcessor after {@link #complete()}, with the sink in
+ * {@link HttpHeaders#bodySink}.
+ *
+ * @author chenyuchuan
+ */
+public interface HttpBodySink {
+
+    /**
+     * Called with the next fragment of the (decoded) body. The bytes are only valid during the call.
+     */
+    public void write(byte[] src, int offset, int length) throws IOException;
+
+    /**
+     * Called when the whole body has been received.
+     */
+    public void complete() throws IOException;
+
+    /**
+     * Called instead of complete() if the connection is closed before the whole body has been received - or after
+     * complete() if the connection is closed before the request has been passed to the IMessageProcessor.
+     */
+    public void abort();
+
+}
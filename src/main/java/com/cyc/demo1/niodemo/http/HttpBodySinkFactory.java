@@ -0,0 +1,18 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.io.IOException;
+
+/**
+ * Creates a {@link HttpBodySink} for a request whose body is streamed instead of buffered.
+ *
+ * @author chenyuchuan
+ */
+public interface HttpBodySinkFactory {
+
+    /**
+     * @param httpHeaders
+     *            the parsed headers of the request.
+     */
+    public HttpBodySink createBodySink(HttpHeaders httpHeaders) throws IOException;
+
+}
@@ -0,0 +1,56 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Keeps the encoded "Date" response header up to date. The header only has a resolution of one second, so a daemon
+ * thread encodes it once per second and every response copies the current bytes - instead of formatting a date per
+ * response.
+ *
+ * @author chenyuchuan
+ */
+public class HttpDateClock {
+
+    // RFC 7231 IMF-fixdate, e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+    private static final DateTimeFormatter IMF_FIXDATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private static volatile byte[] dateHeader = encode();
+
+    static {
+        Thread clockThread = new Thread(HttpDateClock::run, "http-date-clock");
+        clockThread.setDaemon(true);
+        clockThread.start();
+    }
+
+    private HttpDateClock() {}
+
+    /**
+     * @return the current "Date: ...\r\n" header line. The array must not be modified.
+     */
+    public static byte[] dateHeader() {
+        return dateHeader;
+    }
+
+    private static void run() {
+        while (true) {
+            try {
+                // wake up just after the next full second.
+                Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            dateHeader = encode();
+        }
+    }
+
+    private static byte[] encode() {
+        return ("Date: " + IMF_FIXDATE.format(ZonedDateTime.now(ZoneOffset.UTC)) + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
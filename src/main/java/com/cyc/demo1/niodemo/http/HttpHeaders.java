@@ -1,6 +1,9 @@
 package com.cyc.demo1.niodemo.http;
 
 /**
+ * The parsed request line and headers of an HTTP request. Nothing is copied out of the request - all parts are
+ * recorded as start and end indices into the array of the request message, so reading a header allocates nothing.
+ *
  * @author chenyuchuan
  */
 public class HttpHeaders {
@@ -11,8 +14,22 @@ public class HttpHeaders {
     public static int HTTP_METHOD_HEAD = 4;
     public static int HTTP_METHOD_DELETE = 5;
 
+    // the header table holds 4 ints per header: name start, name end, value start and value end.
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int INTS_PER_HEADER = 4;
+
+    private static final int INITIAL_HEADER_CAPACITY = 16;
+
     public int httpMethod = 0;
 
+    public int pathStartIndex = 0;
+    public int pathEndIndex = 0;
+    public int queryStartIndex = 0; // after the '?' - queryStartIndex equals queryEndIndex if there is no query.
+    public int queryEndIndex = 0;
+
     public int hostStartIndex = 0;
     public int hostEndIndex = 0;
 
@@ -21,4 +38,131 @@ public class HttpHeaders {
     public int bodyStartIndex = 0;
     public int bodyEndIndex = 0;
 
+    // HTTP/1.1 connections are persistent unless the request says "Connection: close". HTTP/1.0 connections are closed
+    // after the response unless the request says "Connection: keep-alive".
+    public boolean keepAlive = true;
+
+    // true if the body is sent with "Transfer-Encoding: chunked". The body of a buffered chunked request is decoded in
+    // place, so bodyStartIndex and bodyEndIndex always delimit the decoded body.
+    public boolean chunked = false;
+
+    // the sink the body was streamed to, or null if the body is buffered in the message. A streamed body is not in the
+    // message - bodyStartIndex equals bodyEndIndex.
+    public HttpBodySink bodySink = null;
+
+    private int[] headerTable = new int[INITIAL_HEADER_CAPACITY * INTS_PER_HEADER];
+    private int headerCount = 0;
+
+    public HttpHeaders() {}
+
+    /**
+     * Clears what a previous parse of the request recorded. Called by HttpUtil before the headers are parsed again.
+     */
+    void clear() {
+        this.httpMethod = 0;
+        this.pathStartIndex = 0;
+        this.pathEndIndex = 0;
+        this.queryStartIndex = 0;
+        this.queryEndIndex = 0;
+        this.hostStartIndex = 0;
+        this.hostEndIndex = 0;
+        this.contentLength = 0;
+        this.keepAlive = true;
+        this.chunked = false;
+        this.bodyStartIndex = 0;
+        this.bodyEndIndex = 0;
+        this.bodySink = null;
+        this.headerCount = 0;
+    }
+
+    /**
+     * Moves all indices by delta - for a request which was copied to another place in the slab.
+     */
+    void shift(int delta) {
+        this.pathStartIndex += delta;
+        this.pathEndIndex += delta;
+        this.queryStartIndex += delta;
+        this.queryEndIndex += delta;
+        this.hostStartIndex += delta;
+        this.hostEndIndex += delta;
+        this.bodyStartIndex += delta;
+        this.bodyEndIndex += delta;
+        for (int i = 0, n = this.headerCount * INTS_PER_HEADER; i < n; i++) {
+            this.headerTable[i] += delta;
+        }
+    }
+
+    /**
+     * Adds a header to the header table. The value must already be trimmed.
+     */
+    void addHeader(int nameStartIndex, int nameEndIndex, int valueStartIndex, int valueEndIndex) {
+        int index = this.headerCount * INTS_PER_HEADER;
+        if (index == this.headerTable.length) {
+            int[] headerTable = new int[this.headerTable.length * 2];
+            System.arraycopy(this.headerTable, 0, headerTable, 0, this.headerTable.length);
+            this.headerTable = headerTable;
+        }
+        this.headerTable[index + NAME_START] = nameStartIndex;
+        this.headerTable[index + NAME_END] = nameEndIndex;
+        this.headerTable[index + VALUE_START] = valueStartIndex;
+        this.headerTable[index + VALUE_END] = valueEndIndex;
+        this.headerCount++;
+    }
+
+    public int getHeaderCount() {
+        return this.headerCount;
+    }
+
+    public int getNameStartIndex(int header) {
+        return this.headerTable[header * INTS_PER_HEADER + NAME_START];
+    }
+
+    public int getNameEndIndex(int header) {
+        return this.headerTable[header * INTS_PER_HEADER + NAME_END];
+    }
+
+    public int getValueStartIndex(int header) {
+        return this.headerTable[header * INTS_PER_HEADER + VALUE_START];
+    }
+
+    public int getValueEndIndex(int header) {
+        return this.headerTable[header * INTS_PER_HEADER + VALUE_END];
+    }
+
+    /**
+     * Finds a header by name, ignoring case.
+     *
+     * @param src
+     *            the array of the request message.
+     * @param lowerCaseName
+     *            the header name, in lower case.
+     * @return the number of the first header with that name, or -1.
+     */
+    public int findHeader(byte[] src, byte[] lowerCaseName) {
+        for (int header = 0; header < this.headerCount; header++) {
+            int index = header * INTS_PER_HEADER;
+            int nameStartIndex = this.headerTable[index + NAME_START];
+            int nameEndIndex = this.headerTable[index + NAME_END];
+            if (nameEndIndex - nameStartIndex == lowerCaseName.length
+                && HttpUtil.matchesIgnoreCase(src, nameStartIndex, nameEndIndex, lowerCaseName)) {
+                return header;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the value of a header as a non-negative decimal number.
+     *
+     * @return the number, or defaultValue if there is no such header or its value is not a number.
+     */
+    public long getLongValue(byte[] src, byte[] lowerCaseName, long defaultValue) {
+        int header = findHeader(src, lowerCaseName);
+        if (header == -1) {
+            return defaultValue;
+        }
+        long value = HttpUtil.parseLong(src, getValueStartIndex(header), getValueEndIndex(header));
+        return value == -1 ? defaultValue : value;
+    }
+
 }
@@ -1,7 +1,6 @@
 package com.cyc.demo1.niodemo.http;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,7 +9,14 @@ import com.cyc.demo1.niodemo.Message;
 import com.cyc.demo1.niodemo.MessageBuffer;
 import com.cyc.demo1.niodemo.Socket;
 
-/** * @author chenyuchuan */
+/**
+ * Reads HTTP requests. A request body is normally buffered in the request message. With a {@link HttpBodySinkFactory}
+ * the bodies which are chunked or larger than the streaming threshold are instead passed to a {@link HttpBodySink} as
+ * they arrive: the socket is then read no further than the free space of the message, and the body bytes are passed
+ * to the sink before the next read. So the message only ever holds the headers plus one block of body bytes.
+ *
+ * @author chenyuchuan
+ */
 public class HttpMessageReader implements IMessageReader {
 
     private MessageBuffer messageBuffer = null;
@@ -18,8 +24,34 @@ public class HttpMessageReader implements IMessageReader {
     private List<Message> completeMessages = new ArrayList<Message>();
     private Message nextMessage = null;
 
+    private HttpBodySinkFactory bodySinkFactory = null;
+    private int streamingThreshold = Integer.MAX_VALUE;
+
+    // the state of a body which is being streamed - bodySink is null when no body is being streamed.
+    private HttpBodySink bodySink = null;
+    private int bodyStartOffset = 0; // the start of the body, relative to nextMessage.offset.
+    private long bodyRemaining = 0; // the bytes still to come of a streamed body with a Content-Length.
+    private ChunkedDecoder chunkedDecoder = new ChunkedDecoder();
+
+    private InPlaceBodySink inPlaceBodySink = new InPlaceBodySink();
+
     public HttpMessageReader() {}
 
+    /**
+     * @param bodySinkFactory
+     *            creates the sinks bodies are streamed to.
+     * @param streamingThreshold
+     *            bodies with a Content-Length above this are streamed. Chunked bodies are always streamed, as their
+     *            length is not known up front.
+     */
+    public HttpMessageReader(HttpBodySinkFactory bodySinkFactory, int streamingThreshold) {
+        if (streamingThreshold < 0) {
+            throw new IllegalArgumentException("streamingThreshold must not be negative: " + streamingThreshold);
+        }
+        this.bodySinkFactory = bodySinkFactory;
+        this.streamingThreshold = streamingThreshold;
+    }
+
     @Override
     public void init(MessageBuffer readMessageBuffer) {
         this.messageBuffer = readMessageBuffer;
@@ -28,29 +60,190 @@ public class HttpMessageReader implements IMessageReader {
     }
 
     @Override
-    public void read(Socket socket, ByteBuffer byteBuffer) throws IOException {
-        int bytesRead = socket.read(byteBuffer);
-        byteBuffer.flip();
+    public void read(Socket socket) throws IOException {
+        if (this.bodySinkFactory == null) {
+            if (socket.read(this.nextMessage) > 0) {
+                parseRequests(socket);
+            }
+            return;
+        }
+
+        // a body may be streamed - never read more than fits into the message, and pass the body bytes read on to the
+        // sink before reading again. The message only grows while it holds headers or a buffered body.
+        while (!socket.closeAfterWrite && !socket.endOfStreamReached) {
+            if (this.nextMessage.length == this.nextMessage.capacity && !this.nextMessage.expand()) {
+                throw new IOException("message from socket " + socket.socketId + " exceeds "
+                    + this.nextMessage.capacity + " bytes, or no larger block is free");
+            }
+            if (socket.read(this.nextMessage, false) == 0) {
+                return;
+            }
+            parseRequests(socket);
+        }
+    }
+
+    /**
+     * Splits the complete requests off nextMessage. One read may contain several requests - a pipelining client does
+     * not wait for the responses. All complete requests are located first: the first stays in nextMessage, every later
+     * one is copied into a message of its own, and the bytes after the last one are carried over into the next message
+     * once. So no byte is copied more than once, however many requests a read contains.
+     */
+    private void parseRequests(Socket socket) throws IOException {
+        byte[] src = this.nextMessage.sharedArray;
+        int startIndex = this.nextMessage.offset; // the start of the request being parsed.
+        int endIndex = this.nextMessage.offset + this.nextMessage.length;
+        int carryEndIndex = endIndex; // the end of the bytes carried over - body bytes passed to a sink are not.
+        int firstEndIndex = -1; // the end of the first request, once it is complete.
+        int firstMessageIndex = this.completeMessages.size();
+
+        HttpHeaders httpHeaders = (HttpHeaders)this.nextMessage.metaData;
+        while (!socket.closeAfterWrite) {
+            int bodyStartIndex;
+            if (this.bodySink != null) {
+                // the body of the first request has been streamed since an earlier read.
+                bodyStartIndex = this.nextMessage.offset + this.bodyStartOffset;
+            } else {
+                bodyStartIndex = HttpUtil.parseHttpHeaders(src, startIndex, endIndex, httpHeaders);
+                if (bodyStartIndex == -1) {
+                    break;
+                }
+                startStreaming(httpHeaders, bodyStartIndex - startIndex);
+            }
 
-        if (byteBuffer.remaining() == 0) {
-            byteBuffer.clear();
+            int requestEndIndex; // the end of the bytes which make up the request message.
+            int nextStartIndex;
+            if (this.bodySink != null) {
+                nextStartIndex = streamBody(src, bodyStartIndex, endIndex, httpHeaders);
+                if (nextStartIndex == -1) {
+                    // the rest of the body comes with the next reads - only the headers are carried over.
+                    carryEndIndex = bodyStartIndex;
+                    break;
+                }
+                requestEndIndex = bodyStartIndex;
+            } else {
+                nextStartIndex =
+                    HttpUtil.parseHttpBody(src, bodyStartIndex, endIndex, httpHeaders, this.chunkedDecoder);
+                if (nextStartIndex == -1) {
+                    break;
+                }
+                requestEndIndex =
+                    httpHeaders.chunked ? decodeInPlace(src, httpHeaders, nextStartIndex) : nextStartIndex;
+            }
+
+            if (firstEndIndex == -1) {
+                firstEndIndex = requestEndIndex;
+            } else {
+                Message message = copyToNewMessage(socket, startIndex, requestEndIndex);
+                httpHeaders.shift(message.offset - startIndex);
+                message.metaData = httpHeaders;
+                this.completeMessages.add(message);
+            }
+            this.bodySink = null;
+
+            if (!httpHeaders.keepAlive) {
+                // the client asked to close the connection after this request - anything after it is ignored.
+                socket.closeAfterWrite = true;
+                carryEndIndex = nextStartIndex;
+            }
+            startIndex = nextStartIndex;
+            httpHeaders = new HttpHeaders();
+        }
+
+        if (firstEndIndex == -1) {
+            // no request is complete - nextMessage keeps its bytes.
+            this.nextMessage.length = carryEndIndex - this.nextMessage.offset;
             return;
         }
 
-        this.nextMessage.writeToMessage(byteBuffer);
+        Message message = copyToNewMessage(socket, startIndex, carryEndIndex);
+        httpHeaders.shift(message.offset - startIndex);
+        message.metaData = httpHeaders;
+        this.nextMessage.length = firstEndIndex - this.nextMessage.offset;
 
-        int endIndex = HttpUtil.parseHttpRequest(this.nextMessage.sharedArray, this.nextMessage.offset,
-            this.nextMessage.offset + this.nextMessage.length, (HttpHeaders)this.nextMessage.metaData);
-        if (endIndex != -1) {
-            Message message = this.messageBuffer.getMessage();
-            message.metaData = new HttpHeaders();
+        this.completeMessages.add(firstMessageIndex, this.nextMessage);
+        this.nextMessage = message;
+    }
 
-            message.writePartialMessageToMessage(nextMessage, endIndex);
+    /**
+     * Starts streaming the body of a request if it should be streamed.
+     *
+     * @param headersLength
+     *            the length of the request line and headers - the start of the body, relative to the request.
+     */
+    private void startStreaming(HttpHeaders httpHeaders, int headersLength) throws IOException {
+        if (this.bodySinkFactory == null
+            || !(httpHeaders.chunked || httpHeaders.contentLength > this.streamingThreshold)) {
+            return;
+        }
 
-            completeMessages.add(nextMessage);
-            nextMessage = message;
+        this.bodySink = this.bodySinkFactory.createBodySink(httpHeaders);
+        this.bodyStartOffset = headersLength;
+        this.bodyRemaining = httpHeaders.contentLength;
+        this.chunkedDecoder.reset();
+    }
+
+    /**
+     * Passes the body bytes read so far to the body sink. The bytes are not carried over, so the next read overwrites
+     * them.
+     *
+     * @return the index after the body, or -1 if the body is not complete yet.
+     */
+    private int streamBody(byte[] src, int bodyStartIndex, int endIndex, HttpHeaders httpHeaders) throws IOException {
+        int bodyEndIndex = 0;
+        boolean complete = false;
+        if (httpHeaders.chunked) {
+            bodyEndIndex = this.chunkedDecoder.decode(src, bodyStartIndex, endIndex, this.bodySink);
+            complete = this.chunkedDecoder.isComplete();
+        } else {
+            int length = (int)Math.min(this.bodyRemaining, endIndex - bodyStartIndex);
+            this.bodySink.write(src, bodyStartIndex, length);
+            this.bodyRemaining -= length;
+            bodyEndIndex = bodyStartIndex + length;
+            complete = this.bodyRemaining == 0;
+        }
+
+        if (!complete) {
+            return -1;
         }
-        byteBuffer.clear();
+
+        this.bodySink.complete();
+        httpHeaders.bodySink = this.bodySink;
+        httpHeaders.bodyStartIndex = bodyStartIndex;
+        httpHeaders.bodyEndIndex = bodyStartIndex;
+        return bodyEndIndex;
+    }
+
+    /**
+     * Decodes the chunks of a buffered body in place - the decoded body is never longer than the encoded body.
+     *
+     * @return the end of the decoded body.
+     */
+    private int decodeInPlace(byte[] src, HttpHeaders httpHeaders, int bodyEndIndex) throws IOException {
+        this.inPlaceBodySink.dest = src;
+        this.inPlaceBodySink.writeIndex = httpHeaders.bodyStartIndex;
+
+        this.chunkedDecoder.reset();
+        this.chunkedDecoder.decode(src, httpHeaders.bodyStartIndex, bodyEndIndex, this.inPlaceBodySink);
+        httpHeaders.bodyEndIndex = this.inPlaceBodySink.writeIndex;
+
+        this.inPlaceBodySink.dest = null;
+        return httpHeaders.bodyEndIndex;
+    }
+
+    /**
+     * Copies a section of nextMessage - a pipelined request, or the start of one - into a new message.
+     */
+    private Message copyToNewMessage(Socket socket, int startIndex, int endIndex) throws IOException {
+        Message message = this.messageBuffer.getMessage();
+        if (message == null) {
+            throw new IOException("read MessageBuffer exhausted - cannot split pipelined requests");
+        }
+
+        if (message.writeToMessage(this.nextMessage, startIndex, endIndex) == -1) {
+            message.release();
+            throw new IOException("pipelined requests from socket " + socket.socketId + " exceed the buffer");
+        }
+        return message;
     }
 
     @Override
@@ -58,4 +251,57 @@ public class HttpMessageReader implements IMessageReader {
         return this.completeMessages;
     }
 
+    @Override
+    public boolean isReadingMessage() {
+        return this.nextMessage != null && (this.nextMessage.length > 0 || this.bodySink != null);
+    }
+
+    @Override
+    public void dispose() {
+        for (Message message : this.completeMessages) {
+            // a streamed body which will never be processed - e.g. a temporary file nobody would delete.
+            HttpBodySink bodySink = ((HttpHeaders)message.metaData).bodySink;
+            if (bodySink != null) {
+                bodySink.abort();
+            }
+            message.release();
+        }
+        this.completeMessages.clear();
+
+        if (this.nextMessage != null) {
+            // the first request of a read may be complete, but not passed on yet.
+            HttpBodySink bodySink = ((HttpHeaders)this.nextMessage.metaData).bodySink;
+            if (bodySink != null) {
+                bodySink.abort();
+            }
+            this.nextMessage.release();
+            this.nextMessage = null;
+        }
+
+        if (this.bodySink != null) {
+            this.bodySink.abort();
+            this.bodySink = null;
+        }
+    }
+
+    /**
+     * Writes the decoded body back into the message it was decoded from.
+     */
+    private static class InPlaceBodySink implements HttpBodySink {
+        byte[] dest = null;
+        int writeIndex = 0;
+
+        @Override
+        public void write(byte[] src, int offset, int length) {
+            System.arraycopy(src, offset, this.dest, this.writeIndex, length);
+            this.writeIndex += length;
+        }
+
+        @Override
+        public void complete() {}
+
+        @Override
+        public void abort() {}
+    }
+
 }
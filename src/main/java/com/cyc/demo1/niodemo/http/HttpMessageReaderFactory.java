@@ -8,10 +8,25 @@ import com.cyc.demo1.niodemo.IMessageReaderFactory;
  */
 public class HttpMessageReaderFactory implements IMessageReaderFactory {
 
+    private HttpBodySinkFactory bodySinkFactory = null;
+    private int streamingThreshold = Integer.MAX_VALUE;
+
     public HttpMessageReaderFactory() {}
 
+    /**
+     * Creates readers which stream chunked bodies, and bodies larger than streamingThreshold bytes, to the sinks of
+     * bodySinkFactory - e.g. {@link TempFileBodySink#FACTORY}.
+     */
+    public HttpMessageReaderFactory(HttpBodySinkFactory bodySinkFactory, int streamingThreshold) {
+        this.bodySinkFactory = bodySinkFactory;
+        this.streamingThreshold = streamingThreshold;
+    }
+
     @Override
     public IMessageReader createMessageReader() {
-        return new HttpMessageReader();
+        if (this.bodySinkFactory == null) {
+            return new HttpMessageReader();
+        }
+        return new HttpMessageReader(this.bodySinkFactory, this.streamingThreshold);
     }
 }
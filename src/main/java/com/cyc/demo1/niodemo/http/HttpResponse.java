@@ -0,0 +1,208 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.nio.charset.StandardCharsets;
+
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.WriteProxy;
+
+/**
+ * Encodes an HTTP response straight into an outbound message. The status line, the header lines and the Date header
+ * are copied from bytes encoded up front, and numbers are written digit by digit, so no String is built and no charset
+ * is used per response:
+ *
+ * <pre>
+ * HttpResponse.start(writeProxy, request, HttpStatus.OK).header(HttpResponse.CONTENT_TYPE_TEXT_PLAIN).send(body);
+ * </pre>
+ *
+ * The Date and Content-Length headers are added by send(), and "Connection: close" if the request asked to close the
+ * connection. A 1xx, 204 or 304 response gets neither Content-Length nor a body.
+ *
+ * @author chenyuchuan
+ */
+public class HttpResponse {
+
+    public static final byte[] CONTENT_TYPE_TEXT_PLAIN = headerLine("Content-Type", "text/plain; charset=utf-8");
+    public static final byte[] CONTENT_TYPE_TEXT_HTML = headerLine("Content-Type", "text/html; charset=utf-8");
+    public static final byte[] CONTENT_TYPE_JSON = headerLine("Content-Type", "application/json");
+    public static final byte[] CONTENT_TYPE_OCTET_STREAM = headerLine("Content-Type", "application/octet-stream");
+
+    private static final byte[] CONNECTION_CLOSE = headerLine("Connection", "close");
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_RANGE_BYTES = "Content-Range: bytes ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UNSATISFIED_RANGE = new byte[] {'*', '/'};
+    private static final byte[] DASH = new byte[] {'-'};
+    private static final byte[] SLASH = new byte[] {'/'};
+    private static final byte[] COLON_SPACE = new byte[] {':', ' '};
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private WriteProxy writeProxy = null;
+    private Message message = null;
+    private boolean closeConnection = false;
+    private boolean hasBody = true; // false for a status which must not have a body - see HttpStatus.hasBody.
+    private boolean failed = false; // the message ran out of space - the response cannot be sent.
+
+    private byte[] digits = new byte[20]; // a long has at most 19 digits and a sign.
+
+    private HttpResponse() {}
+
+    /**
+     * Starts a response to the request with the status line.
+     */
+    public static HttpResponse start(WriteProxy writeProxy, Message request, HttpStatus status) {
+        HttpResponse response = new HttpResponse();
+        response.writeProxy = writeProxy;
+        response.message = writeProxy.getMessage();
+        if (response.message == null) {
+            response.failed = true; // the write MessageBuffer is exhausted.
+            return response;
+        }
+        response.message.socketId = request.socketId;
+        response.hasBody = status.hasBody;
+        response.closeConnection =
+            request.metaData instanceof HttpHeaders && !((HttpHeaders)request.metaData).keepAlive;
+
+        return response.write(status.statusLine, 0, status.statusLine.length);
+    }
+
+    /**
+     * Encodes a complete header line, e.g. headerLine("Cache-Control", "no-cache"), for use with
+     * {@link #header(byte[])}. Call once, e.g. for a constant - not per response.
+     */
+    public static byte[] headerLine(String name, String value) {
+        return (name + ": " + value + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Adds a header line encoded by {@link #headerLine(String, String)}.
+     */
+    public HttpResponse header(byte[] headerLine) {
+        return write(headerLine, 0, headerLine.length);
+    }
+
+    public HttpResponse header(byte[] name, byte[] value) {
+        return header(name, value, 0, value.length);
+    }
+
+    /**
+     * Adds a header whose value is a part of a byte array - e.g. of the request.
+     */
+    public HttpResponse header(byte[] name, byte[] value, int offset, int length) {
+        write(name, 0, name.length);
+        write(COLON_SPACE, 0, COLON_SPACE.length);
+        write(value, offset, length);
+        return write(CRLF, 0, CRLF.length);
+    }
+
+    public HttpResponse header(byte[] name, long value) {
+        write(name, 0, name.length);
+        write(COLON_SPACE, 0, COLON_SPACE.length);
+        writeNumber(value);
+        return write(CRLF, 0, CRLF.length);
+    }
+
+    /**
+     * Adds "Content-Range: bytes first-last/completeLength" for a 206 Partial Content response.
+     */
+    public HttpResponse contentRange(long firstBytePosition, long lastBytePosition, long completeLength) {
+        write(CONTENT_RANGE_BYTES, 0, CONTENT_RANGE_BYTES.length);
+        writeNumber(firstBytePosition);
+        write(DASH, 0, DASH.length);
+        writeNumber(lastBytePosition);
+        write(SLASH, 0, SLASH.length);
+        writeNumber(completeLength);
+        return write(CRLF, 0, CRLF.length);
+    }
+
+    /**
+     * Adds "Content-Range: bytes * /completeLength" for a 416 Range Not Satisfiable response.
+     */
+    public HttpResponse unsatisfiedContentRange(long completeLength) {
+        write(CONTENT_RANGE_BYTES, 0, CONTENT_RANGE_BYTES.length);
+        write(UNSATISFIED_RANGE, 0, UNSATISFIED_RANGE.length);
+        writeNumber(completeLength);
+        return write(CRLF, 0, CRLF.length);
+    }
+
+    /**
+     * Sends the response without a body.
+     */
+    public boolean send() {
+        return send(EMPTY, 0, 0);
+    }
+
+    public boolean send(byte[] body) {
+        return send(body, 0, body.length);
+    }
+
+    /**
+     * Completes the headers and sends the response with the body. The body is dropped if the status does not allow one.
+     *
+     * @return false if the response could not be sent, because the write MessageBuffer or the write queue is full.
+     */
+    public boolean send(byte[] body, int offset, int length) {
+        endHeaders(length);
+        if (this.hasBody) {
+            write(body, offset, length);
+        }
+        return enqueue();
+    }
+
+    /**
+     * Completes the headers for a body which the caller writes into the message itself - e.g. straight from the
+     * request - and sends with {@link #enqueue()}. Content-Length is left out if the status does not allow a body.
+     *
+     * @return the message, or null if the response failed.
+     */
+    public Message endHeaders(long contentLength) {
+        byte[] dateHeader = HttpDateClock.dateHeader();
+        write(dateHeader, 0, dateHeader.length);
+        if (this.closeConnection) {
+            write(CONNECTION_CLOSE, 0, CONNECTION_CLOSE.length);
+        }
+        if (this.hasBody) {
+            write(CONTENT_LENGTH, 0, CONTENT_LENGTH.length);
+            writeNumber(contentLength);
+            write(CRLF, 0, CRLF.length);
+        }
+        write(CRLF, 0, CRLF.length);
+        return this.failed ? null : this.message;
+    }
+
+    /**
+     * Hands the message to the WriteProxy. If that fails, the message is released.
+     */
+    public boolean enqueue() {
+        if (!this.failed && this.writeProxy.enqueue(this.message)) {
+            this.message = null;
+            return true;
+        }
+        if (this.message != null) {
+            this.message.release();
+            this.message = null;
+        }
+        return false;
+    }
+
+    private HttpResponse write(byte[] src, int offset, int length) {
+        if (!this.failed && length > 0 && this.message.writeToMessage(src, offset, length) == -1) {
+            this.failed = true;
+        }
+        return this;
+    }
+
+    private void writeNumber(long value) {
+        int index = this.digits.length;
+        long remaining = value;
+        do {
+            this.digits[--index] = (byte)('0' + Math.abs(remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            this.digits[--index] = '-';
+        }
+        write(this.digits, index, this.digits.length - index);
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.cyc.demo1.niodemo.http;
+
+import com.cyc.demo1.niodemo.IMessageProcessor;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.WriteProxy;
+
+/**
+ * An IMessageProcessor which dispatches HTTP requests to handlers by method and path. The routes are kept in a byte
+ * trie, and the request path is matched straight from the request message's array - no String is created per request.
+ *
+ * A route pattern is a path where a whole segment may be a parameter, e.g. "/orders/{id}/items". A parameter matches
+ * one non-empty segment. Literal segments take precedence over parameters. All routes must be added before the server
+ * is started.
+ *
+ * @author chenyuchuan
+ */
+public class HttpRouter implements IMessageProcessor {
+
+    // index 0 of Node.routes holds the route for any method.
+    private static final int ANY_METHOD = 0;
+    private static final int METHOD_COUNT = 6;
+
+    private Node root = new Node();
+
+    private IHttpRequestHandler notFoundHandler = (request, httpHeaders, pathParameters,
+        writeProxy) -> HttpResponse.start(writeProxy, request, HttpStatus.NOT_FOUND).send();
+    private IHttpRequestHandler methodNotAllowedHandler = (request, httpHeaders, pathParameters,
+        writeProxy) -> HttpResponse.start(writeProxy, request, HttpStatus.METHOD_NOT_ALLOWED).send();
+
+    // requests may be processed by several SocketProcessor threads at once.
+    private ThreadLocal<PathParameters> pathParameters = ThreadLocal.withInitial(PathParameters::new);
+
+    public HttpRouter() {}
+
+    /**
+     * Adds a route for any method. A route for a specific method on the same path takes precedence.
+     */
+    public HttpRouter route(String pattern, IHttpRequestHandler handler) {
+        return route(ANY_METHOD, pattern, handler);
+    }
+
+    /**
+     * Adds a route.
+     *
+     * @param httpMethod
+     *            one of the HttpHeaders.HTTP_METHOD_ constants.
+     * @throws IllegalArgumentException
+     *             if the pattern is malformed, or the route exists already.
+     */
+    public HttpRouter route(int httpMethod, String pattern, IHttpRequestHandler handler) {
+        if (httpMethod < 0 || httpMethod >= METHOD_COUNT) {
+            throw new IllegalArgumentException("unknown http method: " + httpMethod);
+        }
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("route pattern must start with '/': " + pattern);
+        }
+
+        Node node = this.root;
+        String[] parameterNames = new String[0];
+
+        int index = 0;
+        while (index < pattern.length()) {
+            char c = pattern.charAt(index);
+            if (c == '{') {
+                int endOfName = pattern.indexOf('}', index);
+                if (endOfName == -1 || endOfName == index + 1 || pattern.charAt(index - 1) != '/'
+                    || (endOfName + 1 < pattern.length() && pattern.charAt(endOfName + 1) != '/')) {
+                    throw new IllegalArgumentException("a parameter must be a whole path segment: " + pattern);
+                }
+                String[] names = new String[parameterNames.length + 1];
+                System.arraycopy(parameterNames, 0, names, 0, parameterNames.length);
+                names[parameterNames.length] = pattern.substring(index + 1, endOfName);
+                parameterNames = names;
+
+                if (node.parameterChild == null) {
+                    node.parameterChild = new Node();
+                }
+                node = node.parameterChild;
+                index = endOfName + 1;
+            } else {
+                if (c > 0x7F) {
+                    throw new IllegalArgumentException("route pattern must be ASCII: " + pattern);
+                }
+                node = node.addChild((byte)c);
+                index++;
+            }
+        }
+
+        if (node.routes == null) {
+            node.routes = new Route[METHOD_COUNT];
+        }
+        if (node.routes[httpMethod] != null) {
+            throw new IllegalArgumentException("duplicate route: " + pattern);
+        }
+        node.routes[httpMethod] = new Route(handler, parameterNames);
+        return this;
+    }
+
+    public HttpRouter notFound(IHttpRequestHandler notFoundHandler) {
+        this.notFoundHandler = notFoundHandler;
+        return this;
+    }
+
+    public HttpRouter methodNotAllowed(IHttpRequestHandler methodNotAllowedHandler) {
+        this.methodNotAllowedHandler = methodNotAllowedHandler;
+        return this;
+    }
+
+    @Override
+    public void process(Message request, WriteProxy writeProxy) {
+        HttpHeaders httpHeaders = (HttpHeaders)request.metaData;
+        PathParameters pathParameters = this.pathParameters.get();
+        pathParameters.clear();
+
+        Node node =
+            match(this.root, request.sharedArray, httpHeaders.pathStartIndex, httpHeaders.pathEndIndex, pathParameters);
+        if (node == null) {
+            pathParameters.clear();
+            this.notFoundHandler.handle(request, httpHeaders, pathParameters, writeProxy);
+            return;
+        }
+
+        Route route = httpHeaders.httpMethod > 0 && httpHeaders.httpMethod < METHOD_COUNT
+            ? node.routes[httpHeaders.httpMethod] : null;
+        if (route == null) {
+            route = node.routes[ANY_METHOD];
+        }
+        if (route == null) {
+            pathParameters.clear();
+            this.methodNotAllowedHandler.handle(request, httpHeaders, pathParameters, writeProxy);
+            return;
+        }
+
+        pathParameters.setNames(route.parameterNames);
+        route.handler.handle(request, httpHeaders, pathParameters, writeProxy);
+    }
+
+    /**
+     * Matches the path from index to endIndex against the routes below node. Literal bytes are followed without
+     * recursion - only a node with a parameter child is a point to backtrack to.
+     *
+     * @return the node of the matched route, or null.
+     */
+    private static Node match(Node node, byte[] src, int index, int endIndex, PathParameters pathParameters) {
+        while (node.parameterChild == null) {
+            if (index == endIndex) {
+                return node.routes != null ? node : null;
+            }
+            node = node.getChild(src[index++]);
+            if (node == null) {
+                return null;
+            }
+        }
+
+        if (index == endIndex) {
+            return node.routes != null ? node : null;
+        }
+
+        // literal bytes first
+        Node child = node.getChild(src[index]);
+        if (child != null) {
+            Node found = match(child, src, index + 1, endIndex, pathParameters);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        // then the parameter, which takes the rest of the segment
+        int endOfSegment = HttpUtil.findNext(src, index, endIndex, (byte)'/');
+        if (endOfSegment == -1) {
+            endOfSegment = endIndex;
+        }
+        if (endOfSegment == index) {
+            return null; // empty segment
+        }
+
+        int count = pathParameters.size();
+        pathParameters.push(index, endOfSegment);
+        Node found = match(node.parameterChild, src, endOfSegment, endIndex, pathParameters);
+        if (found == null) {
+            pathParameters.truncate(count);
+        }
+        return found;
+    }
+
+    private static class Node {
+        byte[] childBytes = new byte[0];
+        Node[] children = new Node[0];
+        Node parameterChild = null;
+
+        Route[] routes = null; // by http method - null if no route ends here.
+
+        Node getChild(byte b) {
+            byte[] childBytes = this.childBytes;
+            for (int i = 0; i < childBytes.length; i++) {
+                if (childBytes[i] == b) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(byte b) {
+            Node child = getChild(b);
+            if (child != null) {
+                return child;
+            }
+            int count = this.childBytes.length;
+            byte[] childBytes = new byte[count + 1];
+            Node[] children = new Node[count + 1];
+            System.arraycopy(this.childBytes, 0, childBytes, 0, count);
+            System.arraycopy(this.children, 0, children, 0, count);
+            childBytes[count] = b;
+            children[count] = child = new Node();
+            this.childBytes = childBytes;
+            this.children = children;
+            return child;
+        }
+    }
+
+    private static class Route {
+        final IHttpRequestHandler handler;
+        final String[] parameterNames;
+
+        Route(IHttpRequestHandler handler, String[] parameterNames) {
+            this.handler = handler;
+            this.parameterNames = parameterNames;
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The response statuses, each with its status line encoded once.
+ *
+ * @author chenyuchuan
+ */
+public enum HttpStatus {
+
+    OK(200, "OK"),
+    CREATED(201, "Created"),
+    NO_CONTENT(204, "No Content"),
+    PARTIAL_CONTENT(206, "Partial Content"),
+    MOVED_PERMANENTLY(301, "Moved Permanently"),
+    NOT_MODIFIED(304, "Not Modified"),
+    BAD_REQUEST(400, "Bad Request"),
+    FORBIDDEN(403, "Forbidden"),
+    NOT_FOUND(404, "Not Found"),
+    METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+    PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
+    INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
+    SERVICE_UNAVAILABLE(503, "Service Unavailable");
+
+    public final int code;
+    public final String reasonPhrase;
+
+    final byte[] statusLine; // "HTTP/1.1 200 OK\r\n"
+    final boolean hasBody; // false for 1xx, 204 and 304 - no body, and no Content-Length either.
+
+    HttpStatus(int code, String reasonPhrase) {
+        this.code = code;
+        this.reasonPhrase = reasonPhrase;
+        this.statusLine = ("HTTP/1.1 " + code + " " + reasonPhrase + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.hasBody = code >= 200 && code != 204 && code != 304;
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.cyc.demo1.niodemo.http;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author chenyuchuan
@@ -13,121 +16,318 @@ public class HttpUtil {
     private static final byte[] HEAD = new byte[] {'H', 'E', 'A', 'D'};
     private static final byte[] DELETE = new byte[] {'D', 'E', 'L', 'E', 'T', 'E'};
 
-    private static final byte[] HOST = new byte[] {'H', 'o', 's', 't'};
+    // header names in lower case, as header names are matched ignoring case.
+    private static final byte[] HOST = new byte[] {'h', 'o', 's', 't'};
     private static final byte[] CONTENT_LENGTH =
-        new byte[] {'C', 'o', 'n', 't', 'e', 'n', 't', '-', 'L', 'e', 'n', 'g', 't', 'h'};
+        new byte[] {'c', 'o', 'n', 't', 'e', 'n', 't', '-', 'l', 'e', 'n', 'g', 't', 'h'};
+    private static final byte[] CONNECTION = new byte[] {'c', 'o', 'n', 'n', 'e', 'c', 't', 'i', 'o', 'n'};
+    private static final byte[] TRANSFER_ENCODING =
+        new byte[] {'t', 'r', 'a', 'n', 's', 'f', 'e', 'r', '-', 'e', 'n', 'c', 'o', 'd', 'i', 'n', 'g'};
 
-    public static int parseHttpRequest(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders) {
+    private static final byte[] HTTP_1_0 = new byte[] {'H', 'T', 'T', 'P', '/', '1', '.', '0'};
+    private static final byte[] CLOSE = new byte[] {'c', 'l', 'o', 's', 'e'};
+    private static final byte[] KEEP_ALIVE = new byte[] {'k', 'e', 'e', 'p', '-', 'a', 'l', 'i', 'v', 'e'};
+    private static final byte[] CHUNKED = new byte[] {'c', 'h', 'u', 'n', 'k', 'e', 'd'};
 
-        /*
-        int endOfHttpMethod = findNext(src, startIndex, endIndex, (byte) ' ');
-        if(endOfHttpMethod == -1) return false;
-        resolveHttpMethod(src, startIndex, httpHeaders);
-        */
+    // the scanning methods test 8 bytes at a time, read as one little endian long through a ByteBuffer - which the JIT
+    // compiles to a single bounds checked load.
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    // per thread, the little endian views of the last arrays scanned, in a slot by array identity. The arrays are the
+    // slabs of the read MessageBuffer, so a thread wraps each slab once and then scans without allocating.
+    private static final int WORD_VIEW_SLOTS = 8;
+    private static final ThreadLocal<ByteBuffer[]> WORD_VIEWS =
+        ThreadLocal.withInitial(() -> new ByteBuffer[WORD_VIEW_SLOTS]);
+
+    /**
+     * Parses a complete HTTP request - request line, headers and body.
+     *
+     * @return the index after the request, or -1 if the request is not complete yet.
+     * @throws IOException
+     *             if the request has a malformed chunked body.
+     */
+    public static int parseHttpRequest(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders)
+        throws IOException {
+        return parseHttpRequest(src, startIndex, endIndex, httpHeaders, null);
+    }
+
+    /**
+     * Same as {@link #parseHttpRequest(byte[], int, int, HttpHeaders)}, but finds the end of a chunked body with the
+     * given decoder - so a reader which parses many requests does not allocate a decoder for each of them.
+     *
+     * @param chunkedDecoder
+     *            reset and run over a chunked body. null to create one when the body is chunked.
+     */
+    public static int parseHttpRequest(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders,
+        ChunkedDecoder chunkedDecoder) throws IOException {
+        int bodyStartIndex = parseHttpHeaders(src, startIndex, endIndex, httpHeaders);
+        if (bodyStartIndex == -1) {
+            return -1;
+        }
+        return parseHttpBody(src, bodyStartIndex, endIndex, httpHeaders, chunkedDecoder);
+    }
+
+    /**
+     * Finds the end of the body of a request whose headers were parsed by
+     * {@link #parseHttpHeaders(byte[], int, int, HttpHeaders)}.
+     *
+     * @param chunkedDecoder
+     *            reset and run over a chunked body. null to create one when the body is chunked.
+     * @return the index after the request, or -1 if the body is not complete yet.
+     * @throws IOException
+     *             if the request has a malformed chunked body.
+     */
+    public static int parseHttpBody(byte[] src, int bodyStartIndex, int endIndex, HttpHeaders httpHeaders,
+        ChunkedDecoder chunkedDecoder) throws IOException {
+        if (httpHeaders.chunked) {
+            // the body ends with the last chunk - run a decoder over it to find the end. The chunks are not decoded.
+            if (chunkedDecoder == null) {
+                chunkedDecoder = new ChunkedDecoder();
+            } else {
+                chunkedDecoder.reset();
+            }
+            int bodyEndIndex = chunkedDecoder.decode(src, bodyStartIndex, endIndex, null);
+            if (chunkedDecoder.isComplete()) {
+                httpHeaders.bodyStartIndex = bodyStartIndex;
+                httpHeaders.bodyEndIndex = bodyEndIndex;
+                return bodyEndIndex;
+            }
+            return -1;
+        }
+
+        // check that byte array contains full HTTP message.
+        int bodyEndIndex = bodyStartIndex + httpHeaders.contentLength;
+
+        if (bodyEndIndex <= endIndex) {
+            // byte array contains a full HTTP request
+            httpHeaders.bodyStartIndex = bodyStartIndex;
+            httpHeaders.bodyEndIndex = bodyEndIndex;
+            return bodyEndIndex;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses the request line and the headers of an HTTP request, but not the body. Every header is recorded in the
+     * header table of httpHeaders.
+     *
+     * @return the index of the first body byte, or -1 if the headers are not complete yet.
+     * @throws IOException
+     *             if the Content-Length is not a number.
+     */
+    public static int parseHttpHeaders(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders)
+        throws IOException {
+        httpHeaders.clear();
+        ByteBuffer words = wordView(src); // looked up once, for all scans of the request.
 
         // parse HTTP request line
-        int endOfFirstLine = findNextLineBreak(src, startIndex, endIndex);
+        int endOfFirstLine = findNextLineBreak(src, words, startIndex, endIndex);
         if (endOfFirstLine == -1)
             return -1;
 
+        parseRequestLine(src, words, startIndex, endOfFirstLine - 1, httpHeaders);
+
         // parse HTTP headers
         int prevEndOfHeader = endOfFirstLine + 1;
-        int endOfHeader = findNextLineBreak(src, prevEndOfHeader, endIndex);
+        int endOfHeader = findNextLineBreak(src, words, prevEndOfHeader, endIndex);
 
         while (endOfHeader != -1 && endOfHeader != prevEndOfHeader + 1) { // prevEndOfHeader + 1 = end of previous
                                                                           // header + 2 (+2 = CR + LF)
-
-            if (matches(src, prevEndOfHeader, CONTENT_LENGTH)) {
-                try {
-                    findContentLength(src, prevEndOfHeader, endIndex, httpHeaders);
-                } catch (UnsupportedEncodingException e) {
-                    e.printStackTrace();
-                }
-            }
+            parseHeader(src, words, prevEndOfHeader, endOfHeader - 1, httpHeaders);
 
             prevEndOfHeader = endOfHeader + 1;
-            endOfHeader = findNextLineBreak(src, prevEndOfHeader, endIndex);
+            endOfHeader = findNextLineBreak(src, words, prevEndOfHeader, endIndex);
         }
 
         if (endOfHeader == -1) {
             return -1;
         }
 
-        // check that byte array contains full HTTP message.
-        int bodyStartIndex = endOfHeader + 1;
-        int bodyEndIndex = bodyStartIndex + httpHeaders.contentLength;
+        return endOfHeader + 1;
+    }
 
-        if (bodyEndIndex <= endIndex) {
-            // byte array contains a full HTTP request
-            httpHeaders.bodyStartIndex = bodyStartIndex;
-            httpHeaders.bodyEndIndex = bodyEndIndex;
-            return bodyEndIndex;
+    /**
+     * Parses "METHOD /path?query HTTP/1.1". endIndex is the index of the CR.
+     */
+    private static void parseRequestLine(byte[] src, ByteBuffer words, int startIndex, int endIndex,
+        HttpHeaders httpHeaders) {
+        resolveHttpMethod(src, startIndex, httpHeaders);
+
+        // the request line ends with the HTTP version - "HTTP/1.0\r\n".
+        int versionIndex = endIndex - HTTP_1_0.length;
+        httpHeaders.keepAlive = versionIndex < startIndex || !matches(src, versionIndex, HTTP_1_0);
+
+        int endOfHttpMethod = findNext(src, words, startIndex, endIndex, (byte)' ');
+        if (endOfHttpMethod == -1) {
+            return;
         }
 
-        return -1;
+        int targetStartIndex = endOfHttpMethod + 1;
+        int targetEndIndex = findNext(src, words, targetStartIndex, endIndex, (byte)' ');
+        if (targetEndIndex == -1) {
+            targetEndIndex = endIndex; // no HTTP version.
+        }
+
+        int indexOfQuestionMark = findNext(src, words, targetStartIndex, targetEndIndex, (byte)'?');
+        httpHeaders.pathStartIndex = targetStartIndex;
+        if (indexOfQuestionMark == -1) {
+            httpHeaders.pathEndIndex = targetEndIndex;
+            httpHeaders.queryStartIndex = targetEndIndex;
+        } else {
+            httpHeaders.pathEndIndex = indexOfQuestionMark;
+            httpHeaders.queryStartIndex = indexOfQuestionMark + 1;
+        }
+        httpHeaders.queryEndIndex = targetEndIndex;
     }
 
-    private static void findContentLength(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders)
-        throws UnsupportedEncodingException {
-        int indexOfColon = findNext(src, startIndex, endIndex, (byte)':');
-
-        // skip spaces after colon
-        int index = indexOfColon + 1;
-        while (src[index] == ' ') {
-            index++;
-        }
-
-        int valueStartIndex = index;
-        int valueEndIndex = index;
-        boolean endOfValueFound = false;
-
-        while (index < endIndex && !endOfValueFound) {
-            switch (src[index]) {
-                case '0':;
-                case '1':;
-                case '2':;
-                case '3':;
-                case '4':;
-                case '5':;
-                case '6':;
-                case '7':;
-                case '8':;
-                case '9': {
-                    index++;
-                    break;
-                }
-
-                default: {
-                    endOfValueFound = true;
-                    valueEndIndex = index;
-                }
+    /**
+     * Records one "Name: value" header line in the header table. endIndex is the index of the CR.
+     */
+    private static void parseHeader(byte[] src, ByteBuffer words, int startIndex, int endIndex,
+        HttpHeaders httpHeaders) throws IOException {
+        int indexOfColon = findNext(src, words, startIndex, endIndex, (byte)':');
+        if (indexOfColon == -1) {
+            return; // not a header - ignored.
+        }
+
+        // trim the spaces around the value
+        int valueStartIndex = indexOfColon + 1;
+        while (valueStartIndex < endIndex && isWhitespace(src[valueStartIndex])) {
+            valueStartIndex++;
+        }
+        int valueEndIndex = endIndex;
+        while (valueEndIndex > valueStartIndex && isWhitespace(src[valueEndIndex - 1])) {
+            valueEndIndex--;
+        }
+
+        httpHeaders.addHeader(startIndex, indexOfColon, valueStartIndex, valueEndIndex);
+
+        // the headers the server itself needs.
+        int nameLength = indexOfColon - startIndex;
+        if (nameLength == CONTENT_LENGTH.length && matchesIgnoreCase(src, startIndex, indexOfColon, CONTENT_LENGTH)) {
+            long contentLength = parseLong(src, valueStartIndex, valueEndIndex);
+            if (contentLength == -1 || contentLength > Integer.MAX_VALUE) {
+                throw new IOException("invalid Content-Length: "
+                    + new String(src, valueStartIndex, valueEndIndex - valueStartIndex, StandardCharsets.ISO_8859_1));
+            }
+            httpHeaders.contentLength = (int)contentLength;
+        } else if (nameLength == CONNECTION.length && matchesIgnoreCase(src, startIndex, indexOfColon, CONNECTION)) {
+            if (matchesIgnoreCase(src, valueStartIndex, valueEndIndex, CLOSE)) {
+                httpHeaders.keepAlive = false;
+            } else if (matchesIgnoreCase(src, valueStartIndex, valueEndIndex, KEEP_ALIVE)) {
+                httpHeaders.keepAlive = true;
             }
+        } else if (nameLength == TRANSFER_ENCODING.length
+            && matchesIgnoreCase(src, startIndex, indexOfColon, TRANSFER_ENCODING)) {
+            // the body is chunked if chunked is the last encoding - e.g. "gzip, chunked".
+            httpHeaders.chunked = valueEndIndex - valueStartIndex >= CHUNKED.length
+                && matchesIgnoreCase(src, valueEndIndex - CHUNKED.length, valueEndIndex, CHUNKED);
+        } else if (nameLength == HOST.length && matchesIgnoreCase(src, startIndex, indexOfColon, HOST)) {
+            httpHeaders.hostStartIndex = valueStartIndex;
+            httpHeaders.hostEndIndex = valueEndIndex;
         }
+    }
 
-        httpHeaders.contentLength =
-            Integer.parseInt(new String(src, valueStartIndex, valueEndIndex - valueStartIndex, "UTF-8"));
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
 
+    /**
+     * Parses a non-negative decimal number without creating a String.
+     *
+     * @return the number, or -1 if the bytes are empty, contain anything but digits, or overflow a long.
+     */
+    public static long parseLong(byte[] src, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return -1;
+        }
+        long value = 0;
+        for (int index = startIndex; index < endIndex; index++) {
+            int digit = src[index] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
     }
 
+    /**
+     * @return the index of the first byte between startIndex and endIndex which equals value, or -1.
+     */
     public static int findNext(byte[] src, int startIndex, int endIndex, byte value) {
-        for (int index = startIndex; index < endIndex; index++) {
+        return findNext(src, wordView(src), startIndex, endIndex, value);
+    }
+
+    /**
+     * Same as {@link #findNext(byte[], int, int, byte)}, with the view of src from {@link #wordView(byte[])} - for
+     * callers which scan the same array many times.
+     */
+    public static int findNext(byte[] src, ByteBuffer words, int startIndex, int endIndex, byte value) {
+        long pattern = ONES * (value & 0xFF);
+
+        int index = startIndex;
+        for (; index <= endIndex - 8; index += 8) {
+            // the bytes which equal value become zero, and hasZeroByte() marks them.
+            long found = hasZeroByte(words.getLong(index) ^ pattern);
+            if (found != 0) {
+                return index + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; index < endIndex; index++) {
             if (src[index] == value)
                 return index;
         }
         return -1;
     }
 
+    /**
+     * @return a little endian view of src - the byte at index is the lowest byte of getLong(index). The view is cached
+     *         per thread, so scanning the same arrays over and over - the slabs of a MessageBuffer - does not allocate.
+     */
+    public static ByteBuffer wordView(byte[] src) {
+        ByteBuffer[] views = WORD_VIEWS.get();
+        int slot = System.identityHashCode(src) & (WORD_VIEW_SLOTS - 1);
+        ByteBuffer view = views[slot];
+        if (view == null || view.array() != src) {
+            view = ByteBuffer.wrap(src).order(ByteOrder.LITTLE_ENDIAN);
+            views[slot] = view;
+        }
+        return view;
+    }
+
+    /**
+     * @return the index of the LF of the first CR LF between startIndex and endIndex, or -1.
+     */
     public static int findNextLineBreak(byte[] src, int startIndex, int endIndex) {
-        for (int index = startIndex; index < endIndex; index++) {
-            if (src[index] == '\n') {
-                if (src[index - 1] == '\r') {
-                    return index;
-                }
-            } ;
+        return findNextLineBreak(src, wordView(src), startIndex, endIndex);
+    }
+
+    /**
+     * Same as {@link #findNextLineBreak(byte[], int, int)}, with the view of src from {@link #wordView(byte[])}.
+     */
+    public static int findNextLineBreak(byte[] src, ByteBuffer words, int startIndex, int endIndex) {
+        // the CR must be inside the range too - the LF can be at startIndex + 1 at the earliest.
+        int index = findNext(src, words, startIndex + 1, endIndex, (byte)'\n');
+        while (index != -1) {
+            if (src[index - 1] == '\r') {
+                return index;
+            }
+            index = findNext(src, words, index + 1, endIndex, (byte)'\n');
         }
         return -1;
     }
 
+    /**
+     * The SWAR (SIMD within a register) zero byte test: the lowest set bit of the result is the high bit of the
+     * lowest zero byte in word. Bytes above the first zero byte may be marked falsely, so only the lowest mark counts.
+     */
+    private static long hasZeroByte(long word) {
+        return (word - ONES) & ~word & HIGH_BITS;
+    }
+
     public static void resolveHttpMethod(byte[] src, int startIndex, HttpHeaders httpHeaders) {
         if (matches(src, startIndex, GET)) {
             httpHeaders.httpMethod = HttpHeaders.HTTP_METHOD_GET;
@@ -151,6 +351,25 @@ public class HttpUtil {
         }
     }
 
+    /**
+     * @param lowerCaseValue
+     *            the value to match, in lower case.
+     */
+    public static boolean matchesIgnoreCase(byte[] src, int offset, int endIndex, byte[] lowerCaseValue) {
+        if (endIndex - offset < lowerCaseValue.length) {
+            return false;
+        }
+        for (int i = offset, n = 0; n < lowerCaseValue.length; i++, n++) {
+            byte b = src[i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseValue[n])
+                return false;
+        }
+        return true;
+    }
+
     public static boolean matches(byte[] src, int offset, byte[] value) {
         for (int i = offset, n = 0; n < value.length; i++, n++) {
             if (src[i] != value[n])
@@ -0,0 +1,25 @@
+package com.cyc.demo1.niodemo.http;
+
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.WriteProxy;
+
+/**
+ * Handles the requests of one route of a {@link HttpRouter}.
+ *
+ * @author chenyuchuan
+ */
+public interface IHttpRequestHandler {
+
+    /**
+     * @param request
+     *            the request message. The same rules apply as for {@link com.cyc.demo1.niodemo.IMessageProcessor} -
+     *            it is released when handle() returns.
+     * @param httpHeaders
+     *            the parsed headers of the request - request.metaData.
+     * @param pathParameters
+     *            the path parameters captured by the route. Only valid during the call.
+     */
+    public void handle(Message request, HttpHeaders httpHeaders, PathParameters pathParameters,
+        WriteProxy writeProxy);
+
+}
@@ -0,0 +1,75 @@
+package com.cyc.demo1.niodemo.http;
+
+/**
+ * The path parameters a {@link HttpRouter} route captured - e.g. id in "/orders/{id}". A parameter is recorded as the
+ * start and end index of its value in the array of the request message, so capturing it creates no String.
+ *
+ * @author chenyuchuan
+ */
+public class PathParameters {
+
+    private String[] names = null; // the parameter names of the matched route, in path order.
+    private int[] indices = new int[16]; // start and end index of each captured value.
+    private int count = 0;
+
+    public PathParameters() {}
+
+    void clear() {
+        this.names = null;
+        this.count = 0;
+    }
+
+    void setNames(String[] names) {
+        this.names = names;
+    }
+
+    /**
+     * Captures the next parameter value.
+     */
+    void push(int startIndex, int endIndex) {
+        if (this.count * 2 == this.indices.length) {
+            int[] indices = new int[this.indices.length * 2];
+            System.arraycopy(this.indices, 0, indices, 0, this.indices.length);
+            this.indices = indices;
+        }
+        this.indices[this.count * 2] = startIndex;
+        this.indices[this.count * 2 + 1] = endIndex;
+        this.count++;
+    }
+
+    /**
+     * Drops the most recent captures again, when the router backtracks.
+     */
+    void truncate(int count) {
+        this.count = count;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public String getName(int parameter) {
+        return this.names[parameter];
+    }
+
+    /**
+     * @return the number of the parameter with the given name, or -1.
+     */
+    public int indexOf(String name) {
+        for (int parameter = 0; parameter < this.count; parameter++) {
+            if (this.names[parameter].equals(name)) {
+                return parameter;
+            }
+        }
+        return -1;
+    }
+
+    public int getStartIndex(int parameter) {
+        return this.indices[parameter * 2];
+    }
+
+    public int getEndIndex(int parameter) {
+        return this.indices[parameter * 2 + 1];
+    }
+
+}
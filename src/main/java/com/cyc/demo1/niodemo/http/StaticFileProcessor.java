@@ -0,0 +1,211 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cyc.demo1.niodemo.FileRegion;
+import com.cyc.demo1.niodemo.IMessageProcessor;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.WriteProxy;
+
+/**
+ * Serves the files below a root directory. Only the response headers go through the write MessageBuffer - the file
+ * itself is attached to the response as a {@link FileRegion}, which the MessageWriter sends with
+ * FileChannel.transferTo(), so the file content never enters the JVM heap.
+ *
+ * Supports GET and HEAD, and single byte ranges ("Range: bytes=0-99", "bytes=100-" and "bytes=-100"). A request for
+ * several ranges gets the whole file. Can be used as the IMessageProcessor of a server, or as a route handler of a
+ * {@link HttpRouter} - e.g. for "/files/{name}" with urlPrefix "/files/".
+ *
+ * @author chenyuchuan
+ */
+public class StaticFileProcessor implements IMessageProcessor, IHttpRequestHandler {
+
+    private static final byte[] RANGE = new byte[] {'r', 'a', 'n', 'g', 'e'};
+    private static final byte[] BYTES_UNIT = new byte[] {'b', 'y', 't', 'e', 's', '='};
+
+    private static final byte[] ACCEPT_RANGES_BYTES = HttpResponse.headerLine("Accept-Ranges", "bytes");
+
+    // returned by parseByteRange() for a range which lies outside the file.
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private static final Map<String, byte[]> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", HttpResponse.CONTENT_TYPE_TEXT_HTML);
+        CONTENT_TYPES.put("txt", HttpResponse.CONTENT_TYPE_TEXT_PLAIN);
+        CONTENT_TYPES.put("json", HttpResponse.CONTENT_TYPE_JSON);
+        CONTENT_TYPES.put("gz", HttpResponse.headerLine("Content-Type", "application/gzip"));
+        CONTENT_TYPES.put("zip", HttpResponse.headerLine("Content-Type", "application/zip"));
+        CONTENT_TYPES.put("tar", HttpResponse.headerLine("Content-Type", "application/x-tar"));
+    }
+
+    private Path rootDirectory = null;
+    private byte[] urlPrefix = null;
+
+    /**
+     * @param rootDirectory
+     *            the directory the files are served from.
+     * @param urlPrefix
+     *            the part of the request path before the file path, e.g. "/files/".
+     */
+    public StaticFileProcessor(Path rootDirectory, String urlPrefix) {
+        this.rootDirectory = rootDirectory.toAbsolutePath().normalize();
+        this.urlPrefix = urlPrefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void process(Message request, WriteProxy writeProxy) {
+        handle(request, (HttpHeaders)request.metaData, null, writeProxy);
+    }
+
+    @Override
+    public void handle(Message request, HttpHeaders httpHeaders, PathParameters pathParameters,
+        WriteProxy writeProxy) {
+        boolean head = httpHeaders.httpMethod == HttpHeaders.HTTP_METHOD_HEAD;
+        if (httpHeaders.httpMethod != HttpHeaders.HTTP_METHOD_GET && !head) {
+            HttpResponse.start(writeProxy, request, HttpStatus.METHOD_NOT_ALLOWED).send();
+            return;
+        }
+
+        Path file = resolve(request.sharedArray, httpHeaders.pathStartIndex, httpHeaders.pathEndIndex);
+        if (file == null || !Files.isRegularFile(file) || !Files.isReadable(file)) {
+            HttpResponse.start(writeProxy, request, HttpStatus.NOT_FOUND).send();
+            return;
+        }
+
+        FileChannel fileChannel = null;
+        try {
+            fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+            long fileSize = fileChannel.size();
+
+            long firstBytePosition = 0;
+            long lastBytePosition = fileSize - 1;
+            HttpStatus status = HttpStatus.OK;
+
+            int range = httpHeaders.findHeader(request.sharedArray, RANGE);
+            if (range != -1) {
+                long[] byteRange = parseByteRange(request.sharedArray, httpHeaders.getValueStartIndex(range),
+                    httpHeaders.getValueEndIndex(range), fileSize);
+                if (byteRange == UNSATISFIABLE) {
+                    HttpResponse.start(writeProxy, request, HttpStatus.RANGE_NOT_SATISFIABLE)
+                        .unsatisfiedContentRange(fileSize).send();
+                    return;
+                }
+                if (byteRange != null) {
+                    firstBytePosition = byteRange[0];
+                    lastBytePosition = byteRange[1];
+                    status = HttpStatus.PARTIAL_CONTENT;
+                }
+            }
+            long contentLength = lastBytePosition - firstBytePosition + 1;
+
+            HttpResponse response = HttpResponse.start(writeProxy, request, status).header(contentType(file))
+                .header(ACCEPT_RANGES_BYTES);
+            if (status == HttpStatus.PARTIAL_CONTENT) {
+                response.contentRange(firstBytePosition, lastBytePosition, fileSize);
+            }
+
+            Message message = response.endHeaders(contentLength);
+            if (message != null && !head) {
+                // from here on the message owns the file channel - it is closed when the message is released.
+                message.fileRegion = new FileRegion(fileChannel, firstBytePosition, contentLength);
+                fileChannel = null;
+            }
+            response.enqueue();
+        } catch (IOException e) {
+            e.printStackTrace();
+            HttpResponse.start(writeProxy, request, HttpStatus.INTERNAL_SERVER_ERROR).send();
+        } finally {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file the request path points to, or null if the path is not below the url prefix, or leads out of
+     *         the root directory.
+     */
+    private Path resolve(byte[] src, int pathStartIndex, int pathEndIndex) {
+        if (pathEndIndex - pathStartIndex <= this.urlPrefix.length
+            || !HttpUtil.matches(src, pathStartIndex, this.urlPrefix)) {
+            return null;
+        }
+        int startIndex = pathStartIndex + this.urlPrefix.length;
+        String relativePath = new String(src, startIndex, pathEndIndex - startIndex, StandardCharsets.UTF_8);
+
+        try {
+            Path file = this.rootDirectory.resolve(relativePath).normalize();
+            return file.startsWith(this.rootDirectory) ? file : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static byte[] contentType(Path file) {
+        String fileName = file.getFileName().toString();
+        byte[] contentType = CONTENT_TYPES.get(fileName.substring(fileName.lastIndexOf('.') + 1));
+        return contentType != null ? contentType : HttpResponse.CONTENT_TYPE_OCTET_STREAM;
+    }
+
+    /**
+     * Parses the value of a Range header.
+     *
+     * @return the first and the last byte position, UNSATISFIABLE if the range lies outside the file, or null if the
+     *         header is to be ignored - it is malformed, asks for several ranges, or not for bytes.
+     */
+    static long[] parseByteRange(byte[] src, int startIndex, int endIndex, long fileSize) {
+        if (!HttpUtil.matchesIgnoreCase(src, startIndex, endIndex, BYTES_UNIT)) {
+            return null;
+        }
+        startIndex += BYTES_UNIT.length;
+        if (HttpUtil.findNext(src, startIndex, endIndex, (byte)',') != -1) {
+            return null;
+        }
+        int indexOfDash = HttpUtil.findNext(src, startIndex, endIndex, (byte)'-');
+        if (indexOfDash == -1) {
+            return null;
+        }
+
+        long firstBytePosition;
+        long lastBytePosition;
+        if (indexOfDash == startIndex) {
+            // "-100": the last 100 bytes
+            long suffixLength = HttpUtil.parseLong(src, indexOfDash + 1, endIndex);
+            if (suffixLength == -1) {
+                return null;
+            }
+            if (suffixLength == 0 || fileSize == 0) {
+                return UNSATISFIABLE;
+            }
+            firstBytePosition = Math.max(0, fileSize - suffixLength);
+            lastBytePosition = fileSize - 1;
+        } else {
+            // "100-" up to the end of the file, or "100-199"
+            firstBytePosition = HttpUtil.parseLong(src, startIndex, indexOfDash);
+            lastBytePosition =
+                indexOfDash + 1 == endIndex ? Long.MAX_VALUE : HttpUtil.parseLong(src, indexOfDash + 1, endIndex);
+            if (firstBytePosition == -1 || lastBytePosition == -1 || lastBytePosition < firstBytePosition) {
+                return null;
+            }
+            if (firstBytePosition >= fileSize) {
+                return UNSATISFIABLE;
+            }
+            lastBytePosition = Math.min(lastBytePosition, fileSize - 1);
+        }
+        return new long[] {firstBytePosition, lastBytePosition};
+    }
+
+}
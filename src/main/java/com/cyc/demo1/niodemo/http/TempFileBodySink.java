@@ -0,0 +1,75 @@
+package com.cyc.demo1.niodemo.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Spills a request body to a temporary file, so a large upload takes constant memory per connection. The message
+ * processor reads the body from {@link #getFile()} and is responsible for deleting the file when it is done with it.
+ *
+ * @author chenyuchuan
+ */
+public class TempFileBodySink implements HttpBodySink {
+
+    /**
+     * A factory which spills every streamed body to a temporary file.
+     */
+    public static final HttpBodySinkFactory FACTORY = httpHeaders -> new TempFileBodySink();
+
+    private Path file = null;
+    private FileChannel fileChannel = null;
+    private long length = 0;
+
+    public TempFileBodySink() throws IOException {
+        this.file = Files.createTempFile("nio-body-", ".tmp");
+        this.fileChannel = FileChannel.open(this.file, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(src, offset, length);
+        while (byteBuffer.hasRemaining()) {
+            this.fileChannel.write(byteBuffer);
+        }
+        this.length += length;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        this.fileChannel.close();
+    }
+
+    @Override
+    public void abort() {
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        delete();
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return the number of body bytes written to the file.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.cyc.demo1.niodemo.load;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.cyc.demo1.niodemo.LatencyHistogram;
+import com.cyc.demo1.niodemo.http.HttpUtil;
+
+/**
+ * One connection of a {@link LoadGenerator}: the requests written to it, and the start times of the requests which
+ * are still waiting for their responses. The responses arrive in the order of the requests, so the start times are a
+ * FIFO ring. Only touched by the thread of its selector.
+ *
+ * The responses must have a Content-Length - the responses of Server and NioServer do.
+ *
+ * @author chenyuchuan
+ */
+class LoadConnection {
+
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    SocketChannel socketChannel = null;
+    SelectionKey selectionKey = null;
+
+    private ByteBuffer writeBuffer = null; // in read mode - holds the bytes not written yet.
+    private ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024); // in write mode.
+
+    private long[] startTimes = null;
+    private int startTimesHead = 0;
+    private int outstanding = 0;
+
+    long nextSendTime = 0; // open loop only - the time the next request is due, in System.nanoTime().
+    int nextTemplate = 0;
+
+    long non2xxResponses = 0;
+
+    LoadConnection(SocketChannel socketChannel, int pipelineDepth, int maxRequestLength) {
+        this.socketChannel = socketChannel;
+        this.startTimes = new long[pipelineDepth];
+        this.writeBuffer = ByteBuffer.allocate(pipelineDepth * maxRequestLength);
+        this.writeBuffer.flip();
+    }
+
+    boolean canSend() {
+        return this.outstanding < this.startTimes.length;
+    }
+
+    /**
+     * Queues the request and writes as much as the socket takes.
+     *
+     * @param startTime
+     *            the time the latency of the request counts from - when it was sent in a closed loop, when it was due
+     *            in an open loop.
+     */
+    void send(byte[] request, long startTime) throws IOException {
+        this.writeBuffer.compact();
+        this.writeBuffer.put(request);
+        this.writeBuffer.flip();
+
+        this.startTimes[(this.startTimesHead + this.outstanding) % this.startTimes.length] = startTime;
+        this.outstanding++;
+
+        flush();
+    }
+
+    void flush() throws IOException {
+        this.socketChannel.write(this.writeBuffer);
+
+        int interestOps = SelectionKey.OP_READ | (this.writeBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+        if (this.selectionKey.interestOps() != interestOps) {
+            this.selectionKey.interestOps(interestOps);
+        }
+    }
+
+    /**
+     * Reads the responses which have arrived, and records their latency.
+     *
+     * @param recordFrom
+     *            only the requests which started at or after this time are recorded - the others belong to the
+     *            warmup.
+     * @return the number of responses recorded.
+     */
+    int read(long now, LatencyHistogram histogram, long recordFrom) throws IOException {
+        if (!this.readBuffer.hasRemaining()) {
+            // a response larger than the buffer.
+            ByteBuffer readBuffer = ByteBuffer.allocate(this.readBuffer.capacity() * 2);
+            this.readBuffer.flip();
+            readBuffer.put(this.readBuffer);
+            this.readBuffer = readBuffer;
+        }
+        if (this.socketChannel.read(this.readBuffer) == -1) {
+            throw new EOFException("connection closed by the server");
+        }
+
+        byte[] src = this.readBuffer.array();
+        int index = 0;
+        int recorded = 0;
+        int endIndex = parseResponse(src, index, this.readBuffer.position());
+        while (endIndex != -1) {
+            if (this.outstanding == 0) {
+                throw new IOException("response without a request");
+            }
+            long startTime = this.startTimes[this.startTimesHead];
+            this.startTimesHead = (this.startTimesHead + 1) % this.startTimes.length;
+            this.outstanding--;
+
+            if (startTime >= recordFrom) {
+                histogram.recordValue(now - startTime);
+                recorded++;
+                if (src[index + 9] != '2') { // "HTTP/1.1 200"
+                    this.non2xxResponses++;
+                }
+            }
+
+            index = endIndex;
+            endIndex = parseResponse(src, index, this.readBuffer.position());
+        }
+
+        if (index > 0) {
+            this.readBuffer.flip();
+            this.readBuffer.position(index);
+            this.readBuffer.compact();
+        }
+        return recorded;
+    }
+
+    void close() {
+        try {
+            this.socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the index after the HTTP response which starts at startIndex, or -1 if it is not complete yet.
+     */
+    static int parseResponse(byte[] src, int startIndex, int endIndex) throws IOException {
+        long contentLength = 0;
+        int index = startIndex;
+        while (true) {
+            int lineBreak = HttpUtil.findNextLineBreak(src, index, endIndex);
+            if (lineBreak == -1) {
+                return -1;
+            }
+            int lineEndIndex = lineBreak - 1;
+            if (lineEndIndex == index) {
+                // the empty line after the headers.
+                long responseEndIndex = lineBreak + 1 + contentLength;
+                return responseEndIndex <= endIndex ? (int)responseEndIndex : -1;
+            }
+
+            if (HttpUtil.matchesIgnoreCase(src, index, lineEndIndex, CONTENT_LENGTH)) {
+                int valueStartIndex = index + CONTENT_LENGTH.length;
+                while (valueStartIndex < lineEndIndex && src[valueStartIndex] == ' ') {
+                    valueStartIndex++;
+                }
+                contentLength = HttpUtil.parseLong(src, valueStartIndex, lineEndIndex);
+                if (contentLength == -1) {
+                    throw new IOException("invalid Content-Length in response");
+                }
+            }
+            index = lineBreak + 1;
+        }
+    }
+
+}
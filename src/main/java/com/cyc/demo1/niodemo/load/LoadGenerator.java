@@ -0,0 +1,273 @@
+package com.cyc.demo1.niodemo.load;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cyc.demo1.niodemo.LatencyHistogram;
+
+/**
+ * An HTTP load generator for Server and NioServer. Many keep-alive connections are driven by a few threads, each with
+ * one selector, and every connection may have pipelineDepth requests outstanding.
+ *
+ * In a closed loop (requestsPerSecond 0) a connection sends the next request as soon as a response arrives, and the
+ * latency is the time from sending to the response. In an open loop the requests are due at a fixed rate, whether the
+ * server keeps up or not. A request which cannot be sent when it is due - because its connection's pipeline is full -
+ * is sent late, but its latency still counts from the time it was due. That corrects the coordinated omission of a
+ * closed loop, which stops sending while the server stalls, and so never measures the requests which would have
+ * waited for the stall.
+ *
+ * <pre>
+ * java com.cyc.demo1.niodemo.load.LoadGenerator localhost 9999 256 2 4 100000 30 /
+ * </pre>
+ *
+ * @author chenyuchuan
+ */
+public class LoadGenerator {
+
+    private InetSocketAddress serverAddress = null;
+    private LoadGeneratorConfig config = null;
+
+    private List<byte[]> requestTemplates = null;
+    private int maxRequestLength = 0;
+
+    public LoadGenerator(InetSocketAddress serverAddress, LoadGeneratorConfig config) {
+        if (config.requestTemplates.isEmpty()) {
+            throw new IllegalArgumentException("no request templates");
+        }
+        this.serverAddress = serverAddress;
+        this.config = config;
+        this.requestTemplates = new ArrayList<>(config.requestTemplates);
+        for (byte[] requestTemplate : this.requestTemplates) {
+            this.maxRequestLength = Math.max(this.maxRequestLength, requestTemplate.length);
+        }
+    }
+
+    /**
+     * Connects, runs the warmup and the measurement, and closes the connections again.
+     */
+    public LoadResult run() throws IOException, InterruptedException {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < this.config.threads; i++) {
+            workers.add(new Worker());
+        }
+        try {
+            for (int i = 0; i < this.config.connections; i++) {
+                SocketChannel socketChannel = SocketChannel.open(this.serverAddress);
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                socketChannel.configureBlocking(false);
+
+                LoadConnection connection =
+                    new LoadConnection(socketChannel, this.config.pipelineDepth, this.maxRequestLength);
+                connection.nextTemplate = i;
+                workers.get(i % workers.size()).connections.add(connection);
+            }
+        } catch (IOException e) {
+            for (Worker worker : workers) {
+                worker.closeConnections();
+            }
+            throw e;
+        }
+
+        long startTime = System.nanoTime();
+        long recordFrom = startTime + this.config.warmupMillis * 1000000;
+        long endTime = recordFrom + this.config.durationMillis * 1000000;
+
+        // the connections take turns - the due times of the open loop are spread evenly over the interval.
+        long intervalNanos = 0;
+        if (this.config.requestsPerSecond > 0) {
+            intervalNanos = Math.max(1, (long)(this.config.connections * 1e9 / this.config.requestsPerSecond));
+            for (int i = 0; i < this.config.connections; i++) {
+                Worker worker = workers.get(i % workers.size());
+                worker.connections.get(i / workers.size()).nextSendTime =
+                    startTime + i * intervalNanos / this.config.connections;
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get(i);
+            worker.recordFrom = recordFrom;
+            worker.endTime = endTime;
+            worker.intervalNanos = intervalNanos;
+
+            Thread thread = new Thread(worker, "load-generator-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        LoadResult result = new LoadResult();
+        result.openLoop = intervalNanos > 0;
+        result.durationNanos = endTime - recordFrom;
+        for (int i = 0; i < workers.size(); i++) {
+            threads.get(i).join();
+            Worker worker = workers.get(i);
+            if (worker.exception != null) {
+                throw worker.exception;
+            }
+            result.responses += worker.responses;
+            result.non2xxResponses += worker.non2xxResponses;
+            result.failedConnections += worker.failedConnections;
+            result.latency.add(worker.latency);
+        }
+        return result;
+    }
+
+    /**
+     * Drives its connections with one selector, on one thread.
+     */
+    private class Worker implements Runnable {
+
+        private List<LoadConnection> connections = new ArrayList<>();
+        private LatencyHistogram latency = new LatencyHistogram();
+
+        private long recordFrom = 0;
+        private long endTime = 0;
+        private long intervalNanos = 0; // 0 for a closed loop.
+
+        private long responses = 0;
+        private long non2xxResponses = 0;
+        private long failedConnections = 0;
+        private IOException exception = null;
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (LoadConnection connection : this.connections) {
+                    connection.selectionKey =
+                        connection.socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                }
+
+                long now = System.nanoTime();
+                long nextDueTime = sendRequests(now);
+                while (now < this.endTime && !this.connections.isEmpty()) {
+                    long waitNanos = Math.min(this.endTime, nextDueTime) - now;
+                    if (waitNanos >= 1000000) {
+                        selector.select(waitNanos / 1000000);
+                    } else if (selector.selectNow() == 0 && waitNanos > 0) {
+                        // the next request is due within the millisecond - select() cannot wait that short.
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                    now = System.nanoTime();
+
+                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
+
+                        LoadConnection connection = (LoadConnection)key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                this.responses += connection.read(now, this.latency, this.recordFrom);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException e) {
+                            fail(connection, e);
+                        }
+                    }
+
+                    nextDueTime = sendRequests(now);
+                }
+            } catch (IOException e) {
+                this.exception = e;
+            } finally {
+                closeConnections();
+            }
+        }
+
+        /**
+         * Sends the requests which are due - in a closed loop, as many as the pipelines take.
+         *
+         * @return the time the next request is due, Long.MAX_VALUE if no request is due before a response arrives.
+         */
+        private long sendRequests(long now) {
+            long nextDueTime = Long.MAX_VALUE;
+            Iterator<LoadConnection> iterator = this.connections.iterator();
+            while (iterator.hasNext()) {
+                LoadConnection connection = iterator.next();
+                try {
+                    if (this.intervalNanos == 0) {
+                        while (connection.canSend()) {
+                            connection.send(nextRequest(connection), now);
+                        }
+                        continue;
+                    }
+                    while (connection.canSend() && connection.nextSendTime <= now) {
+                        connection.send(nextRequest(connection), connection.nextSendTime);
+                        connection.nextSendTime += this.intervalNanos;
+                    }
+                    if (connection.canSend()) {
+                        nextDueTime = Math.min(nextDueTime, connection.nextSendTime);
+                    }
+                } catch (IOException e) {
+                    iterator.remove();
+                    fail(connection, e);
+                }
+            }
+            return nextDueTime;
+        }
+
+        private byte[] nextRequest(LoadConnection connection) {
+            return requestTemplates.get(connection.nextTemplate++ % requestTemplates.size());
+        }
+
+        private void fail(LoadConnection connection, IOException e) {
+            System.out.println("Connection failed: " + e.getMessage());
+            this.failedConnections++;
+            this.connections.remove(connection);
+            this.non2xxResponses += connection.non2xxResponses;
+            connection.close();
+        }
+
+        private void closeConnections() {
+            for (LoadConnection connection : this.connections) {
+                this.non2xxResponses += connection.non2xxResponses;
+                connection.close();
+            }
+            this.connections.clear();
+        }
+    }
+
+    /**
+     * host port [connections] [threads] [pipelineDepth] [requestsPerSecond] [durationSeconds] [path]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: LoadGenerator host port [connections] [threads] [pipelineDepth] "
+                + "[requestsPerSecond] [durationSeconds] [path]");
+            return;
+        }
+        String host = args[0];
+        LoadGeneratorConfig config = new LoadGeneratorConfig();
+        if (args.length > 2) {
+            config.connections(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            config.threads(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            config.pipelineDepth(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            config.requestsPerSecond(Long.parseLong(args[5]));
+        }
+        if (args.length > 6) {
+            config.durationMillis(Long.parseLong(args[6]) * 1000);
+        }
+        config.requestTemplate(LoadGeneratorConfig.httpGet(host, args.length > 7 ? args[7] : "/"));
+
+        LoadResult result =
+            new LoadGenerator(new InetSocketAddress(host, Integer.parseInt(args[1])), config).run();
+        System.out.println(result);
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.cyc.demo1.niodemo.load;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The settings of a {@link LoadGenerator}. The setters return the config, so a config reads like:
+ *
+ * <pre>
+ * new LoadGeneratorConfig().connections(256).threads(2).pipelineDepth(4).requestsPerSecond(100000)
+ *     .requestTemplate(LoadGeneratorConfig.httpGet("localhost", "/"))
+ * </pre>
+ *
+ * @author chenyuchuan
+ */
+public class LoadGeneratorConfig {
+
+    public int connections = 16;
+    public int threads = 1; // each thread drives its share of the connections with one selector.
+
+    public int pipelineDepth = 1; // the requests a connection may have outstanding.
+
+    // the total rate of the open loop. 0 for a closed loop, where every response is answered with the next request
+    // straight away.
+    public long requestsPerSecond = 0;
+
+    public long warmupMillis = 2000; // the responses to requests sent in the warmup are not recorded.
+    public long durationMillis = 10000;
+
+    // the requests are sent round robin - a template is the complete bytes of one HTTP request.
+    public List<byte[]> requestTemplates = new ArrayList<>();
+
+    public LoadGeneratorConfig() {}
+
+    public LoadGeneratorConfig connections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1: " + connections);
+        }
+        this.connections = connections;
+        return this;
+    }
+
+    public LoadGeneratorConfig threads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public LoadGeneratorConfig pipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("pipelineDepth must be at least 1: " + pipelineDepth);
+        }
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    public LoadGeneratorConfig requestsPerSecond(long requestsPerSecond) {
+        if (requestsPerSecond < 0) {
+            throw new IllegalArgumentException("requestsPerSecond must not be negative: " + requestsPerSecond);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    public LoadGeneratorConfig warmupMillis(long warmupMillis) {
+        if (warmupMillis < 0) {
+            throw new IllegalArgumentException("warmupMillis must not be negative: " + warmupMillis);
+        }
+        this.warmupMillis = warmupMillis;
+        return this;
+    }
+
+    public LoadGeneratorConfig durationMillis(long durationMillis) {
+        if (durationMillis < 1) {
+            throw new IllegalArgumentException("durationMillis must be at least 1: " + durationMillis);
+        }
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    public LoadGeneratorConfig requestTemplate(byte[] request) {
+        this.requestTemplates.add(request);
+        return this;
+    }
+
+    /**
+     * @return a keep-alive GET request for the path.
+     */
+    public static byte[] httpGet(String host, String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return a keep-alive POST request of the body to the path.
+     */
+    public static byte[] httpPost(String host, String path, String contentType, byte[] body) {
+        byte[] headers = ("POST " + path + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Type: " + contentType
+            + "\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] request = new byte[headers.length + body.length];
+        System.arraycopy(headers, 0, request, 0, headers.length);
+        System.arraycopy(body, 0, request, headers.length, body.length);
+        return request;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.cyc.demo1.niodemo.load;
+
+import com.cyc.demo1.niodemo.LatencyHistogram;
+
+/**
+ * The outcome of a {@link LoadGenerator} run - only the measured part, after the warmup.
+ *
+ * @author chenyuchuan
+ */
+public class LoadResult {
+
+    public long responses = 0;
+    public long non2xxResponses = 0;
+    public long failedConnections = 0; // connections closed by an error - they send no more requests.
+    public long durationNanos = 0;
+
+    // nanoseconds. In an open loop from the time a request was due, not from when it could be sent - so the requests
+    // held back by a stalled server count the stall as well, and coordinated omission does not hide it.
+    public LatencyHistogram latency = new LatencyHistogram();
+
+    public boolean openLoop = false;
+
+    public double getResponsesPerSecond() {
+        return this.durationNanos == 0 ? 0 : this.responses * 1e9 / this.durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.openLoop ? "open loop" : "closed loop").append(": ").append(this.responses)
+            .append(" responses in ").append(this.durationNanos / 1000000).append("ms, ")
+            .append(String.format("%.1f", getResponsesPerSecond())).append("/s");
+        if (this.non2xxResponses > 0) {
+            builder.append(", ").append(this.non2xxResponses).append(" non-2xx");
+        }
+        if (this.failedConnections > 0) {
+            builder.append(", ").append(this.failedConnections).append(" failed connections");
+        }
+        builder.append("\nlatency (us): mean ").append(String.format("%.1f", this.latency.getMean() / 1000));
+        double[] percentiles = new double[] {50, 90, 99, 99.9, 99.99};
+        for (double percentile : percentiles) {
+            builder.append(", p").append(percentile).append(' ')
+                .append(String.format("%.1f", this.latency.getValueAtPercentile(percentile) / 1000.0));
+        }
+        builder.append(", max ").append(String.format("%.1f", this.latency.getMaxValue() / 1000.0));
+        return builder.toString();
+    }
+
+}
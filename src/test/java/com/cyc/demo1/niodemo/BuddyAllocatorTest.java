@@ -0,0 +1,153 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class BuddyAllocatorTest {
+
+    // 16 units of 512 bytes, blocks up to 4KB - two blocks of the largest order.
+    private MessageBuffer newMessageBuffer() {
+        return new MessageBuffer(new MessageBufferConfig().buddy(512, 4096, 8192));
+    }
+
+    @Test
+    public void testGetMessage() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+        assertEquals(0, messageBuffer.allocatedBytes());
+        assertEquals(16, messageBuffer.availableBlocks(0));
+
+        Message message = messageBuffer.getMessage();
+        assertEquals(0, message.offset);
+        assertEquals(512, message.capacity);
+        assertEquals(8192, messageBuffer.allocatedBytes()); // the whole arena, at the first message.
+        assertEquals(512, messageBuffer.usedBytes());
+
+        Message message2 = messageBuffer.getMessage();
+        assertEquals(512, message2.offset); // the buddy of the first message.
+        assertSame(message.sharedArray, message2.sharedArray);
+    }
+
+    @Test
+    public void testExpandInPlace() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        Message message = messageBuffer.getMessage();
+        byte[] sharedArray = message.sharedArray;
+        message.writeToMessage("hello".getBytes(StandardCharsets.US_ASCII));
+
+        for (int capacity = 1024; capacity <= 4096; capacity *= 2) {
+            assertTrue(messageBuffer.expandMessage(message));
+            assertEquals(0, message.offset);
+            assertEquals(capacity, message.capacity);
+        }
+        assertSame(sharedArray, message.sharedArray);
+        assertEquals("hello", new String(message.sharedArray, 0, message.length, StandardCharsets.US_ASCII));
+        assertEquals(4096, messageBuffer.usedBytes());
+
+        assertFalse(messageBuffer.expandMessage(message)); // no order above the maximum block size.
+
+        message.release();
+        assertEquals(0, messageBuffer.usedBytes());
+        assertEquals(2, messageBuffer.availableBlocks(3));
+    }
+
+    @Test
+    public void testExpandByCopy() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        Message first = messageBuffer.getMessage();
+        Message second = messageBuffer.getMessage();
+        second.writeToMessage("abc".getBytes(StandardCharsets.US_ASCII));
+
+        // the buddy of the second message is the first - in use, and below it - so it moves to a new block.
+        assertTrue(messageBuffer.expandMessage(second));
+        assertEquals(1024, second.offset);
+        assertEquals(1024, second.capacity);
+        assertEquals("abc", new String(second.sharedArray, second.offset, second.length, StandardCharsets.US_ASCII));
+
+        // free: the old block of the second message, 4 units at 2048 and 8 units at 4096.
+        assertEquals(1 + 4 + 8, messageBuffer.availableBlocks(0));
+        assertEquals(2 + 4, messageBuffer.availableBlocks(1));
+        assertEquals(0, messageBuffer.fragmentation(), 0); // a block of the largest size is still free.
+
+        Message third = messageBuffer.getMessage(); // into the old block of the second message.
+        assertEquals(512, third.offset);
+        Message fourth = messageBuffer.getMessage(); // splits the free block of 4 units at 2048.
+        assertEquals(2048, fourth.offset);
+        assertTrue(messageBuffer.expandMessage(fourth));
+        assertTrue(messageBuffer.expandMessage(fourth)); // the split halves merge again under the message.
+        assertEquals(2048, fourth.offset);
+        assertEquals(2048, fourth.capacity);
+        assertEquals(8, messageBuffer.availableBlocks(0));
+        third.release();
+        fourth.release();
+
+        // everything merges back into the two largest blocks.
+        first.release();
+        second.release();
+        assertEquals(2, messageBuffer.availableBlocks(3));
+        assertEquals(0, messageBuffer.fragmentation(), 0);
+    }
+
+    @Test
+    public void testDepleted() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        Message[] messages = new Message[16];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = messageBuffer.getMessage();
+            assertNotNull(messages[i]);
+        }
+        assertNull(messageBuffer.getMessage());
+        assertEquals(0, messageBuffer.fragmentation(), 0);
+
+        // every other block free - 8 free units, none of them with a free buddy.
+        for (int i = 0; i < messages.length; i += 2) {
+            messages[i].release();
+        }
+        assertEquals(8, messageBuffer.availableBlocks(0));
+        assertEquals(0, messageBuffer.availableBlocks(1));
+        assertEquals(1 - 1.0 / 8, messageBuffer.fragmentation(), 1e-9);
+        assertFalse(messageBuffer.expandMessage(messages[1]));
+
+        Message message = messageBuffer.getMessage();
+        assertEquals(14 * 512, message.offset); // the free block freed last is handed out first.
+    }
+
+    @Test
+    public void testDirect() {
+        MessageBuffer messageBuffer = new DirectMessageBuffer(new MessageBufferConfig().buddy(512, 4096, 8192));
+
+        Message message = messageBuffer.getMessage();
+        assertNull(message.sharedArray);
+        message.writeToMessage(new byte[600]); // grows in place.
+        assertEquals(1024, message.capacity);
+        assertTrue(message.sharedBuffer.isDirect());
+    }
+
+    @Test
+    public void testConfig() {
+        MessageBufferConfig config = MessageBufferConfig.buddyConfig();
+        assertEquals(12, config.getSizeClasses().size()); // 512 bytes to 1MB.
+        assertEquals(32 * MessageBuffer.MB, config.maxBytes());
+        assertTrue(config.createAllocator() instanceof BuddyAllocator);
+        assertFalse(MessageBufferConfig.defaultConfig().isBuddy());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockSizeMustBePowerOfTwo() {
+        new MessageBufferConfig().buddy(500, 4096, 8192);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoSizeClassesWithBuddy() {
+        new MessageBufferConfig().buddy(512, 4096, 8192).sizeClass(1024, 4);
+    }
+
+}
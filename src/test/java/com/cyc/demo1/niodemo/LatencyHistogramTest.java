@@ -0,0 +1,63 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        // the buckets are contiguous - every value lies in the range of its bucket.
+        long[] values = new long[] {0, 1, 255, 256, 257, 511, 512, 1000, 123456789, 1L << 40,
+            LatencyHistogram.HIGHEST_TRACKABLE_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.lowestEquivalentValue(index) <= value);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            if (index > 0) {
+                assertEquals(LatencyHistogram.highestEquivalentValue(index - 1) + 1,
+                    LatencyHistogram.lowestEquivalentValue(index));
+            }
+            // below 1% relative error.
+            long width = LatencyHistogram.highestEquivalentValue(index) - LatencyHistogram.lowestEquivalentValue(index);
+            assertTrue(width <= Math.max(0, value / 100));
+        }
+        assertEquals(255, LatencyHistogram.bucketIndex(255));
+        assertEquals(256, LatencyHistogram.bucketIndex(256));
+        assertEquals(256, LatencyHistogram.bucketIndex(257));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        // 1..1000 microseconds.
+        for (long i = 1; i <= 1000; i++) {
+            histogram.recordValue(i * 1000);
+        }
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(1000000, histogram.getMaxValue());
+        assertEquals(500500, histogram.getMean(), 0.001);
+
+        assertWithinOnePercent(500000, histogram.getValueAtPercentile(50));
+        assertWithinOnePercent(990000, histogram.getValueAtPercentile(99));
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertWithinOnePercent(1000, histogram.getValueAtPercentile(0));
+
+        // out of range values are clamped.
+        histogram.recordValue(-1);
+        histogram.recordValue(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_VALUE, histogram.getMaxValue());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    private static void assertWithinOnePercent(long expected, long actual) {
+        assertTrue("expected " + expected + ", got " + actual, Math.abs(actual - expected) <= expected / 100);
+    }
+
+}
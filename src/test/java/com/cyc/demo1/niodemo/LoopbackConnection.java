@@ -0,0 +1,38 @@
+package com.cyc.demo1.niodemo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A test fixture: a connection over localhost, with a blocking client channel on one end and a non-blocking
+ * {@link Socket} - as a SocketProcessor would have accepted it - on the other.
+ *
+ * @author chenyuchuan
+ */
+public class LoopbackConnection implements Closeable {
+
+    public final SocketChannel clientChannel;
+    public final Socket socket;
+
+    private final ServerSocketChannel serverChannel;
+
+    public LoopbackConnection() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress("localhost", 0));
+        this.clientChannel = SocketChannel.open(this.serverChannel.getLocalAddress());
+
+        this.socket = new Socket(this.serverChannel.accept());
+        this.socket.socketChannel.configureBlocking(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.socketChannel.close();
+        this.clientChannel.close();
+        this.serverChannel.close();
+    }
+
+}
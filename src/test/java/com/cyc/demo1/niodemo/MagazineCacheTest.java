@@ -0,0 +1,220 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class MagazineCacheTest {
+
+    // magazines of 4 blocks of 512 bytes - 1/16 of 64 - and 2 blocks of 2048 bytes.
+    private MessageBuffer newMessageBuffer() {
+        return new MessageBuffer(new MessageBufferConfig().sizeClass(512, 64, 64).sizeClass(2048, 32, 32)
+            .sizeClass(8192, 4).threadCache(8));
+    }
+
+    @Test
+    public void testRefillAndFlush() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        Message[] messages = new Message[5];
+        // the blocks in the magazine count as available - only those of the live messages do not.
+        messages[0] = messageBuffer.getMessage();
+        assertEquals(512, messages[0].capacity);
+        assertEquals(63, messageBuffer.availableBlocks(0)); // half a magazine taken at once, one block left in it.
+
+        messages[1] = messageBuffer.getMessage();
+        assertEquals(62, messageBuffer.availableBlocks(0)); // from the magazine.
+        for (int i = 2; i < messages.length; i++) {
+            messages[i] = messageBuffer.getMessage();
+        }
+        assertEquals(59, messageBuffer.availableBlocks(0));
+
+        // the magazine holds one block, then fills up at 4 and flushes its older half.
+        for (Message message : messages) {
+            message.release();
+        }
+        assertEquals(64, messageBuffer.availableBlocks(0));
+
+        // the blocks of the magazine come back first, the most recently freed first.
+        Message message = messageBuffer.getMessage();
+        assertSame(messages[4], message);
+        assertEquals(messages[4].offset, message.offset);
+        message.release();
+
+        messageBuffer.flushThreadCache();
+        assertEquals(64, messageBuffer.availableBlocks(0));
+        assertEquals(0, messageBuffer.usedBytes());
+    }
+
+    @Test
+    public void testExpandMessage() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        Message message = messageBuffer.getMessage();
+        message.writeToMessage("hello".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(messageBuffer.expandMessage(message));
+        assertEquals(2048, message.capacity);
+        assertEquals("hello",
+            new String(message.sharedArray, message.offset, message.length, StandardCharsets.US_ASCII));
+
+        // the largest size class has too few blocks for a magazine - it is taken under the lock, one at a time.
+        assertTrue(messageBuffer.expandMessage(message));
+        assertEquals(8192, message.capacity);
+        assertEquals(3, messageBuffer.availableBlocks(2));
+        assertFalse(messageBuffer.expandMessage(message));
+
+        message.release();
+        assertEquals(4, messageBuffer.availableBlocks(2));
+        messageBuffer.flushThreadCache();
+        assertEquals(64, messageBuffer.availableBlocks(0));
+        assertEquals(32, messageBuffer.availableBlocks(1));
+    }
+
+    @Test
+    public void testDepleted() {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        for (int i = 0; i < 64; i++) {
+            assertNotNull(messageBuffer.getMessage());
+        }
+        assertNull(messageBuffer.getMessage());
+    }
+
+    @Test
+    public void testFreedByAnotherThread() throws InterruptedException {
+        MessageBuffer messageBuffer = newMessageBuffer();
+        BlockingQueue<Message> queue = new ArrayBlockingQueue<>(16);
+        int count = 100000;
+
+        // one thread takes the messages, another releases them - as with the write buffer and the SocketProcessor.
+        Thread releaser = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Message message = queue.take();
+                    assertEquals(i & 0xFF, message.sharedArray[message.offset] & 0xFF);
+                    message.release();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                messageBuffer.flushThreadCache();
+            }
+        });
+        releaser.start();
+
+        for (int i = 0; i < count; i++) {
+            Message message = messageBuffer.getMessage();
+            while (message == null) {
+                Thread.yield(); // the free blocks are in the magazine of the releaser.
+                message = messageBuffer.getMessage();
+            }
+            message.writeToMessage(new byte[] {(byte)i});
+            queue.put(message);
+        }
+        releaser.join();
+        messageBuffer.flushThreadCache();
+
+        assertEquals(64, messageBuffer.availableBlocks(0));
+        assertEquals(0, messageBuffer.usedBytes());
+    }
+
+    @Test
+    public void testConcurrentThreads() throws InterruptedException {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                Message[] messages = new Message[8];
+                for (int round = 0; round < 10000; round++) {
+                    for (int i = 0; i < messages.length; i++) {
+                        messages[i] = messageBuffer.getMessage();
+                    }
+                    for (Message message : messages) {
+                        if (message != null) {
+                            message.release();
+                        }
+                    }
+                }
+                messageBuffer.flushThreadCache();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(64, messageBuffer.availableBlocks(0));
+    }
+
+    @Test
+    public void testCacheLimit() throws InterruptedException {
+        MessageBuffer messageBuffer = newMessageBuffer();
+
+        // 8 threads fill their magazines and keep them. The magazines of 4 blocks hold at most 16 of the 64 blocks
+        // together - so only 4 threads get a magazine, the others free their blocks to the shared blocks.
+        CountDownLatch filled = new CountDownLatch(8);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                Message[] messages = new Message[4];
+                for (int i = 0; i < messages.length; i++) {
+                    messages[i] = messageBuffer.getMessage();
+                }
+                for (Message message : messages) {
+                    message.release();
+                }
+                filled.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                messageBuffer.flushThreadCache();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        assertTrue(filled.await(5, TimeUnit.SECONDS));
+        assertEquals(64, messageBuffer.availableBlocks(0));
+
+        // this thread gets no magazine either, and all blocks but those in the 4 magazines are left to it.
+        List<Message> messages = new ArrayList<>();
+        Message message = messageBuffer.getMessage();
+        while (message != null) {
+            messages.add(message);
+            message = messageBuffer.getMessage();
+        }
+        assertTrue(messages.size() >= 64 - 16);
+        assertEquals(64 - messages.size(), messageBuffer.availableBlocks(0));
+        for (Message held : messages) {
+            held.release();
+        }
+
+        done.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        messageBuffer.flushThreadCache();
+        assertEquals(64, messageBuffer.availableBlocks(0));
+        assertEquals(0, messageBuffer.usedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotForBuddy() {
+        new MessageBuffer(MessageBufferConfig.buddyConfig().threadCache(8));
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.cyc.demo1.niodemo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures Message.writeToMessage - the copy of a response into its block - from a byte array and from a ByteBuffer,
+ * into heap and into direct slabs. The message keeps its block between invocations, so only the copy is measured; see
+ * MessageBufferBenchmark for the allocation. Run with main(), or with the benchmark profile.
+ *
+ * @author chenyuchuan
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+
+    @Param({"heap", "direct"})
+    public String memory;
+
+    @Param({"64", "1024", "16384"})
+    public int length;
+
+    private Message message;
+    private byte[] byteArray;
+    private ByteBuffer heapByteBuffer;
+    private ByteBuffer directByteBuffer;
+
+    @Setup
+    public void setUp() {
+        MessageBuffer messageBuffer = "direct".equals(this.memory) ? new DirectMessageBuffer() : new MessageBuffer();
+        this.message = messageBuffer.getMessage();
+
+        this.byteArray = new byte[this.length];
+        for (int i = 0; i < this.byteArray.length; i++) {
+            this.byteArray[i] = (byte)i;
+        }
+        this.heapByteBuffer = ByteBuffer.wrap(this.byteArray);
+        this.directByteBuffer = ByteBuffer.allocateDirect(this.length);
+        this.directByteBuffer.put(this.byteArray);
+
+        // expand the message to the block size the data needs, once.
+        if (this.message.writeToMessage(this.byteArray) == -1) {
+            throw new IllegalStateException("no block for " + this.length + " bytes");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.message.release();
+    }
+
+    @Benchmark
+    public int writeByteArray() {
+        this.message.length = 0;
+        return this.message.writeToMessage(this.byteArray);
+    }
+
+    @Benchmark
+    public int writeHeapByteBuffer() {
+        this.message.length = 0;
+        this.heapByteBuffer.clear();
+        return this.message.writeToMessage(this.heapByteBuffer);
+    }
+
+    @Benchmark
+    public int writeDirectByteBuffer() {
+        this.message.length = 0;
+        this.directByteBuffer.clear();
+        return this.message.writeToMessage(this.directByteBuffer);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(MessageBenchmark.class.getSimpleName()).build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the block allocation of MessageBuffer: a message taken and released, a message moved to a larger block on
+ * the way - which copies its content - and the allocation from several threads at once, as on the write buffer which
+ * all replying threads share - with the size classes, and with the buddy allocator, which grows a message in place
+ * when its buddy is free. Run with main(), or with the benchmark profile.
+ *
+ * @author chenyuchuan
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBufferBenchmark {
+
+    @Param({"heap", "direct"})
+    public String memory;
+
+    @Param({"sizeClasses", "buddy"})
+    public String allocator;
+
+    // the bytes of the message when it is expanded - all of them are copied to the larger block. At most the capacity of
+    // a new message, which is smaller for the buddy allocator.
+    @Param({"1024", "4096"})
+    public int length;
+
+    private MessageBuffer messageBuffer;
+
+    @Setup
+    public void setUp() {
+        MessageBufferConfig config =
+            "buddy".equals(this.allocator) ? MessageBufferConfig.buddyConfig() : MessageBufferConfig.defaultConfig();
+        this.messageBuffer =
+            "direct".equals(this.memory) ? new DirectMessageBuffer(config) : new MessageBuffer(config);
+
+        // allocate all slabs up front - the slab allocation is a one-off, not part of the steady state.
+        Message[] messages = new Message[1024];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = this.messageBuffer.getMessage();
+        }
+        for (int i = 0; i < 128; i++) {
+            messages[i].expand();
+        }
+        for (Message message : messages) {
+            message.release();
+        }
+    }
+
+    @Benchmark
+    public boolean getMessage() {
+        Message message = this.messageBuffer.getMessage();
+        return message.release();
+    }
+
+    @Benchmark
+    public boolean expandMessage() {
+        Message message = this.messageBuffer.getMessage();
+        message.length = Math.min(this.length, message.capacity);
+        message.expand();
+        return message.release();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean getMessageShared() {
+        Message message = this.messageBuffer.getMessage();
+        return message.release();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(MessageBufferBenchmark.class.getSimpleName()).build();
+
+        new Runner(options).run();
+    }
+
+}
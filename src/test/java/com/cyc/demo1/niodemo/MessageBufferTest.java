@@ -28,8 +28,62 @@ public class MessageBufferTest {
         assertEquals(0, message2.length);
         assertEquals(4 * 1024, message2.capacity);
 
-        // todo test what happens if the small buffer space is depleted of messages.
+    }
+
+    @Test
+    public void testSmallBlocksDepleted() {
+        MessageBuffer messageBuffer = new MessageBuffer();
 
+        Message first = null;
+        for (int i = 0; i < 1024; i++) {
+            Message message = messageBuffer.getMessage();
+            assertNotNull(message);
+            if (first == null) {
+                first = message;
+            }
+        }
+        assertNull(messageBuffer.getMessage());
+
+        // releasing a message makes its block available again.
+        assertTrue(first.release());
+        Message message = messageBuffer.getMessage();
+        assertNotNull(message);
+        assertEquals(0, message.offset);
+    }
+
+    @Test
+    public void testReleaseMessage() {
+        MessageBuffer messageBuffer = new MessageBuffer();
+
+        Message message = messageBuffer.getMessage();
+        message.socketId = 42;
+        message.length = 10;
+        message.metaData = new Object();
+
+        message.retain();
+        assertEquals(2, message.refCnt());
+        assertFalse(message.release());
+        assertTrue(message.release());
+
+        // the Message object is pooled and handed out again, reset. The freed block went to the back of the free
+        // block queue, so the recycled message gets the next block.
+        Message recycled = messageBuffer.getMessage();
+        assertSame(message, recycled);
+        assertEquals(1, recycled.refCnt());
+        assertEquals(4096, recycled.offset);
+        assertEquals(4 * 1024, recycled.capacity);
+        assertEquals(0, recycled.length);
+        assertEquals(0, recycled.socketId);
+        assertNull(recycled.metaData);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleRelease() {
+        MessageBuffer messageBuffer = new MessageBuffer();
+
+        Message message = messageBuffer.getMessage();
+        message.release();
+        message.release();
     }
 
     @Test
@@ -70,4 +124,81 @@ public class MessageBufferTest {
         assertSame(message.sharedArray, largeSharedArray);
 
     }
+
+    @Test
+    public void testConfiguredSizeClasses() {
+        MessageBufferConfig config =
+            new MessageBufferConfig().sizeClass(512, 4, 2).sizeClass(2048, 3).sizeClass(8192, 1);
+        MessageBuffer messageBuffer = new MessageBuffer(config);
+
+        // nothing is allocated before the first message.
+        assertEquals(0, messageBuffer.allocatedBytes());
+        assertEquals(4, messageBuffer.availableBlocks(0));
+
+        Message message = messageBuffer.getMessage();
+        assertEquals(512, message.capacity);
+        assertEquals(2 * 512, messageBuffer.allocatedBytes()); // one slab of two blocks.
+        assertEquals(3, messageBuffer.availableBlocks(0));
+
+        messageBuffer.getMessage();
+        messageBuffer.getMessage(); // second slab
+        messageBuffer.getMessage();
+        assertEquals(4 * 512, messageBuffer.allocatedBytes());
+        assertNull(messageBuffer.getMessage()); // ceiling of the first size class reached.
+
+        assertTrue(messageBuffer.expandMessage(message));
+        assertEquals(2048, message.capacity);
+        assertEquals(4 * 512 + 3 * 2048, messageBuffer.allocatedBytes()); // all 3 blocks fit in one 1MB slab.
+        assertEquals(1, messageBuffer.availableBlocks(0)); // the 512 byte block was freed.
+
+        assertTrue(messageBuffer.expandMessage(message));
+        assertEquals(8192, message.capacity);
+        assertFalse(messageBuffer.expandMessage(message)); // no larger size class.
+
+        message.release();
+        assertEquals(1, messageBuffer.availableBlocks(2));
+    }
+
+    @Test
+    public void testConcurrentRelease() throws InterruptedException {
+        MessageBuffer messageBuffer = new MessageBuffer(new MessageBufferConfig().sizeClass(1024, 4000));
+        Message[] messages = new Message[4000];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = messageBuffer.getMessage();
+        }
+        assertNull(messageBuffer.getMessage());
+
+        // four threads free the blocks without the lock, while this thread takes them again under the lock.
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < messages.length; i += threads.length) {
+                    messages[i].release();
+                }
+            });
+            threads[t].start();
+        }
+        boolean[] taken = new boolean[messages.length];
+        int takenCount = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (takenCount < messages.length) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Message message = messageBuffer.getMessage();
+            if (message != null) {
+                assertFalse(taken[message.blockIndex]);
+                taken[message.blockIndex] = true;
+                takenCount++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, messageBuffer.availableBlocks(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeClassesMustIncrease() {
+        new MessageBufferConfig().sizeClass(4096, 16).sizeClass(1024, 16);
+    }
 }
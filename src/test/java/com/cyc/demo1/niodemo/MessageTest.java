@@ -1,7 +1,6 @@
 package com.cyc.demo1.niodemo;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertSame;
+import static org.junit.Assert.*;
 
 import java.nio.ByteBuffer;
 
@@ -24,19 +23,19 @@ public class MessageTest {
         int written = message.writeToMessage(byteBuffer);
         assertEquals(4096, written);
         assertEquals(4096, message.length);
-        assertSame(messageBuffer.smallMessageBuffer, message.sharedArray);
+        assertEquals(4 * 1024, message.capacity);
 
         fill(byteBuffer, 124 * 1024);
         written = message.writeToMessage(byteBuffer);
         assertEquals(124 * 1024, written);
         assertEquals(128 * 1024, message.length);
-        assertSame(messageBuffer.mediumMessageBuffer, message.sharedArray);
+        assertEquals(128 * 1024, message.capacity);
 
         fill(byteBuffer, (1024 - 128) * 1024);
         written = message.writeToMessage(byteBuffer);
         assertEquals(896 * 1024, written);
         assertEquals(1024 * 1024, message.length);
-        assertSame(messageBuffer.largeMessageBuffer, message.sharedArray);
+        assertEquals(1024 * 1024, message.capacity);
 
         fill(byteBuffer, 1);
         written = message.writeToMessage(byteBuffer);
@@ -44,6 +43,36 @@ public class MessageTest {
 
     }
 
+    @Test
+    public void testWriteToDirectMessage() {
+        MessageBuffer messageBuffer = new DirectMessageBuffer();
+
+        Message message = messageBuffer.getMessage();
+        assertNull(message.sharedArray);
+        assertTrue(message.sharedBuffer.isDirect());
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024 * 1024);
+        fill(byteBuffer, 4096);
+        assertEquals(4096, message.writeToMessage(byteBuffer));
+
+        // the next write does not fit into the small block - the content is copied along to the medium block.
+        byte[] bytes = new byte[] {'a', 'b', 'c'};
+        assertEquals(3, message.writeToMessage(bytes));
+        assertEquals(128 * 1024, message.capacity);
+        assertEquals(4099, message.length);
+
+        ByteBuffer content = message.content(0);
+        assertEquals(4099, content.remaining());
+        for (int i = 0; i < 4096; i++) {
+            assertEquals((byte)(i % 128), content.get());
+        }
+        assertEquals('a', content.get());
+        assertEquals('b', content.get());
+        assertEquals('c', content.get());
+
+        assertEquals(2, message.content(4097).remaining());
+    }
+
     private void fill(ByteBuffer byteBuffer, int length) {
         byteBuffer.clear();
         for (int i = 0; i < length; i++) {
@@ -0,0 +1,81 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class MpscArrayQueueTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(3);
+        assertEquals(4, queue.capacity());
+        assertNull(queue.poll());
+
+        assertEquals(1, queue.offerAndGetSize(1));
+        assertEquals(2, queue.offerAndGetSize(2));
+        assertTrue(queue.offer(3));
+        assertTrue(queue.offer(4));
+        assertEquals(-1, queue.offerAndGetSize(5));
+        assertEquals(4, queue.size());
+
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(3, queue.offerAndGetSize(5));
+
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertEquals(Integer.valueOf(5), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+
+        // empty again - next offer is an empty to non-empty transition.
+        assertEquals(1, queue.offerAndGetSize(6));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100000;
+        MpscArrayQueue<Long> queue = new MpscArrayQueue<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            long producerId = p;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < perProducer; i++) {
+                    while (!queue.offer(producerId << 32 | i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producer.start();
+        }
+        start.countDown();
+
+        // elements of one producer must come out in the order that producer offered them.
+        long[] expected = new long[producers];
+        int taken = 0;
+        while (taken < producers * perProducer) {
+            Long element = queue.poll();
+            if (element == null) {
+                continue;
+            }
+            int producerId = (int)(element >>> 32);
+            assertEquals(expected[producerId]++, element & 0xFFFFFFFFL);
+            taken++;
+        }
+        assertNull(queue.poll());
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.cyc.demo1.niodemo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares putting and taking a batch of block indexes one at a time with the bulk put(int[], int) and take(int[],
+ * int) of QueueIntFlip. The queue wraps around during every batch, so both the flipped and the unflipped paths are
+ * measured. Run with main(), or with the benchmark profile.
+ *
+ * @author chenyuchuan
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueIntFlipBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    @Param({"1", "16", "256"})
+    public int batchSize;
+
+    private QueueIntFlip queue;
+    private int[] batch;
+
+    @Setup
+    public void setUp() {
+        this.queue = new QueueIntFlip(CAPACITY);
+        this.batch = new int[this.batchSize];
+        for (int i = 0; i < this.batch.length; i++) {
+            this.batch[i] = i;
+        }
+        // start half full and off zero - the batches then wrap around the end of the array.
+        for (int i = 0; i < CAPACITY / 2 + 7; i++) {
+            this.queue.put(i);
+        }
+        for (int i = 0; i < 7; i++) {
+            this.queue.take();
+        }
+    }
+
+    @Benchmark
+    public int putTakeSingle() {
+        for (int i = 0; i < this.batchSize; i++) {
+            this.queue.put(this.batch[i]);
+        }
+        int sum = 0;
+        for (int i = 0; i < this.batchSize; i++) {
+            sum += this.queue.take();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int putTakeBulk() {
+        this.queue.put(this.batch, this.batchSize);
+        return this.queue.take(this.batch, this.batchSize);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(QueueIntFlipBenchmark.class.getSimpleName()).build();
+
+        new Runner(options).run();
+    }
+
+}
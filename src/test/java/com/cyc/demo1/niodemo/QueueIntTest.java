@@ -0,0 +1,162 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class QueueIntTest {
+
+    @Test
+    public void testPutAndTake() {
+        assertPutAndTake(new SpscQueueInt(3));
+        assertPutAndTake(new MpscQueueInt(3));
+    }
+
+    private void assertPutAndTake(IQueueInt queue) {
+        assertEquals(4, queue.capacity());
+        assertEquals(-1, queue.take());
+
+        assertTrue(queue.put(1));
+        assertTrue(queue.put(2));
+        assertEquals(2, queue.put(new int[] {3, 4, 5}, 3)); // only two fit.
+        assertFalse(queue.put(5));
+        assertEquals(4, queue.available());
+
+        assertEquals(1, queue.take());
+        int[] into = new int[4];
+        assertEquals(2, queue.take(into, 2));
+        assertEquals(2, into[0]);
+        assertEquals(3, into[1]);
+
+        // wraps around the end of the array.
+        assertEquals(3, queue.put(new int[] {5, 6, 7}, 3));
+        assertEquals(4, queue.take(into, 4));
+        assertArrayEquals(new int[] {4, 5, 6, 7}, into);
+        assertEquals(0, queue.take(into, 4));
+        assertEquals(0, queue.available());
+    }
+
+    @Test
+    public void testBulkPutAfterTake() {
+        assertBulkPutAfterTake(new SpscQueueInt(4));
+        assertBulkPutAfterTake(new MpscQueueInt(4));
+    }
+
+    private void assertBulkPutAfterTake(IQueueInt queue) {
+        int[] into = new int[4];
+        for (int round = 0; round < 5; round++) {
+            // the producer last saw room for one more element - after the consumer empties the queue, a bulk put must
+            // see all the room, across the end of the array as well.
+            assertEquals(3, queue.put(new int[] {round, 1, 2}, 3));
+            assertEquals(3, queue.take(into, 4));
+            assertEquals(3, queue.put(new int[] {3, 4, 5}, 3));
+            assertEquals(1, queue.put(new int[] {6, 7}, 2)); // only one fits.
+            assertEquals(4, queue.take(into, 4));
+            assertArrayEquals(new int[] {3, 4, 5, 6}, into);
+            assertEquals(0, queue.available());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMpscRejectsNegative() {
+        new MpscQueueInt(4).put(-1);
+    }
+
+    @Test
+    public void testSpscAcrossThreads() throws InterruptedException {
+        int count = 1000000;
+        SpscQueueInt queue = new SpscQueueInt(64);
+
+        Thread producer = new Thread(() -> {
+            int[] batch = new int[7];
+            int next = 0;
+            while (next < count) {
+                int length = Math.min(batch.length, count - next);
+                for (int i = 0; i < length; i++) {
+                    batch[i] = next + i;
+                }
+                int put = queue.put(batch, length);
+                next += put;
+                if (put == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        int[] into = new int[5];
+        int expected = 0;
+        while (expected < count) {
+            int taken = queue.take(into, into.length);
+            for (int i = 0; i < taken; i++) {
+                assertEquals(expected++, into[i]);
+            }
+            if (taken == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertEquals(-1, queue.take());
+    }
+
+    @Test
+    public void testMpscAcrossThreads() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100000;
+        MpscQueueInt queue = new MpscQueueInt(256);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // odd producers put one at a time, even producers in batches.
+                int[] batch = new int[3];
+                int next = first;
+                while (next < first + perProducer) {
+                    int put;
+                    if (first / perProducer % 2 == 1) {
+                        put = queue.put(next) ? 1 : 0;
+                    } else {
+                        int length = Math.min(batch.length, first + perProducer - next);
+                        for (int i = 0; i < length; i++) {
+                            batch[i] = next + i;
+                        }
+                        put = queue.put(batch, length);
+                    }
+                    next += put;
+                    if (put == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producer.start();
+        }
+        start.countDown();
+
+        // every element exactly once, and those of one producer in the order it put them.
+        int[] expected = new int[producers];
+        int[] into = new int[8];
+        int taken = 0;
+        while (taken < producers * perProducer) {
+            int count = queue.take(into, into.length);
+            for (int i = 0; i < count; i++) {
+                int producerId = into[i] / perProducer;
+                assertEquals(producerId * perProducer + expected[producerId]++, into[i]);
+            }
+            taken += count;
+        }
+        assertEquals(-1, queue.take());
+        assertEquals(0, queue.available());
+    }
+
+}
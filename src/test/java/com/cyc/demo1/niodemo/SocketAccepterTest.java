@@ -0,0 +1,111 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.http.HttpResponse;
+import com.cyc.demo1.niodemo.http.HttpStatus;
+
+/**
+ * @author chenyuchuan
+ */
+public class SocketAccepterTest {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private List<ServerSocketChannel> serverSockets = new ArrayList<>();
+    private List<SocketChannel> clientChannels = new ArrayList<>();
+    private TestServer testServer;
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel clientChannel : this.clientChannels) {
+            clientChannel.close();
+        }
+        if (this.testServer != null) {
+            this.testServer.close();
+        }
+        for (ServerSocketChannel serverSocket : this.serverSockets) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testSharedServerSocket() throws Exception {
+        ServerConfig config = new ServerConfig().acceptorCount(2).reusePort(false);
+        ServerSocketChannel serverSocket = openServerSocket(0, config, false);
+        int port = start(config, serverSocket, serverSocket);
+
+        connectAndRequest(port, 200);
+    }
+
+    @Test
+    public void testReusePort() throws Exception {
+        if (!SocketAccepter.isReusePortSupported()) {
+            return; // Java 8, or an operating system without SO_REUSEPORT.
+        }
+        ServerConfig config = new ServerConfig().acceptorCount(2);
+        ServerSocketChannel first = openServerSocket(0, config, true);
+        int port = ((InetSocketAddress)first.getLocalAddress()).getPort();
+        ServerSocketChannel second = openServerSocket(port, config, true);
+        start(config, first, second);
+
+        connectAndRequest(port, 200);
+    }
+
+    private ServerSocketChannel openServerSocket(int port, ServerConfig config, boolean reusePort) throws IOException {
+        ServerSocketChannel serverSocket = SocketAccepter.openServerSocket(port, config, reusePort);
+        this.serverSockets.add(serverSocket);
+        return serverSocket;
+    }
+
+    /**
+     * Starts two SocketProcessors which answer every request with 200 OK, and an accepter per server socket.
+     *
+     * @return the port.
+     */
+    private int start(ServerConfig config, ServerSocketChannel... serverSockets) throws IOException {
+        this.testServer = new TestServer(config, 2,
+            (request, writeProxy) -> HttpResponse.start(writeProxy, request, HttpStatus.OK).send(), serverSockets);
+        return ((InetSocketAddress)serverSockets[0].getLocalAddress()).getPort();
+    }
+
+    /**
+     * Opens the connections at once, then sends a request on each, and checks that each gets its response.
+     */
+    private void connectAndRequest(int port, int connections) throws IOException {
+        for (int i = 0; i < connections; i++) {
+            this.clientChannels.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+        }
+        for (SocketChannel clientChannel : this.clientChannels) {
+            clientChannel.write(ByteBuffer.wrap(REQUEST));
+        }
+
+        ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        for (SocketChannel clientChannel : this.clientChannels) {
+            readBuffer.clear();
+            while (readBuffer.position() == 0 || !endsWithHeaders(readBuffer)) {
+                assertTrue(clientChannel.read(readBuffer) > 0);
+            }
+            String response = new String(readBuffer.array(), 0, readBuffer.position(), StandardCharsets.US_ASCII);
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        }
+    }
+
+    private static boolean endsWithHeaders(ByteBuffer readBuffer) {
+        String text = new String(readBuffer.array(), 0, readBuffer.position(), StandardCharsets.US_ASCII);
+        return text.endsWith("\r\n\r\n");
+    }
+
+}
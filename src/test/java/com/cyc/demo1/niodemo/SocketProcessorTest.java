@@ -0,0 +1,209 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.http.HttpMessageReaderFactory;
+
+/**
+ * @author chenyuchuan
+ */
+public class SocketProcessorTest {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocketChannel serverChannel;
+    private List<SocketChannel> clientChannels = new ArrayList<>();
+
+    // the requests being "processed" - they hold their read blocks until the test releases them.
+    private Queue<Message> heldRequests = new ConcurrentLinkedQueue<>();
+
+    private SocketProcessor socketProcessor;
+
+    @Before
+    public void setUp() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    private void startSocketProcessor(ServerConfig config, MessageBuffer readMessageBuffer, int socketQueueCapacity)
+        throws IOException {
+        this.socketProcessor = new SocketProcessor(new ArrayBlockingQueue<>(socketQueueCapacity), readMessageBuffer,
+            new MessageBuffer(), new HttpMessageReaderFactory(),
+            (request, writeProxy) -> this.heldRequests.add(request.retain()), config);
+
+        Thread processorThread = new Thread(this.socketProcessor, "socket-processor-test");
+        processorThread.setDaemon(true);
+        processorThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel clientChannel : this.clientChannels) {
+            clientChannel.close();
+        }
+        this.serverChannel.close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        // 20 read blocks: reading pauses below 5 free blocks, and resumes at 10.
+        startSocketProcessor(new ServerConfig().watermarks(0.25, 0.5),
+            new MessageBuffer(new MessageBufferConfig().sizeClass(4 * MessageBuffer.KB, 20)), 1);
+
+        SocketChannel first = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+
+        // every held request takes one block - after 15 of them only 4 of the 20 blocks are free.
+        for (int i = 1; i <= 15; i++) {
+            first.write(ByteBuffer.wrap(REQUEST));
+            awaitHeldRequests(i);
+        }
+
+        // reading is paused - this request stays in the socket.
+        first.write(ByteBuffer.wrap(REQUEST));
+        // and a new socket is not taken, but left in the inbound queue, which is full now.
+        SocketChannel second = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+        second.write(ByteBuffer.wrap(REQUEST));
+        connect();
+        assertFalse(this.socketProcessor.addSocket(accept()));
+
+        Thread.sleep(200);
+        assertEquals(15, this.heldRequests.size());
+        assertEquals(1, this.socketProcessor.getMetrics().readPauses.sum());
+        assertEquals(0, this.socketProcessor.getMetrics().readResumes.sum());
+
+        // processing the held requests frees their blocks, and reading resumes.
+        releaseHeldRequests();
+        awaitHeldRequests(2);
+        releaseHeldRequests();
+
+        // both sockets are still served.
+        first.write(ByteBuffer.wrap(REQUEST));
+        second.write(ByteBuffer.wrap(REQUEST));
+        awaitHeldRequests(2);
+        releaseHeldRequests();
+        assertEquals(1, this.socketProcessor.getMetrics().readResumes.sum());
+    }
+
+    @Test
+    public void testTimeouts() throws Exception {
+        startSocketProcessor(new ServerConfig().idleTimeoutMillis(300).readTimeoutMillis(200).timerTickMillis(10),
+            new MessageBuffer(), 4);
+
+        SocketChannel idle = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+        SocketChannel partial = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+        SocketChannel active = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+
+        partial.write(ByteBuffer.wrap("GET / HT".getBytes(StandardCharsets.US_ASCII)));
+
+        // a request every 100ms keeps the socket from being idle.
+        for (int i = 1; i <= 6; i++) {
+            active.write(ByteBuffer.wrap(REQUEST));
+            awaitHeldRequests(i);
+            Thread.sleep(100);
+        }
+        releaseHeldRequests();
+
+        // the active socket is still open, 600ms in.
+        active.configureBlocking(false);
+        assertEquals(0, active.read(ByteBuffer.allocate(1)));
+
+        assertClosed(partial);
+        assertClosed(idle);
+        assertEquals(2, this.socketProcessor.getMetrics().socketsTimedOut.sum());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        startSocketProcessor(new ServerConfig(),
+            new MessageBuffer(new MessageBufferConfig().sizeClass(4 * MessageBuffer.KB, 20)), 4);
+        ProcessorMetrics metrics = this.socketProcessor.getMetrics();
+
+        SocketChannel first = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+        SocketChannel second = connect();
+        assertTrue(this.socketProcessor.addSocket(accept()));
+
+        first.write(ByteBuffer.wrap(REQUEST));
+        first.write(ByteBuffer.wrap(REQUEST));
+        second.write(ByteBuffer.wrap(REQUEST));
+        awaitHeldRequests(3);
+
+        assertEquals(3 * REQUEST.length, metrics.bytesRead.sum());
+        assertEquals(3, metrics.messagesRead.sum());
+        assertEquals(2, metrics.getOpenSockets());
+        // the held requests and the next message of each socket's reader take a block each.
+        assertEquals(20 - 3 - 2, metrics.getReadBufferAvailableBlocks()[0]);
+        assertTrue(metrics.cycleTime.getTotalCount() > 0);
+        releaseHeldRequests();
+
+        second.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getOpenSockets() > 1) {
+            assertTrue("socket not closed", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(2, metrics.socketsOpened.sum());
+        assertEquals(20 - 1, metrics.getReadBufferAvailableBlocks()[0]);
+    }
+
+    private void assertClosed(SocketChannel clientChannel) throws Exception {
+        clientChannel.configureBlocking(false);
+        long deadline = System.currentTimeMillis() + 5000;
+        ByteBuffer readBuffer = ByteBuffer.allocate(16);
+        while (clientChannel.read(readBuffer) != -1) {
+            assertTrue("socket not closed", System.currentTimeMillis() < deadline);
+            readBuffer.clear();
+            Thread.sleep(5);
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel clientChannel = SocketChannel.open(this.serverChannel.getLocalAddress());
+        this.clientChannels.add(clientChannel);
+        return clientChannel;
+    }
+
+    private Socket accept() throws IOException {
+        return new Socket(this.serverChannel.accept());
+    }
+
+    private void awaitHeldRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.heldRequests.size() < count) {
+            assertTrue("expected " + count + " requests, got " + this.heldRequests.size(),
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(count, this.heldRequests.size());
+    }
+
+    private void releaseHeldRequests() {
+        Message request = this.heldRequests.poll();
+        while (request != null) {
+            request.release();
+            request = this.heldRequests.poll();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.cyc.demo1.niodemo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.cyc.demo1.niodemo.http.HttpMessageReaderFactory;
+
+/**
+ * A test fixture: an HTTP server made of SocketProcessors and an accepter per server socket, each on a daemon thread.
+ * close() stops the threads and waits for them - the server sockets belong to the caller.
+ *
+ * @author chenyuchuan
+ */
+public class TestServer implements Closeable {
+
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final List<SocketProcessor> socketProcessors = new ArrayList<>();
+    private final List<SocketAccepter> socketAccepters = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Starts processorCount SocketProcessors which pass the HTTP requests to messageProcessor, and an accepter per
+     * server socket - opened with {@link SocketAccepter#openServerSocket(int, ServerConfig, boolean)}.
+     */
+    public TestServer(ServerConfig config, int processorCount, IMessageProcessor messageProcessor,
+        ServerSocketChannel... serverSockets) throws IOException {
+        for (int i = 0; i < processorCount; i++) {
+            SocketProcessor socketProcessor = new SocketProcessor(new ArrayBlockingQueue<>(config.socketQueueCapacity),
+                new MessageBuffer(), new MessageBuffer(), new HttpMessageReaderFactory(), messageProcessor, config);
+            this.socketProcessors.add(socketProcessor);
+            startDaemon(socketProcessor, "socket-processor-" + i);
+        }
+        for (int i = 0; i < serverSockets.length; i++) {
+            SocketAccepter socketAccepter = new SocketAccepter(serverSockets[i], config, this.socketProcessors, i);
+            this.socketAccepters.add(socketAccepter);
+            startDaemon(socketAccepter, "socket-accepter-" + i);
+        }
+    }
+
+    /**
+     * Stops the accepters first, so no socket is handed to a processor which has stopped already.
+     */
+    @Override
+    public void close() throws IOException {
+        for (SocketAccepter socketAccepter : this.socketAccepters) {
+            socketAccepter.stop();
+        }
+        for (SocketProcessor socketProcessor : this.socketProcessors) {
+            socketProcessor.stop();
+        }
+        try {
+            for (Thread thread : this.threads) {
+                thread.join(STOP_TIMEOUT_MILLIS);
+                if (thread.isAlive()) {
+                    throw new IOException(thread.getName() + " did not stop");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        this.threads.add(thread);
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class TimingWheelTest {
+
+    @Test
+    public void testExpire() {
+        // 10ms ticks, 8 buckets - one turn of the wheel is 80ms.
+        TimingWheel<String> timingWheel = new TimingWheel<>(10, 8, 1000);
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        TimingWheel.Timeout<String> b = new TimingWheel.Timeout<>("b");
+        TimingWheel.Timeout<String> c = new TimingWheel.Timeout<>("c");
+
+        timingWheel.schedule(a, 1025);
+        timingWheel.schedule(b, 1030);
+        timingWheel.schedule(c, 1110); // same bucket as b, one turn later.
+        assertEquals(3, timingWheel.size());
+
+        List<String> expired = new ArrayList<>();
+        timingWheel.advance(1020, expired);
+        assertTrue(expired.isEmpty());
+
+        // a is rounded up to the tick which ends at 1030 - it never fires early.
+        timingWheel.advance(1030, expired);
+        assertEquals(Arrays.asList("a", "b"), sorted(expired));
+        assertFalse(a.isScheduled());
+        assertTrue(c.isScheduled());
+        expired.clear();
+
+        timingWheel.advance(1109, expired);
+        assertTrue(expired.isEmpty());
+        timingWheel.advance(1110, expired);
+        assertEquals(Arrays.asList("c"), expired);
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(10, 8, 0);
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        TimingWheel.Timeout<String> b = new TimingWheel.Timeout<>("b");
+        TimingWheel.Timeout<String> c = new TimingWheel.Timeout<>("c");
+
+        timingWheel.schedule(a, 50);
+        timingWheel.schedule(b, 50);
+        timingWheel.schedule(c, 50);
+        timingWheel.cancel(b); // from the middle of the bucket's list.
+        timingWheel.cancel(b);
+        timingWheel.schedule(c, 70); // moved to a later bucket.
+        assertEquals(2, timingWheel.size());
+
+        List<String> expired = new ArrayList<>();
+        timingWheel.advance(60, expired);
+        assertEquals(Arrays.asList("a"), expired);
+        expired.clear();
+
+        // a deadline in the past fires on the next advance.
+        timingWheel.schedule(a, 10);
+        timingWheel.advance(70, expired);
+        assertEquals(Arrays.asList("a", "c"), sorted(expired));
+    }
+
+    @Test
+    public void testLongPause() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(10, 8, 0);
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        TimingWheel.Timeout<String> b = new TimingWheel.Timeout<>("b");
+        timingWheel.schedule(a, 30);
+        timingWheel.schedule(b, 5000);
+
+        // many turns of the wheel pass in one advance - every bucket is visited once.
+        List<String> expired = new ArrayList<>();
+        timingWheel.advance(1000, expired);
+        assertEquals(Arrays.asList("a"), expired);
+        assertTrue(b.isScheduled());
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> sorted = new ArrayList<>(list);
+        sorted.sort(null);
+        return sorted;
+    }
+
+}
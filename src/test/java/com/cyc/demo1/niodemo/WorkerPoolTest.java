@@ -0,0 +1,195 @@
+package com.cyc.demo1.niodemo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author chenyuchuan
+ */
+public class WorkerPoolTest {
+
+    private MessageBuffer readMessageBuffer;
+    private WriteProxyFixture writeFixture;
+
+    private WorkerPool workerPool;
+
+    @Before
+    public void setUp() throws IOException {
+        this.readMessageBuffer = new MessageBuffer();
+        this.writeFixture = new WriteProxyFixture(new MessageBuffer(), 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.workerPool != null) {
+            this.workerPool.shutdown();
+        }
+        this.writeFixture.close();
+    }
+
+    @Test
+    public void testResponseOrder() throws Exception {
+        // the request's only byte is the time its processing takes, in 10ms. Each request gets two responses, which
+        // carry the request's byte.
+        this.workerPool = new WorkerPool(4, 16, (request, writeProxy) -> {
+            byte delay = request.content(0).get();
+            try {
+                Thread.sleep(delay * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < 2; i++) {
+                Message response = writeProxy.getMessage();
+                response.socketId = request.socketId;
+                response.writeToMessage(new byte[] {delay});
+                assertTrue(writeProxy.enqueue(response));
+            }
+        });
+
+        Socket first = socket(1);
+        Socket second = socket(2);
+        // the first socket's requests finish in reverse order.
+        submit(first, 30);
+        submit(first, 20);
+        submit(second, 5);
+        submit(first, 1);
+
+        int[] firstResponses = new int[6];
+        int firstCount = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (firstCount < 6) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Message response = this.writeFixture.writeQueue.poll();
+            if (response == null) {
+                Thread.sleep(5);
+                continue;
+            }
+            byte delay = response.content(0).get();
+            if (response.socketId == 1) {
+                firstResponses[firstCount++] = delay;
+            } else {
+                // the second socket does not wait for the first - its responses come before those of the first.
+                assertEquals(0, firstCount);
+                assertEquals(5, delay);
+            }
+            response.release();
+        }
+        assertArrayEquals(new int[] {30, 30, 20, 20, 1, 1}, firstResponses);
+
+        assertTrue(first.inFlightRequests.isEmpty());
+        assertEquals(0, this.workerPool.getQueueDepth());
+        assertEquals(0, this.workerPool.getCallerRunsCount());
+    }
+
+    @Test
+    public void testHeldResponseDropped() throws Exception {
+        this.writeFixture.close();
+        this.writeFixture = new WriteProxyFixture(new MessageBuffer(), 2);
+
+        // the request's byte is its delay in 10ms, and the number of responses is 3 for a fast request, 1 otherwise.
+        AtomicInteger rejected = new AtomicInteger();
+        this.workerPool = new WorkerPool(4, 16, (request, writeProxy) -> {
+            byte delay = request.content(0).get();
+            try {
+                Thread.sleep(delay * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < (delay == 0 ? 3 : 1); i++) {
+                Message response = writeProxy.getMessage();
+                response.socketId = request.socketId;
+                response.writeToMessage(new byte[] {delay});
+                if (!writeProxy.enqueue(response)) {
+                    rejected.incrementAndGet();
+                    response.release();
+                }
+            }
+        });
+
+        // the second request's responses are held back until the first is done - then only one of them fits into the
+        // write queue. The rest, and the response of the third request, must not be sent.
+        Socket socket = socket(1);
+        submit(socket, 5);
+        submit(socket, 0);
+        submit(socket, 10);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!socket.inFlightRequests.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(1, rejected.get());
+
+        Message response = this.writeFixture.writeQueue.poll();
+        assertEquals(5, response.content(0).get());
+        response.release();
+        response = this.writeFixture.writeQueue.poll();
+        assertEquals(0, response.content(0).get());
+        response.release();
+        assertNull(this.writeFixture.writeQueue.poll());
+
+        // the SocketProcessor is asked to close the socket after the two responses.
+        assertEquals(Long.valueOf(1), this.writeFixture.writeProxy.pollCloseRequest());
+        assertNull(this.writeFixture.writeProxy.pollCloseRequest());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread submitter = Thread.currentThread();
+        // one worker and a queue of one: the first request blocks the worker, the second waits in the queue, and the
+        // third is processed by the submitting thread.
+        this.workerPool = new WorkerPool(1, 1, (request, writeProxy) -> {
+            if (Thread.currentThread() == submitter) {
+                return;
+            }
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Socket socket = socket(1);
+        submit(socket, 0);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        submit(socket, 0);
+        assertEquals(1, this.workerPool.getQueueDepth());
+        submit(socket, 0);
+        assertEquals(1, this.workerPool.getCallerRunsCount());
+        assertEquals(1, this.workerPool.getActiveCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!socket.inFlightRequests.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(1024, this.readMessageBuffer.availableBlocks(0));
+    }
+
+    private static Socket socket(long socketId) {
+        Socket socket = new Socket();
+        socket.socketId = socketId;
+        return socket;
+    }
+
+    private void submit(Socket socket, int delay) {
+        Message request = this.readMessageBuffer.getMessage();
+        request.socketId = socket.socketId;
+        request.writeToMessage(new byte[] {(byte)delay});
+        this.workerPool.submit(socket, request, this.writeFixture.writeProxy);
+        request.release(); // as the SocketProcessor does - the pool holds on to the request until it is processed.
+    }
+
+}
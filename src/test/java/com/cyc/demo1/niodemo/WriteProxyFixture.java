@@ -0,0 +1,32 @@
+package com.cyc.demo1.niodemo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * A test fixture: a WriteProxy whose responses end up in writeQueue, to be polled by the test instead of being written
+ * by a SocketProcessor.
+ *
+ * @author chenyuchuan
+ */
+public class WriteProxyFixture implements Closeable {
+
+    public final MessageBuffer writeMessageBuffer;
+    public final MpscArrayQueue<Message> writeQueue;
+    public final Selector selector;
+    public final WriteProxy writeProxy;
+
+    public WriteProxyFixture(MessageBuffer writeMessageBuffer, int writeQueueCapacity) throws IOException {
+        this.writeMessageBuffer = writeMessageBuffer;
+        this.writeQueue = new MpscArrayQueue<>(writeQueueCapacity);
+        this.selector = Selector.open();
+        this.writeProxy = new WriteProxy(writeMessageBuffer, this.writeQueue, this.selector);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.selector.close();
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.cyc.demo1.niodemo.frame;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.LoopbackConnection;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+import com.cyc.demo1.niodemo.ServerConfig;
+import com.cyc.demo1.niodemo.Socket;
+import com.cyc.demo1.niodemo.SocketProcessor;
+
+/**
+ * @author chenyuchuan
+ */
+public class LengthPrefixedMessageReaderTest {
+
+    private LoopbackConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.connection = new LoopbackConnection();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.connection.close();
+    }
+
+    @Test
+    public void testVarint() throws IOException {
+        FrameFormat frameFormat = FrameFormat.varint().maxFrameLength(Integer.MAX_VALUE);
+        Frame frame = new Frame();
+        for (int frameLength : new int[] {0, 1, 127, 128, 300, 16383, 16384, 1 << 21, Integer.MAX_VALUE}) {
+            byte[] prefix = new byte[5];
+            int prefixLength = frameFormat.writePrefix(frameLength, prefix, 0);
+            assertEquals(frameFormat.prefixLength(frameLength), prefixLength);
+
+            // the prefix alone is an incomplete frame - except for length 0.
+            int endIndex = frameFormat.parseFrame(prefix, 0, prefixLength, frame);
+            assertEquals(frameLength == 0 ? prefixLength : -1, endIndex);
+            for (int i = 0; i < prefixLength; i++) {
+                assertEquals(-1, frameFormat.parseFrame(prefix, 0, i, frame));
+            }
+        }
+        assertArrayEquals(new byte[] {(byte)0xAC, 0x02}, Arrays.copyOf(prefixOf(frameFormat, 300), 2));
+
+        byte[] tooLong = new byte[] {(byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 0x01};
+        try {
+            frameFormat.parseFrame(tooLong, 0, tooLong.length, frame);
+            fail();
+        } catch (IOException e) {
+            // the varint has more than 5 bytes.
+        }
+    }
+
+    @Test
+    public void testFramesSplitAcrossReads() throws IOException {
+        FrameFormat frameFormat = FrameFormat.varint().headerLength(2);
+        LengthPrefixedMessageReader reader = new LengthPrefixedMessageReader(frameFormat);
+        reader.init(new MessageBuffer());
+
+        byte[] large = new byte[300]; // a two byte prefix
+        Arrays.fill(large, (byte)'x');
+        ByteBuffer data = ByteBuffer.allocate(1024);
+        FrameWriter.write(data, frameFormat, new byte[] {1, 0}, bytes("first"), 0, 5);
+        FrameWriter.write(data, frameFormat, new byte[] {2, 0}, new byte[0], 0, 0);
+        FrameWriter.write(data, frameFormat, new byte[] {3, 0}, large, 0, large.length);
+        byte[] bytes = Arrays.copyOf(data.array(), data.position());
+
+        // the first two frames and the first byte of the third frame's prefix.
+        int firstSplit = 2 + 7 + 1 + 2 + 1;
+        List<Message> messages = readFrames(reader, Arrays.copyOfRange(bytes, 0, firstSplit), 2);
+        assertFrame(messages.get(0), new byte[] {1, 0}, bytes("first"));
+        assertFrame(messages.get(1), new byte[] {2, 0}, new byte[0]);
+        releaseAll(messages);
+        assertTrue(reader.isReadingMessage());
+
+        // the rest of the prefix and half of the payload, then the rest.
+        messages = readFrames(reader, Arrays.copyOfRange(bytes, firstSplit, firstSplit + 150), 0);
+        messages = readFrames(reader, Arrays.copyOfRange(bytes, firstSplit + 150, bytes.length), 1);
+        assertFrame(messages.get(0), new byte[] {3, 0}, large);
+        releaseAll(messages);
+        assertFalse(reader.isReadingMessage());
+        reader.dispose();
+    }
+
+    @Test
+    public void testManyFramesInOneRead() throws IOException {
+        FrameFormat frameFormat = FrameFormat.varint().headerLength(2);
+        LengthPrefixedMessageReader reader = new LengthPrefixedMessageReader(frameFormat);
+        reader.init(new MessageBuffer());
+
+        // 1000 frames plus the prefix of one more in one write - each frame has its number as header and payload.
+        ByteBuffer data = ByteBuffer.allocate(16 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            byte[] number = new byte[] {(byte)(i >> 8), (byte)i};
+            FrameWriter.write(data, frameFormat, number, number, 0, 2);
+        }
+        data.put((byte)4);
+        List<Message> messages = readFrames(reader, Arrays.copyOf(data.array(), data.position()), 1000);
+        for (int i = 0; i < 1000; i++) {
+            byte[] number = new byte[] {(byte)(i >> 8), (byte)i};
+            assertFrame(messages.get(i), number, number);
+        }
+        releaseAll(messages);
+
+        messages = readFrames(reader, new byte[] {9, 9, 7, 7}, 1);
+        assertFrame(messages.get(0), new byte[] {9, 9}, new byte[] {7, 7});
+        releaseAll(messages);
+        assertFalse(reader.isReadingMessage());
+        reader.dispose();
+    }
+
+    @Test
+    public void testFrameTooLarge() throws IOException {
+        FrameFormat frameFormat = FrameFormat.fixedInt().maxFrameLength(16);
+        LengthPrefixedMessageReader reader = new LengthPrefixedMessageReader(frameFormat);
+        reader.init(new MessageBuffer());
+
+        this.connection.clientChannel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 17}));
+        long deadline = System.currentTimeMillis() + 5000;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                reader.read(this.connection.socket);
+            }
+            fail();
+        } catch (IOException e) {
+            assertEquals("frame length 17 exceeds 16", e.getMessage());
+        }
+        reader.dispose();
+    }
+
+    @Test
+    public void testFrameClient() throws IOException {
+        FrameFormat frameFormat = FrameFormat.fixedInt().headerLength(4);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+
+        // echoes every frame with the payload reversed.
+        SocketProcessor socketProcessor = new SocketProcessor(new ArrayBlockingQueue<>(4), new MessageBuffer(),
+            new MessageBuffer(), new LengthPrefixedMessageReaderFactory(frameFormat), (request, writeProxy) -> {
+                Frame frame = (Frame)request.metaData;
+                byte[] header =
+                    Arrays.copyOfRange(request.sharedArray, frame.headerStartIndex, frame.payloadStartIndex);
+                byte[] payload = new byte[frame.getPayloadLength()];
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] = request.sharedArray[frame.payloadEndIndex - 1 - i];
+                }
+                assertTrue(FrameWriter.send(writeProxy, request.socketId, frameFormat, header, payload));
+            }, new ServerConfig());
+        Thread processorThread = new Thread(socketProcessor, "socket-processor-test");
+        processorThread.setDaemon(true);
+        processorThread.start();
+
+        try (FrameClient client = new FrameClient((InetSocketAddress)serverChannel.getLocalAddress(), frameFormat)) {
+            assertTrue(socketProcessor.addSocket(new Socket(serverChannel.accept())));
+
+            byte[] response = client.call(new byte[] {0, 0, 0, 1}, bytes("hello"));
+            assertArrayEquals(new byte[] {0, 0, 0, 1, 'o', 'l', 'l', 'e', 'h'}, response);
+
+            // pipelined - and larger than the client's read buffer.
+            byte[] large = new byte[100 * 1024];
+            Arrays.fill(large, (byte)'y');
+            client.send(new byte[] {0, 0, 0, 2}, large);
+            client.send(new byte[] {0, 0, 0, 3}, bytes("ab"));
+            assertEquals(4 + large.length, client.receive().length);
+            assertArrayEquals(new byte[] {0, 0, 0, 3, 'b', 'a'}, client.receive());
+        } finally {
+            serverChannel.close();
+        }
+    }
+
+    private List<Message> readFrames(LengthPrefixedMessageReader reader, byte[] data, int expected)
+        throws IOException {
+        this.connection.clientChannel.write(ByteBuffer.wrap(data));
+
+        // when no complete frame is expected, keep reading for a while to consume the data.
+        long deadline = System.currentTimeMillis() + (expected == 0 ? 200 : 5000);
+        do {
+            reader.read(this.connection.socket);
+        } while ((expected == 0 || reader.getMessages().size() < expected) && System.currentTimeMillis() < deadline);
+        List<Message> messages = new ArrayList<>(reader.getMessages());
+        reader.getMessages().clear();
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+
+    private static void assertFrame(Message message, byte[] header, byte[] payload) {
+        Frame frame = (Frame)message.metaData;
+        assertArrayEquals(header,
+            Arrays.copyOfRange(message.sharedArray, frame.headerStartIndex, frame.payloadStartIndex));
+        assertArrayEquals(payload,
+            Arrays.copyOfRange(message.sharedArray, frame.payloadStartIndex, frame.payloadEndIndex));
+        assertEquals(message.offset + message.length, frame.payloadEndIndex);
+    }
+
+    private static byte[] prefixOf(FrameFormat frameFormat, int frameLength) {
+        byte[] prefix = new byte[5];
+        frameFormat.writePrefix(frameLength, prefix, 0);
+        return prefix;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void releaseAll(List<Message> messages) {
+        for (Message message : messages) {
+            message.release();
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.cyc.demo1.niodemo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.LoopbackConnection;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+
+/**
+ * @author chenyuchuan
+ */
+public class HttpMessageReaderTest {
+
+    private LoopbackConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.connection = new LoopbackConnection();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.connection.close();
+    }
+
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        HttpMessageReader reader = new HttpMessageReader();
+        reader.init(new MessageBuffer());
+
+        String first = "GET /a HTTP/1.1\r\nContent-Length: 5\r\n\r\n12345";
+        String second = "GET /b HTTP/1.1\r\n\r\n";
+        String third = "POST /c HTTP/1.1\r\nContent-Length: 3\r\n\r\nxyz";
+
+        // two and a half requests in one write, the rest of the third in a second write.
+        List<Message> messages = readRequests(reader, first + second + third.substring(0, 20), 2);
+        assertRequest(first, messages.get(0));
+        assertRequest(second, messages.get(1));
+        releaseAll(messages);
+
+        messages = readRequests(reader, third.substring(20), 1);
+        assertRequest(third, messages.get(0));
+        assertTrue(((HttpHeaders)messages.get(0).metaData).keepAlive);
+        releaseAll(messages);
+        assertFalse(this.connection.socket.closeAfterWrite);
+    }
+
+    @Test
+    public void testManyPipelinedRequests() throws IOException {
+        List<ByteArrayBodySink> sinks = new ArrayList<>();
+        HttpMessageReader reader = new HttpMessageReader(httpHeaders -> {
+            ByteArrayBodySink sink = new ByteArrayBodySink();
+            sinks.add(sink);
+            return sink;
+        }, 8);
+        reader.init(new MessageBuffer());
+
+        // 300 requests in one write - buffered, chunked and streamed in turn - plus the headers of a streamed request
+        // and the start of its body.
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            data.append("GET /a" + i + " HTTP/1.1\r\n\r\n");
+            data.append("POST /b" + i + " HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n0\r\n\r\n");
+            data.append("POST /c" + i + " HTTP/1.1\r\nContent-Length: 10\r\n\r\n0123456789");
+        }
+        String last = "POST /d HTTP/1.1\r\nContent-Length: 10\r\n\r\n";
+        List<Message> messages = readRequests(reader, data + last + "01234", 300);
+        for (int i = 0; i < 100; i++) {
+            assertRequest("GET /a" + i + " HTTP/1.1\r\n\r\n", messages.get(3 * i));
+            assertRequest("POST /b" + i + " HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n",
+                messages.get(3 * i + 1));
+            assertEquals("abc", sinks.get(2 * i).toString());
+            assertRequest("POST /c" + i + " HTTP/1.1\r\nContent-Length: 10\r\n\r\n", messages.get(3 * i + 2));
+            assertEquals("0123456789", sinks.get(2 * i + 1).toString());
+
+            // the indices of the headers point into the message the request was copied to.
+            HttpHeaders httpHeaders = (HttpHeaders)messages.get(3 * i + 2).metaData;
+            assertEquals("/c" + i, new String(messages.get(3 * i + 2).sharedArray, httpHeaders.pathStartIndex,
+                httpHeaders.pathEndIndex - httpHeaders.pathStartIndex, StandardCharsets.UTF_8));
+            assertEquals(10, httpHeaders.getLongValue(messages.get(3 * i + 2).sharedArray,
+                "content-length".getBytes(StandardCharsets.US_ASCII), -1));
+        }
+        releaseAll(messages);
+
+        messages = readRequests(reader, "56789", 1);
+        assertRequest(last, messages.get(0));
+        assertEquals("0123456789", sinks.get(200).toString());
+        releaseAll(messages);
+        reader.dispose();
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        HttpMessageReader reader = new HttpMessageReader();
+        reader.init(new MessageBuffer());
+
+        String first = "GET /a HTTP/1.1\r\nConnection: close\r\n\r\n";
+        String second = "GET /b HTTP/1.1\r\n\r\n";
+
+        // the request after "Connection: close" is not read.
+        List<Message> messages = readRequests(reader, first + second, 1);
+        assertRequest(first, messages.get(0));
+        assertTrue(this.connection.socket.closeAfterWrite);
+        releaseAll(messages);
+        reader.dispose();
+    }
+
+    @Test
+    public void testChunkedRequest() throws IOException {
+        HttpMessageReader reader = new HttpMessageReader();
+        reader.init(new MessageBuffer());
+
+        String headers = "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n";
+        String second = "GET /b HTTP/1.1\r\n\r\n";
+
+        readRequests(reader, headers + "3\r\nabc\r\n", 0);
+        List<Message> messages = readRequests(reader, "2\r\nde\r\n0\r\n\r\n" + second, 2);
+
+        // the body is decoded in place.
+        assertRequest(headers + "abcde", messages.get(0));
+        HttpHeaders httpHeaders = (HttpHeaders)messages.get(0).metaData;
+        assertEquals("abcde", new String(messages.get(0).sharedArray, httpHeaders.bodyStartIndex,
+            httpHeaders.bodyEndIndex - httpHeaders.bodyStartIndex, StandardCharsets.UTF_8));
+        assertRequest(second, messages.get(1));
+        releaseAll(messages);
+        reader.dispose();
+    }
+
+    @Test
+    public void testStreamedBody() throws IOException {
+        List<ByteArrayBodySink> sinks = new ArrayList<>();
+        HttpMessageReader reader = new HttpMessageReader(httpHeaders -> {
+            ByteArrayBodySink sink = new ByteArrayBodySink();
+            sinks.add(sink);
+            return sink;
+        }, 4);
+        reader.init(new MessageBuffer());
+
+        String small = "POST /a HTTP/1.1\r\nContent-Length: 4\r\n\r\n1234";
+        String large = "POST /b HTTP/1.1\r\nContent-Length: 10\r\n\r\n";
+        String chunked = "POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n";
+
+        // the small body is buffered, the large and the chunked bodies are streamed.
+        List<Message> messages = readRequests(reader, small + large + "01234", 1);
+        assertRequest(small, messages.get(0));
+        assertNull(((HttpHeaders)messages.get(0).metaData).bodySink);
+        releaseAll(messages);
+
+        messages = readRequests(reader, "56789" + chunked + "3\r\nabc\r\n", 1);
+        assertRequest(large, messages.get(0));
+        assertSame(sinks.get(0), ((HttpHeaders)messages.get(0).metaData).bodySink);
+        assertEquals("0123456789", sinks.get(0).toString());
+        assertTrue(sinks.get(0).complete);
+        releaseAll(messages);
+
+        messages = readRequests(reader, "0\r\n\r\n", 1);
+        assertRequest(chunked, messages.get(0));
+        assertEquals("abc", sinks.get(1).toString());
+        releaseAll(messages);
+
+        // a body cut off by the closing connection is aborted.
+        readRequests(reader, large + "012", 0);
+        reader.dispose();
+        assertTrue(sinks.get(2).aborted);
+    }
+
+    @Test
+    public void testLargeStreamedBody() throws Exception {
+        // 8MB - far more than the largest block of the MessageBuffer, so the body must be streamed as it arrives.
+        int bodyLength = 8 * MessageBuffer.MB;
+        List<CountingBodySink> sinks = new ArrayList<>();
+        HttpMessageReader reader = new HttpMessageReader(httpHeaders -> {
+            CountingBodySink sink = new CountingBodySink();
+            sinks.add(sink);
+            return sink;
+        }, 1024);
+        MessageBuffer messageBuffer = new MessageBuffer();
+        reader.init(messageBuffer);
+
+        Thread client = new Thread(() -> {
+            try {
+                String headers = "POST /upload HTTP/1.1\r\nContent-Length: " + bodyLength + "\r\n\r\n";
+                this.connection.clientChannel.write(ByteBuffer.wrap(headers.getBytes(StandardCharsets.UTF_8)));
+                ByteBuffer body = ByteBuffer.allocate(64 * MessageBuffer.KB);
+                for (int written = 0; written < bodyLength; written += body.capacity()) {
+                    body.clear();
+                    for (int i = 0; i < body.capacity(); i++) {
+                        body.put((byte)(written + i));
+                    }
+                    body.flip();
+                    while (body.hasRemaining()) {
+                        this.connection.clientChannel.write(body);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        client.start();
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (reader.getMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            reader.read(this.connection.socket);
+        }
+        client.join();
+
+        List<Message> messages = new ArrayList<>(reader.getMessages());
+        reader.getMessages().clear();
+        assertEquals(1, messages.size());
+        assertEquals(1, sinks.size());
+        assertEquals(bodyLength, sinks.get(0).length);
+        assertEquals(0, sinks.get(0).mismatches);
+        assertTrue(sinks.get(0).complete);
+
+        // the request message never grew beyond its first block.
+        assertEquals(4 * MessageBuffer.KB, messages.get(0).capacity);
+        releaseAll(messages);
+        reader.dispose();
+    }
+
+    @Test
+    public void testPipelinedRequestAfterBody() throws IOException {
+        List<ByteArrayBodySink> sinks = new ArrayList<>();
+        HttpMessageReader reader = new HttpMessageReader(httpHeaders -> {
+            ByteArrayBodySink sink = new ByteArrayBodySink();
+            sinks.add(sink);
+            return sink;
+        }, 4);
+        reader.init(new MessageBuffer());
+
+        String buffered = "POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc";
+        String streamed = "POST /b HTTP/1.1\r\nContent-Length: 10\r\n\r\n";
+        String withoutBody = "GET /c HTTP/1.1\r\n\r\n";
+
+        // each request without a body follows one with a body - it must not report the body of its predecessor.
+        List<Message> messages =
+            readRequests(reader, buffered + withoutBody + streamed + "0123456789" + withoutBody, 4);
+        assertRequest(buffered, messages.get(0));
+        assertRequest(withoutBody, messages.get(1));
+        assertRequest(streamed, messages.get(2));
+        assertRequest(withoutBody, messages.get(3));
+        assertSame(sinks.get(0), ((HttpHeaders)messages.get(2).metaData).bodySink);
+        for (int i : new int[] {1, 3}) {
+            HttpHeaders httpHeaders = (HttpHeaders)messages.get(i).metaData;
+            assertEquals(httpHeaders.bodyStartIndex, httpHeaders.bodyEndIndex);
+            assertNull(httpHeaders.bodySink);
+        }
+        assertEquals(1, sinks.size());
+        releaseAll(messages);
+    }
+
+    @Test
+    public void testDisposeDeletesUnprocessedBodyFile() throws IOException {
+        List<TempFileBodySink> sinks = new ArrayList<>();
+        HttpMessageReader reader = new HttpMessageReader(httpHeaders -> {
+            TempFileBodySink sink = new TempFileBodySink();
+            sinks.add(sink);
+            return sink;
+        }, 4);
+        reader.init(new MessageBuffer());
+
+        this.connection.clientChannel.write(ByteBuffer
+            .wrap("POST /a HTTP/1.1\r\nContent-Length: 10\r\n\r\n0123456789".getBytes(StandardCharsets.UTF_8)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reader.getMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            reader.read(this.connection.socket);
+        }
+        assertEquals(1, reader.getMessages().size());
+        Path file = sinks.get(0).getFile();
+        assertTrue(Files.exists(file));
+
+        // the socket is closed before the request is passed on - nobody else would delete the file.
+        reader.dispose();
+        assertFalse(Files.exists(file));
+    }
+
+    private List<Message> readRequests(HttpMessageReader reader, String data, int expected) throws IOException {
+        this.connection.clientChannel.write(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+
+        // when no complete request is expected, keep reading for a while to consume the data.
+        long deadline = System.currentTimeMillis() + (expected == 0 ? 200 : 5000);
+        do {
+            reader.read(this.connection.socket);
+        } while ((expected == 0 || reader.getMessages().size() < expected)
+            && System.currentTimeMillis() < deadline);
+        List<Message> messages = new ArrayList<>(reader.getMessages());
+        reader.getMessages().clear();
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+
+    private void assertRequest(String expected, Message message) {
+        assertEquals(expected, new String(message.sharedArray, message.offset, message.length, StandardCharsets.UTF_8));
+    }
+
+    private void releaseAll(List<Message> messages) {
+        for (Message message : messages) {
+            message.release();
+        }
+    }
+
+    private static class ByteArrayBodySink implements HttpBodySink {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean complete = false;
+        boolean aborted = false;
+
+        @Override
+        public void write(byte[] src, int offset, int length) {
+            this.body.write(src, offset, length);
+        }
+
+        @Override
+        public void complete() {
+            this.complete = true;
+        }
+
+        @Override
+        public void abort() {
+            this.aborted = true;
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Counts the body bytes, and checks that byte n of the body is (byte)n.
+     */
+    private static class CountingBodySink implements HttpBodySink {
+        long length = 0;
+        long mismatches = 0;
+        boolean complete = false;
+
+        @Override
+        public void write(byte[] src, int offset, int length) {
+            for (int i = 0; i < length; i++) {
+                if (src[offset + i] != (byte)(this.length + i)) {
+                    this.mismatches++;
+                }
+            }
+            this.length += length;
+        }
+
+        @Override
+        public void complete() {
+            this.complete = true;
+        }
+
+        @Override
+        public void abort() {}
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.cyc.demo1.niodemo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.DirectMessageBuffer;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+import com.cyc.demo1.niodemo.WriteProxyFixture;
+
+/**
+ * @author chenyuchuan
+ */
+public class HttpResponseTest {
+
+    private WriteProxyFixture writeFixture;
+
+    private Message request;
+
+    @Before
+    public void setUp() throws IOException {
+        // responses go to an off-heap buffer, as with the default ServerConfig.
+        this.writeFixture = new WriteProxyFixture(new DirectMessageBuffer(), 4);
+
+        this.request = new MessageBuffer().getMessage();
+        this.request.socketId = 7;
+        this.request.metaData = new HttpHeaders();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.request.release();
+        this.writeFixture.close();
+    }
+
+    @Test
+    public void testSend() {
+        byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+        assertTrue(HttpResponse.start(this.writeFixture.writeProxy, this.request, HttpStatus.OK)
+            .header(HttpResponse.CONTENT_TYPE_TEXT_PLAIN).header("X-Count".getBytes(StandardCharsets.US_ASCII), -42)
+            .send(body));
+
+        Message response = this.writeFixture.writeQueue.poll();
+        assertEquals(7, response.socketId);
+        String httpResponse = content(response);
+
+        String dateHeader = new String(HttpDateClock.dateHeader(), StandardCharsets.US_ASCII);
+        assertTrue(dateHeader, dateHeader.matches("Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n"));
+
+        String expected = "HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nX-Count: -42\r\n" + "Date: "
+            + "Content-Length: 5\r\n\r\nhello";
+        String withoutDate = httpResponse.replaceFirst("Date: [^\r]*\r\n", "Date: ");
+        assertEquals(expected, withoutDate);
+        response.release();
+    }
+
+    @Test
+    public void testConnectionClose() {
+        ((HttpHeaders)this.request.metaData).keepAlive = false;
+        assertTrue(HttpResponse.start(this.writeFixture.writeProxy, this.request, HttpStatus.NOT_FOUND).send());
+
+        Message response = this.writeFixture.writeQueue.poll();
+        String httpResponse = content(response);
+        assertTrue(httpResponse.startsWith("HTTP/1.1 404 Not Found\r\n"));
+        assertTrue(httpResponse.endsWith("Connection: close\r\nContent-Length: 0\r\n\r\n"));
+        response.release();
+    }
+
+    @Test
+    public void testWithoutBody() {
+        byte[] body = "ignored".getBytes(StandardCharsets.UTF_8);
+        for (HttpStatus status : new HttpStatus[] {HttpStatus.NO_CONTENT, HttpStatus.NOT_MODIFIED}) {
+            assertTrue(HttpResponse.start(this.writeFixture.writeProxy, this.request, status).send(body));
+
+            // neither Content-Length nor the body - the headers end the response.
+            Message response = this.writeFixture.writeQueue.poll();
+            String httpResponse = content(response);
+            assertTrue(httpResponse, httpResponse.startsWith("HTTP/1.1 " + status.code + " "));
+            assertFalse(httpResponse, httpResponse.contains("Content-Length"));
+            assertTrue(httpResponse, httpResponse.matches("(?s).*GMT\r\n\r\n"));
+            response.release();
+        }
+    }
+
+    @Test
+    public void testQueueFull() {
+        int availableBlocks = this.writeFixture.writeMessageBuffer.availableBlocks(0);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(HttpResponse.start(this.writeFixture.writeProxy, this.request, HttpStatus.OK).send());
+        }
+        // the response which does not fit into the queue is released again.
+        assertFalse(HttpResponse.start(this.writeFixture.writeProxy, this.request, HttpStatus.OK).send());
+
+        Message response = this.writeFixture.writeQueue.poll();
+        while (response != null) {
+            response.release();
+            response = this.writeFixture.writeQueue.poll();
+        }
+        assertEquals(availableBlocks, this.writeFixture.writeMessageBuffer.availableBlocks(0));
+    }
+
+    private static String content(Message message) {
+        ByteBuffer content = message.content(0);
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+}
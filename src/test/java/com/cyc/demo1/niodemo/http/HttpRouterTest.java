@@ -0,0 +1,117 @@
+package com.cyc.demo1.niodemo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+import com.cyc.demo1.niodemo.WriteProxyFixture;
+
+/**
+ * @author chenyuchuan
+ */
+public class HttpRouterTest {
+
+    private MessageBuffer messageBuffer;
+    private WriteProxyFixture writeFixture;
+
+    private String handled;
+
+    @Before
+    public void setUp() throws IOException {
+        this.messageBuffer = new MessageBuffer();
+        this.writeFixture = new WriteProxyFixture(this.messageBuffer, 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.writeFixture.close();
+    }
+
+    @Test
+    public void testRoutes() throws IOException {
+        HttpRouter router = new HttpRouter().route(HttpHeaders.HTTP_METHOD_GET, "/", handler("root"))
+            .route(HttpHeaders.HTTP_METHOD_GET, "/orders", handler("orders"))
+            .route(HttpHeaders.HTTP_METHOD_POST, "/orders", handler("createOrder"))
+            .route(HttpHeaders.HTTP_METHOD_GET, "/orders/{id}", handler("order"))
+            .route(HttpHeaders.HTTP_METHOD_GET, "/orders/latest", handler("latest"))
+            .route(HttpHeaders.HTTP_METHOD_GET, "/orders/{id}/items/{item}", handler("item"))
+            .route("/health", handler("health"));
+
+        assertRoute(router, "GET / HTTP/1.1", "root");
+        assertRoute(router, "GET /orders HTTP/1.1", "orders");
+        assertRoute(router, "POST /orders HTTP/1.1", "createOrder");
+        assertRoute(router, "GET /orders/42?expand=items HTTP/1.1", "order id=42");
+        assertRoute(router, "GET /orders/latest HTTP/1.1", "latest");
+        assertRoute(router, "GET /orders/lat HTTP/1.1", "order id=lat");
+        assertRoute(router, "GET /orders/latest/items/7 HTTP/1.1", "item id=latest item=7");
+        assertRoute(router, "DELETE /health HTTP/1.1", "health");
+
+        assertResponse(router, "GET /orders/ HTTP/1.1", "HTTP/1.1 404 Not Found");
+        assertResponse(router, "GET /order HTTP/1.1", "HTTP/1.1 404 Not Found");
+        assertResponse(router, "GET /orders/42/items HTTP/1.1", "HTTP/1.1 404 Not Found");
+        assertResponse(router, "DELETE /orders/42 HTTP/1.1", "HTTP/1.1 405 Method Not Allowed");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParameterMustBeSegment() {
+        new HttpRouter().route("/orders/id{id}", handler("order"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateRoute() {
+        new HttpRouter().route("/orders/{id}", handler("order")).route("/orders/{orderId}", handler("order"));
+    }
+
+    private IHttpRequestHandler handler(String name) {
+        return (request, httpHeaders, pathParameters, writeProxy) -> {
+            StringBuilder handled = new StringBuilder(name);
+            for (int parameter = 0; parameter < pathParameters.size(); parameter++) {
+                handled.append(' ').append(pathParameters.getName(parameter)).append('=')
+                    .append(new String(request.sharedArray, pathParameters.getStartIndex(parameter),
+                        pathParameters.getEndIndex(parameter) - pathParameters.getStartIndex(parameter),
+                        StandardCharsets.UTF_8));
+            }
+            this.handled = handled.toString();
+        };
+    }
+
+    private void assertRoute(HttpRouter router, String requestLine, String handled) throws IOException {
+        this.handled = null;
+        process(router, requestLine);
+        assertEquals(handled, this.handled);
+        assertTrue(this.writeFixture.writeQueue.isEmpty());
+    }
+
+    private void assertResponse(HttpRouter router, String requestLine, String statusLine) throws IOException {
+        this.handled = null;
+        process(router, requestLine);
+        assertNull(this.handled);
+
+        Message response = this.writeFixture.writeQueue.poll();
+        assertNotNull(response);
+        String httpResponse =
+            new String(response.sharedArray, response.offset, response.length, StandardCharsets.UTF_8);
+        assertTrue(httpResponse, httpResponse.startsWith(statusLine + "\r\n"));
+        response.release();
+    }
+
+    private void process(HttpRouter router, String requestLine) throws IOException {
+        Message request = this.messageBuffer.getMessage();
+        request.writeToMessage((requestLine + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        HttpUtil.parseHttpRequest(request.sharedArray, request.offset, request.offset + request.length, httpHeaders);
+        request.metaData = httpHeaders;
+
+        router.process(request, this.writeFixture.writeProxy);
+        request.release();
+    }
+
+}
@@ -1,8 +1,14 @@
 package com.cyc.demo1.niodemo.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -29,7 +35,7 @@ public class HttpUtilTest {
     }
 
     @Test
-    public void testParseHttpRequest() throws UnsupportedEncodingException {
+    public void testParseHttpRequest() throws IOException {
         String httpRequest = "GET / HTTP/1.1\r\n\r\n";
 
         byte[] source = httpRequest.getBytes("UTF-8");
@@ -62,4 +68,174 @@ public class HttpUtilTest {
         assertEquals(42, httpHeaders.bodyEndIndex);
     }
 
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        assertKeepAlive("GET / HTTP/1.1\r\n\r\n", true);
+        assertKeepAlive("GET / HTTP/1.1\r\nConnection: close\r\n\r\n", false);
+        assertKeepAlive("GET / HTTP/1.1\r\nConnection: Close\r\n\r\n", false);
+        assertKeepAlive("GET / HTTP/1.0\r\n\r\n", false);
+        assertKeepAlive("GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n", true);
+    }
+
+    private void assertKeepAlive(String httpRequest, boolean keepAlive) throws IOException {
+        byte[] source = httpRequest.getBytes("UTF-8");
+        HttpHeaders httpHeaders = new HttpHeaders();
+
+        assertEquals(source.length, HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders));
+        assertEquals(keepAlive, httpHeaders.keepAlive);
+    }
+
+    @Test
+    public void testParseChunkedRequest() throws IOException {
+        String httpRequest = "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\nhello\r\n6\r\n world\r\n";
+        byte[] source = httpRequest.getBytes("UTF-8");
+        HttpHeaders httpHeaders = new HttpHeaders();
+
+        assertEquals(-1, HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders));
+        assertTrue(httpHeaders.chunked);
+
+        httpRequest += "0\r\nX-Trailer: 1\r\n\r\nGET / HTTP/1.1\r\n\r\n";
+        source = httpRequest.getBytes("UTF-8");
+        httpHeaders = new HttpHeaders();
+
+        int endIndex = HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders);
+        assertEquals(httpRequest.indexOf("GET"), endIndex);
+        assertEquals(httpRequest.indexOf("5;"), httpHeaders.bodyStartIndex);
+        assertEquals(endIndex, httpHeaders.bodyEndIndex);
+    }
+
+    @Test
+    public void testChunkedDecoder() throws IOException {
+        byte[] source = "a\r\n0123456789\r\n0\r\n\r\n".getBytes("UTF-8");
+        ChunkedDecoder chunkedDecoder = new ChunkedDecoder();
+
+        // feed the body one byte at a time.
+        int index = 0;
+        while (!chunkedDecoder.isComplete()) {
+            index = chunkedDecoder.decode(source, index, index + 1, null);
+        }
+        assertEquals(source.length, index);
+        assertEquals(10, chunkedDecoder.getBodyLength());
+
+        chunkedDecoder.reset();
+        try {
+            chunkedDecoder.decode("x\r\n".getBytes("UTF-8"), 0, 3, null);
+            fail("invalid chunk size accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFindNext() {
+        // the value at every position, so both the word loop and the tail loop find it.
+        for (int length = 1; length < 40; length++) {
+            for (int position = 0; position < length; position++) {
+                byte[] source = new byte[length];
+                Arrays.fill(source, (byte)'a');
+                source[position] = ':';
+                assertEquals(position, HttpUtil.findNext(source, 0, length, (byte)':'));
+                assertEquals(position < 3 ? -1 : position, HttpUtil.findNext(source, 3, length, (byte)':'));
+                assertEquals(-1, HttpUtil.findNext(source, 0, position, (byte)':'));
+            }
+        }
+
+        // bytes with the high bit set must not be mistaken for the value.
+        byte[] source = new byte[] {(byte)0x80, (byte)0xBA, (byte)0xFF, 0x3B, 0x39, 0x7A, (byte)0x8A, 0x01, 0x3A};
+        assertEquals(8, HttpUtil.findNext(source, 0, source.length, (byte)':'));
+        assertEquals(2, HttpUtil.findNext(source, 0, source.length, (byte)0xFF));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testFindNextBeyondArray() {
+        // an endIndex past the end of the array must not read whatever lies behind it.
+        byte[] source = new byte[12];
+        HttpUtil.findNext(source, 0, 20, (byte)':');
+    }
+
+    @Test
+    public void testFindNextLineBreak() throws UnsupportedEncodingException {
+        byte[] source = "Host: localhost\nX: \r\r\nY: 1\r\n".getBytes("UTF-8");
+        assertEquals(21, HttpUtil.findNextLineBreak(source, 0, source.length));
+        assertEquals(27, HttpUtil.findNextLineBreak(source, 22, source.length));
+
+        // the CR before startIndex does not count.
+        assertEquals(-1, HttpUtil.findNextLineBreak(source, 21, 27));
+        assertEquals(-1, HttpUtil.findNextLineBreak(source, 0, 0));
+    }
+
+    @Test
+    public void testHeaderTable() throws IOException {
+        String httpRequest = "POST /orders/42?expand=items HTTP/1.1\r\n" + "Host: localhost:8080\r\n"
+            + "content-length:  3 \r\n" + "X-Retry-Count: 12\r\n" + "X-Empty:\r\n" + "\r\nabc";
+        byte[] source = httpRequest.getBytes("UTF-8");
+        HttpHeaders httpHeaders = new HttpHeaders();
+
+        assertEquals(source.length, HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders));
+        assertEquals(HttpHeaders.HTTP_METHOD_POST, httpHeaders.httpMethod);
+        assertEquals("/orders/42", string(source, httpHeaders.pathStartIndex, httpHeaders.pathEndIndex));
+        assertEquals("expand=items", string(source, httpHeaders.queryStartIndex, httpHeaders.queryEndIndex));
+        assertEquals("localhost:8080", string(source, httpHeaders.hostStartIndex, httpHeaders.hostEndIndex));
+        assertEquals(3, httpHeaders.contentLength);
+
+        assertEquals(4, httpHeaders.getHeaderCount());
+        int header = httpHeaders.findHeader(source, "x-retry-count".getBytes("UTF-8"));
+        assertEquals(2, header);
+        assertEquals("X-Retry-Count",
+            string(source, httpHeaders.getNameStartIndex(header), httpHeaders.getNameEndIndex(header)));
+        assertEquals("12", string(source, httpHeaders.getValueStartIndex(header), httpHeaders.getValueEndIndex(header)));
+        assertEquals(12, httpHeaders.getLongValue(source, "x-retry-count".getBytes("UTF-8"), -1));
+        assertEquals(-1, httpHeaders.getLongValue(source, "x-empty".getBytes("UTF-8"), -1));
+        assertEquals(-1, httpHeaders.findHeader(source, "x-retry".getBytes("UTF-8")));
+
+        // parsing again does not add the headers twice.
+        HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders);
+        assertEquals(4, httpHeaders.getHeaderCount());
+
+        source = "GET /a HTTP/1.1\r\n\r\n".getBytes("UTF-8");
+        HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders);
+        assertEquals("/a", string(source, httpHeaders.pathStartIndex, httpHeaders.pathEndIndex));
+        assertEquals(httpHeaders.queryStartIndex, httpHeaders.queryEndIndex);
+        assertEquals(0, httpHeaders.getHeaderCount());
+    }
+
+    @Test
+    public void testReusedHttpHeaders() throws IOException {
+        byte[] source = "POST / HTTP/1.1\r\nContent-Length: 3\r\n\r\nabcGET / HTTP/1.1\r\n\r\n".getBytes("UTF-8");
+        HttpHeaders httpHeaders = new HttpHeaders();
+        int endOfFirst = HttpUtil.parseHttpRequest(source, 0, source.length, httpHeaders);
+        assertEquals(3, httpHeaders.bodyEndIndex - httpHeaders.bodyStartIndex);
+        TempFileBodySink bodySink = new TempFileBodySink();
+        httpHeaders.bodySink = bodySink;
+
+        // the headers of the next request must not report the body of the previous one.
+        HttpUtil.parseHttpHeaders(source, endOfFirst, source.length, httpHeaders);
+        assertEquals(0, httpHeaders.bodyStartIndex);
+        assertEquals(0, httpHeaders.bodyEndIndex);
+        assertNull(httpHeaders.bodySink);
+        bodySink.abort();
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidContentLength() throws IOException {
+        byte[] source = "GET / HTTP/1.1\r\nContent-Length: 12x\r\n\r\n".getBytes("UTF-8");
+        HttpUtil.parseHttpRequest(source, 0, source.length, new HttpHeaders());
+    }
+
+    @Test
+    public void testParseLong() throws UnsupportedEncodingException {
+        byte[] source = "0 42 9223372036854775807 9223372036854775808 -1".getBytes("UTF-8");
+        assertEquals(0, HttpUtil.parseLong(source, 0, 1));
+        assertEquals(42, HttpUtil.parseLong(source, 2, 4));
+        assertEquals(Long.MAX_VALUE, HttpUtil.parseLong(source, 5, 24));
+        assertEquals(-1, HttpUtil.parseLong(source, 25, 44));
+        assertEquals(-1, HttpUtil.parseLong(source, 45, 47));
+        assertEquals(-1, HttpUtil.parseLong(source, 1, 1));
+    }
+
+    private static String string(byte[] source, int startIndex, int endIndex) {
+        return new String(source, startIndex, endIndex - startIndex, StandardCharsets.UTF_8);
+    }
+
 }
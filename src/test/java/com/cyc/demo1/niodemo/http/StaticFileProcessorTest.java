@@ -0,0 +1,194 @@
+package com.cyc.demo1.niodemo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.DirectMessageBuffer;
+import com.cyc.demo1.niodemo.LoopbackConnection;
+import com.cyc.demo1.niodemo.Message;
+import com.cyc.demo1.niodemo.MessageBuffer;
+import com.cyc.demo1.niodemo.MessageWriter;
+import com.cyc.demo1.niodemo.WriteProxyFixture;
+
+/**
+ * @author chenyuchuan
+ */
+public class StaticFileProcessorTest {
+
+    private Path rootDirectory;
+    private byte[] fileContent;
+
+    private WriteProxyFixture writeFixture;
+    private MessageBuffer readMessageBuffer;
+
+    private LoopbackConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        this.rootDirectory = Files.createTempDirectory("static-files");
+        // larger than the socket buffers, so the transfer cannot complete in one go.
+        this.fileContent = new byte[8 * MessageBuffer.MB];
+        new Random(42).nextBytes(this.fileContent);
+        Files.write(this.rootDirectory.resolve("archive.tar.gz"), this.fileContent);
+
+        this.writeFixture = new WriteProxyFixture(new DirectMessageBuffer(), 16);
+        this.readMessageBuffer = new MessageBuffer();
+
+        this.connection = new LoopbackConnection();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.connection.close();
+        this.writeFixture.close();
+
+        Files.delete(this.rootDirectory.resolve("archive.tar.gz"));
+        Files.delete(this.rootDirectory);
+    }
+
+    @Test
+    public void testGetFile() throws IOException {
+        Message response = process("GET /files/archive.tar.gz HTTP/1.1\r\n\r\n");
+        String headers = send(response, this.fileContent.length);
+
+        assertTrue(headers, headers.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(headers, headers.contains("Content-Type: application/gzip\r\n"));
+        assertTrue(headers, headers.contains("Content-Length: " + this.fileContent.length + "\r\n"));
+    }
+
+    @Test
+    public void testRange() throws IOException {
+        Message response = process("GET /files/archive.tar.gz HTTP/1.1\r\nRange: bytes=1000-1999\r\n\r\n");
+        String headers = send(response, 1000);
+        assertTrue(headers, headers.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(headers, headers.contains("Content-Range: bytes 1000-1999/" + this.fileContent.length + "\r\n"));
+
+        response =
+            process("GET /files/archive.tar.gz HTTP/1.1\r\nRange: bytes=" + this.fileContent.length + "-\r\n\r\n");
+        headers = send(response, 0);
+        assertTrue(headers, headers.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+    }
+
+    @Test
+    public void testNotFound() throws IOException {
+        assertStatus("GET /files/missing.tar.gz HTTP/1.1\r\n\r\n", "HTTP/1.1 404 Not Found");
+        assertStatus("GET /files/../" + this.rootDirectory.getFileName() + "/archive.tar.gz HTTP/1.1\r\n\r\n",
+            "HTTP/1.1 200 OK");
+        assertStatus("GET /files/../../etc/passwd HTTP/1.1\r\n\r\n", "HTTP/1.1 404 Not Found");
+        assertStatus("POST /files/archive.tar.gz HTTP/1.1\r\n\r\n", "HTTP/1.1 405 Method Not Allowed");
+    }
+
+    @Test
+    public void testParseByteRange() {
+        assertArrayEquals(new long[] {0, 99}, parseByteRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {100, 999}, parseByteRange("bytes=100-", 1000));
+        assertArrayEquals(new long[] {900, 999}, parseByteRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] {0, 999}, parseByteRange("bytes=-2000", 1000));
+        assertArrayEquals(new long[] {500, 999}, parseByteRange("bytes=500-5000", 1000));
+        assertSame(StaticFileProcessor.UNSATISFIABLE, parseByteRange("bytes=1000-", 1000));
+        assertNull(parseByteRange("bytes=0-1,5-6", 1000));
+        assertNull(parseByteRange("bytes=9-1", 1000));
+        assertNull(parseByteRange("items=0-1", 1000));
+    }
+
+    private static long[] parseByteRange(String value, long fileSize) {
+        byte[] src = value.getBytes(StandardCharsets.US_ASCII);
+        return StaticFileProcessor.parseByteRange(src, 0, src.length, fileSize);
+    }
+
+    private void assertStatus(String httpRequest, String statusLine) throws IOException {
+        Message response = process(httpRequest);
+        String headers = send(response, -1);
+        assertTrue(headers, headers.startsWith(statusLine + "\r\n"));
+    }
+
+    private Message process(String httpRequest) throws IOException {
+        Message request = this.readMessageBuffer.getMessage();
+        request.writeToMessage(httpRequest.getBytes(StandardCharsets.UTF_8));
+        HttpHeaders httpHeaders = new HttpHeaders();
+        HttpUtil.parseHttpRequest(request.sharedArray, request.offset, request.offset + request.length, httpHeaders);
+        request.metaData = httpHeaders;
+
+        new StaticFileProcessor(this.rootDirectory, "/files/").process(request, this.writeFixture.writeProxy);
+        request.release();
+
+        Message response = this.writeFixture.writeQueue.poll();
+        assertNotNull(response);
+        return response;
+    }
+
+    /**
+     * Writes the response with a MessageWriter, reading it on the client side in between the writes.
+     *
+     * @param expectedBodyLength
+     *            the number of body bytes, which are compared with the file. -1 to skip the comparison.
+     * @return the response headers.
+     */
+    private String send(Message response, int expectedBodyLength) throws IOException {
+        MessageWriter messageWriter = new MessageWriter();
+        messageWriter.enqueue(response);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        while (!messageWriter.isEmpty()) {
+            messageWriter.write(this.connection.socket);
+            read(readBuffer, received);
+        }
+
+        // read the rest of the response - the headers tell how long it is.
+        String text = new String(received.toByteArray(), StandardCharsets.ISO_8859_1);
+        while (!text.contains("\r\n\r\n")
+            || received.size() < text.indexOf("\r\n\r\n") + 4 + contentLength(text)) {
+            read(readBuffer, received);
+            text = new String(received.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] bytes = received.toByteArray();
+        int bodyStartIndex = text.indexOf("\r\n\r\n") + 4;
+        String headers = text.substring(0, bodyStartIndex);
+        assertEquals(contentLength(headers), bytes.length - bodyStartIndex);
+
+        if (expectedBodyLength != -1) {
+            assertEquals(expectedBodyLength, bytes.length - bodyStartIndex);
+            int firstBytePosition = 0;
+            int contentRangeIndex = headers.indexOf("Content-Range: bytes ");
+            if (contentRangeIndex != -1 && headers.startsWith("HTTP/1.1 206")) {
+                int startIndex = contentRangeIndex + 21;
+                firstBytePosition = Integer.parseInt(headers.substring(startIndex, headers.indexOf('-', startIndex)));
+            }
+            for (int i = 0; i < expectedBodyLength; i++) {
+                if (bytes[bodyStartIndex + i] != this.fileContent[firstBytePosition + i]) {
+                    fail("body differs from the file at " + i);
+                }
+            }
+        }
+        return headers;
+    }
+
+    private void read(ByteBuffer readBuffer, ByteArrayOutputStream received) throws IOException {
+        readBuffer.clear();
+        int bytesRead = this.connection.clientChannel.read(readBuffer);
+        assertTrue(bytesRead != -1);
+        received.write(readBuffer.array(), 0, bytesRead);
+    }
+
+    private static int contentLength(String text) {
+        int index = text.indexOf("Content-Length: ");
+        if (index == -1) {
+            return 0;
+        }
+        return Integer.parseInt(text.substring(index + 16, text.indexOf('\r', index)));
+    }
+
+}
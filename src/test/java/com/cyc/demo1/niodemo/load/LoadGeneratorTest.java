@@ -0,0 +1,97 @@
+package com.cyc.demo1.niodemo.load;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyc.demo1.niodemo.ServerConfig;
+import com.cyc.demo1.niodemo.SocketAccepter;
+import com.cyc.demo1.niodemo.TestServer;
+import com.cyc.demo1.niodemo.http.HttpResponse;
+import com.cyc.demo1.niodemo.http.HttpStatus;
+
+/**
+ * @author chenyuchuan
+ */
+public class LoadGeneratorTest {
+
+    private static final byte[] HELLO = "hello".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocketChannel serverChannel;
+    private InetSocketAddress serverAddress;
+    private TestServer testServer;
+
+    @Before
+    public void setUp() throws IOException {
+        ServerConfig config = new ServerConfig();
+        this.serverChannel = SocketAccepter.openServerSocket(0, config, false);
+        this.serverAddress =
+            new InetSocketAddress("localhost", ((InetSocketAddress)this.serverChannel.getLocalAddress()).getPort());
+
+        this.testServer = new TestServer(config, 1,
+            (request, writeProxy) -> HttpResponse.start(writeProxy, request, HttpStatus.OK).send(HELLO),
+            this.serverChannel);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.testServer.close();
+        this.serverChannel.close();
+    }
+
+    @Test
+    public void testClosedLoop() throws Exception {
+        LoadGeneratorConfig config = new LoadGeneratorConfig().connections(8).threads(2).pipelineDepth(4)
+            .warmupMillis(100).durationMillis(300).requestTemplate(LoadGeneratorConfig.httpGet("localhost", "/"))
+            .requestTemplate(LoadGeneratorConfig.httpPost("localhost", "/", "text/plain", HELLO));
+
+        LoadResult result = new LoadGenerator(this.serverAddress, config).run();
+        assertFalse(result.openLoop);
+        assertTrue(result.responses > 0);
+        assertEquals(result.responses, result.latency.getTotalCount());
+        assertEquals(0, result.non2xxResponses);
+        assertEquals(0, result.failedConnections);
+    }
+
+    @Test
+    public void testOpenLoop() throws Exception {
+        // 2000 requests per second for half a second - the server keeps up easily.
+        LoadGeneratorConfig config = new LoadGeneratorConfig().connections(4).pipelineDepth(2)
+            .requestsPerSecond(2000).warmupMillis(100).durationMillis(500)
+            .requestTemplate(LoadGeneratorConfig.httpGet("localhost", "/"));
+
+        LoadResult result = new LoadGenerator(this.serverAddress, config).run();
+        assertTrue(result.openLoop);
+        assertTrue("responses: " + result.responses, result.responses >= 800 && result.responses <= 1010);
+        assertEquals(0, result.failedConnections);
+    }
+
+    @Test
+    public void testParseResponse() throws IOException {
+        byte[] responses = ("HTTP/1.1 200 OK\r\ncontent-LENGTH:  5\r\n\r\nhello"
+            + "HTTP/1.1 204 No Content\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        int firstEndIndex = 44;
+        assertEquals(firstEndIndex, LoadConnection.parseResponse(responses, 0, responses.length));
+        assertEquals(responses.length, LoadConnection.parseResponse(responses, firstEndIndex, responses.length));
+
+        // incomplete: in the headers, and in the body.
+        assertEquals(-1, LoadConnection.parseResponse(responses, 0, 20));
+        assertEquals(-1, LoadConnection.parseResponse(responses, 0, firstEndIndex - 1));
+
+        byte[] invalid = "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        try {
+            LoadConnection.parseResponse(invalid, 0, invalid.length);
+            fail();
+        } catch (IOException e) {
+            // not a number.
+        }
+    }
+
+}